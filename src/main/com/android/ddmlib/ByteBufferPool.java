@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import org.jspecify.annotations.NonNull;
+
+/**
+ * A pool of direct {@link ByteBuffer}s of a fixed size, to read from channels straight into
+ * {@link IShellOutputReceiver#addOutput(ByteBuffer)}.
+ *
+ * <p>Direct buffers are expensive to allocate and are only freed by the garbage collector, so
+ * they are released to the pool after use instead of being allocated for every read. At most the
+ * given number of buffers are kept, the others are left to the garbage collector. This class is
+ * thread safe.
+ */
+public class ByteBufferPool {
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_MAX_POOLED = 64;
+
+    private static ByteBufferPool sDefault = null;
+
+    private final int mBufferSize;
+    private final int mMaxPooled;
+    private final Deque<ByteBuffer> mBuffers = new ArrayDeque<>();
+
+    /**
+     * Creates a pool.
+     *
+     * @param bufferSize the capacity of the buffers
+     * @param maxPooled the maximum number of buffers kept in the pool
+     */
+    public ByteBufferPool(int bufferSize, int maxPooled) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("bufferSize must be positive");
+        }
+        mBufferSize = bufferSize;
+        mMaxPooled = maxPooled;
+    }
+
+    /** Returns the pool shared by default, of 64 KB buffers. */
+    @NonNull
+    public static synchronized ByteBufferPool getDefault() {
+        if (sDefault == null) {
+            sDefault = new ByteBufferPool(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED);
+        }
+        return sDefault;
+    }
+
+    public int getBufferSize() {
+        return mBufferSize;
+    }
+
+    /** Returns a cleared direct buffer, from the pool if possible. */
+    @NonNull
+    public ByteBuffer acquire() {
+        ByteBuffer buffer;
+        synchronized (this) {
+            buffer = mBuffers.pollFirst();
+        }
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(mBufferSize);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. The buffer must not be used by the caller afterwards.
+     *
+     * @param buffer a buffer acquired from this pool
+     */
+    public void release(@NonNull ByteBuffer buffer) {
+        if (!buffer.isDirect() || buffer.capacity() != mBufferSize) {
+            throw new IllegalArgumentException("buffer was not acquired from this pool");
+        }
+        synchronized (this) {
+            if (mBuffers.size() < mMaxPooled) {
+                mBuffers.addFirst(buffer);
+            }
+        }
+    }
+
+    /** Returns the number of buffers available in the pool. */
+    public synchronized int getPooledCount() {
+        return mBuffers.size();
+    }
+}
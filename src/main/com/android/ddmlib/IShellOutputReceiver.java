@@ -16,6 +16,9 @@
 
 package com.android.ddmlib;
 
+import java.nio.ByteBuffer;
+import org.jspecify.annotations.NonNull;
+
 /**
  * Classes which implement this interface provide methods that deal with out from a remote shell
  * command on a device/emulator.
@@ -29,6 +32,30 @@ public interface IShellOutputReceiver {
      */
     void addOutput(byte[] data, int offset, int length);
 
+    /**
+     * Called every time some new data is available in a buffer, e.g. read from a channel.
+     *
+     * <p>The data is between the position and the limit of the buffer, and is consumed: the
+     * position is moved to the limit. The buffer may be reused by the caller once this method
+     * returns.
+     *
+     * <p>The default implementation passes the data to {@link #addOutput(byte[], int, int)}, which
+     * requires a copy when the buffer is direct. Receivers able to consume buffers without copying
+     * them should override it.
+     *
+     * @param data The new data.
+     */
+    default void addOutput(@NonNull ByteBuffer data) {
+        if (data.hasArray()) {
+            addOutput(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            data.position(data.limit());
+        } else {
+            byte[] copy = new byte[data.remaining()];
+            data.get(copy);
+            addOutput(copy, 0, copy.length);
+        }
+    }
+
     /**
      * Called at the end of the process execution (unless the process was
      * canceled). This allows the receiver to terminate and flush whatever
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.jspecify.annotations.NonNull;
+
+/**
+ * An {@link IShellEnabledDevice} running shell commands as local processes, for example through
+ * {@code adb -s <serial> shell}.
+ *
+ * <p>The command is appended as a single argument to the given command prefix, so it is parsed by
+ * the shell at the other end, e.g. {@code sh -c} or the device shell started by {@code adb shell}.
+ * The standard output and error of the process are streamed to the receiver as they arrive.
+ *
+ * <p>A watchdog running on a shared scheduler enforces {@code maxTimeToOutputResponse} and {@code
+ * maxTimeout}, and checks {@link IShellOutputReceiver#isCancelled()} while the process is silent.
+ * The process is killed when any of them triggers.
+ */
+public class LocalProcessShellDevice implements IShellEnabledDevice {
+
+    private static final String LOG_TAG = "LocalProcessShellDevice";
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /** Interval at which the watchdog checks a running command. */
+    private static final long WATCHDOG_INTERVAL_MS = 50;
+
+    private static final ScheduledExecutorService sWatchdogScheduler =
+            Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "shell-watchdog");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /** Why a command was stopped by the watchdog. */
+    private enum StopReason {
+        NONE,
+        CANCELLED,
+        UNRESPONSIVE,
+        TIMEOUT
+    }
+
+    /** Tracks a running command, and kills its process when it must stop. */
+    private static class Watchdog implements Runnable {
+        private final Process mProcess;
+        private final IShellOutputReceiver mReceiver;
+        private final long mStartNanos;
+        private final long mMaxTimeoutNanos;
+        private final long mMaxTimeToOutputNanos;
+
+        private volatile long mLastOutputNanos;
+        private volatile StopReason mStopReason = StopReason.NONE;
+
+        Watchdog(Process process, IShellOutputReceiver receiver, long maxTimeout,
+                long maxTimeToOutputResponse, TimeUnit maxTimeUnits) {
+            mProcess = process;
+            mReceiver = receiver;
+            mStartNanos = System.nanoTime();
+            mLastOutputNanos = mStartNanos;
+            mMaxTimeoutNanos = maxTimeUnits.toNanos(maxTimeout);
+            mMaxTimeToOutputNanos = maxTimeUnits.toNanos(maxTimeToOutputResponse);
+        }
+
+        void outputReceived() {
+            mLastOutputNanos = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            long now = System.nanoTime();
+            if (mReceiver.isCancelled()) {
+                stop(StopReason.CANCELLED);
+            } else if (mMaxTimeoutNanos > 0 && now - mStartNanos > mMaxTimeoutNanos) {
+                stop(StopReason.TIMEOUT);
+            } else if (mMaxTimeToOutputNanos > 0
+                    && now - mLastOutputNanos > mMaxTimeToOutputNanos) {
+                stop(StopReason.UNRESPONSIVE);
+            }
+        }
+
+        void stop(StopReason reason) {
+            if (mStopReason == StopReason.NONE) {
+                mStopReason = reason;
+                // Children of a shell would keep the output pipe open after it is killed.
+                mProcess.descendants().forEach(ProcessHandle::destroyForcibly);
+                mProcess.destroyForcibly();
+            }
+        }
+    }
+
+    private final String mName;
+    private final List<String> mCommandPrefix;
+
+    /**
+     * Creates a device running commands with the given command prefix.
+     *
+     * @param name the name of the device
+     * @param commandPrefix the program and arguments to which each shell command is appended, e.g.
+     *     {@code [adb, -s, emulator-5554, shell]} or {@code [sh, -c]}
+     */
+    public LocalProcessShellDevice(@NonNull String name, @NonNull List<String> commandPrefix) {
+        if (commandPrefix.isEmpty()) {
+            throw new IllegalArgumentException("commandPrefix must not be empty");
+        }
+        mName = name;
+        mCommandPrefix = new ArrayList<>(commandPrefix);
+    }
+
+    @Override
+    public String getName() {
+        return mName;
+    }
+
+    /** Returns the program and arguments to which each shell command is appended. */
+    @NonNull
+    public List<String> getCommandPrefix() {
+        return Collections.unmodifiableList(mCommandPrefix);
+    }
+
+    @Override
+    public void executeShellCommand(String command, IShellOutputReceiver receiver,
+            long maxTimeToOutputResponse, TimeUnit maxTimeUnits)
+            throws TimeoutException, ShellCommandUnresponsiveException, IOException {
+        executeShellCommand(command, receiver, 0, maxTimeToOutputResponse, maxTimeUnits);
+    }
+
+    @Override
+    public void executeShellCommand(String command, IShellOutputReceiver receiver,
+            long maxTimeout, long maxTimeToOutputResponse, TimeUnit maxTimeUnits)
+            throws TimeoutException, ShellCommandUnresponsiveException, IOException {
+        List<String> processCommand = new ArrayList<>(mCommandPrefix);
+        processCommand.add(command);
+        ProcessBuilder builder = new ProcessBuilder(processCommand);
+        builder.redirectErrorStream(true);
+        Log.d(LOG_TAG, String.format("Running '%1$s' on %2$s", command, mName));
+        Process process = builder.start();
+        process.getOutputStream().close();
+
+        Watchdog watchdog = new Watchdog(process, receiver, maxTimeout, maxTimeToOutputResponse,
+                maxTimeUnits);
+        ScheduledFuture<?> watchdogFuture = sWatchdogScheduler.scheduleWithFixedDelay(
+                watchdog, WATCHDOG_INTERVAL_MS, WATCHDOG_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (InputStream output = process.getInputStream()) {
+                int count;
+                while ((count = output.read(buffer)) != -1) {
+                    watchdog.outputReceived();
+                    if (receiver.isCancelled()) {
+                        watchdog.stop(StopReason.CANCELLED);
+                        break;
+                    }
+                    receiver.addOutput(buffer, 0, count);
+                }
+            } catch (IOException e) {
+                // The stream is closed under the reader when the watchdog kills the process.
+                if (watchdog.mStopReason == StopReason.NONE) {
+                    throw e;
+                }
+            }
+            process.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while running " + command);
+        } finally {
+            watchdogFuture.cancel(false);
+            if (process.isAlive()) {
+                process.descendants().forEach(ProcessHandle::destroyForcibly);
+                process.destroyForcibly();
+            }
+        }
+
+        switch (watchdog.mStopReason) {
+            case TIMEOUT:
+                Log.w(LOG_TAG, String.format("'%1$s' on %2$s timed out", command, mName));
+                throw new TimeoutException(String.format(
+                        "'%1$s' did not complete after %2$d %3$s", command, maxTimeout,
+                        maxTimeUnits.name().toLowerCase()));
+            case UNRESPONSIVE:
+                Log.w(LOG_TAG, String.format("'%1$s' on %2$s is unresponsive", command, mName));
+                throw new ShellCommandUnresponsiveException();
+            default:
+                break;
+        }
+        // like adb, the receiver is only flushed at the end of a process which wasn't cancelled
+        if (!receiver.isCancelled()) {
+            receiver.flush();
+        }
+    }
+}
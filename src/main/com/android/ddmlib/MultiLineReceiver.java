@@ -16,8 +16,10 @@
 
 package com.android.ddmlib;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import org.jspecify.annotations.NonNull;
 
@@ -25,17 +27,25 @@ import org.jspecify.annotations.NonNull;
  * Base implementation of {@link IShellOutputReceiver}, that takes the raw data coming from the
  * socket, and convert it into {@link String} objects.
  *
- * <p>Additionally, it splits the string by lines.
+ * <p>Additionally, it splits the string by lines. Data given in a {@link ByteBuffer}, including a
+ * direct one, is split without being copied first.
  *
  * <p>Classes extending it must implement {@link #processNewLines(String[])} which receives new
  * parsed lines as they become available.
  */
 public abstract class MultiLineReceiver implements IShellOutputReceiver {
 
+    private static final int INITIAL_LINE_CAPACITY = 256;
+
     private boolean mTrimLines = true;
 
-    /** unfinished message line, stored for next packet */
-    private String mUnfinishedLine = null;
+    /** bytes of the unfinished message line, stored for next packet */
+    private byte[] mUnfinishedLine = new byte[INITIAL_LINE_CAPACITY];
+
+    private int mUnfinishedLineLength = 0;
+
+    /** whether output was received, in which case the unfinished line is flushed, even if empty */
+    private boolean mHasUnfinishedLine = false;
 
     private final Collection<String> mArray = new ArrayList<>();
 
@@ -54,56 +64,84 @@ public abstract class MultiLineReceiver implements IShellOutputReceiver {
      */
     @Override
     public final void addOutput(byte[] data, int offset, int length) {
-        if (!isCancelled()) {
-            String s = new String(data, offset, length, StandardCharsets.UTF_8);
-
-            // ok we've got a string
-            // if we had an unfinished line we add it.
-            if (mUnfinishedLine != null) {
-                s = mUnfinishedLine + s;
-                mUnfinishedLine = null;
-            }
-
-            // now we split the lines
-            mArray.clear();
-            int start = 0;
-            do {
-                int index = s.indexOf('\n', start); // $NON-NLS-1$
-
-                // if \n was not found, this is an unfinished line
-                // and we store it to be processed for the next packet
-                if (index == -1) {
-                    mUnfinishedLine = s.substring(start);
-                    break;
-                }
-
-                // we found a \n, in older devices, this is preceded by a \r
-                int newlineLength = 1;
-                if (index > 0 && s.charAt(index - 1) == '\r') {
-                    index--;
-                    newlineLength = 2;
-                }
+        addOutput(ByteBuffer.wrap(data, offset, length));
+    }
 
-                // extract the line
-                String line = s.substring(start, index);
+    /**
+     * Splits the data into lines without copying the buffer, even when it is direct. Only the
+     * bytes of each line are decoded, so characters cut between two packets are preserved.
+     */
+    @Override
+    public final void addOutput(@NonNull ByteBuffer data) {
+        if (isCancelled()) {
+            return;
+        }
+        int limit = data.limit();
+        int start = data.position();
+        mArray.clear();
+        for (int i = start; i < limit; i++) {
+            if (data.get(i) == '\n') {
+                String line = decodeLine(data, start, i);
                 if (mTrimLines) {
                     line = line.trim();
                 }
                 mArray.add(line);
+                // move start to after the \n we found
+                start = i + 1;
+            }
+        }
+        // the rest is an unfinished line, processed with the next packet
+        appendUnfinishedLine(data, start, limit);
+        mHasUnfinishedLine = true;
+        data.position(limit);
+
+        if (!mArray.isEmpty()) {
+            // at this point we've split all the lines.
+            // make the array
+            String[] lines = mArray.toArray(new String[0]);
+
+            // send it for final processing
+            processNewLines(lines);
+        }
+    }
 
-                // move start to after the \r\n we found
-                start = index + newlineLength;
-            } while (true);
-
-            if (!mArray.isEmpty()) {
-                // at this point we've split all the lines.
-                // make the array
-                String[] lines = mArray.toArray(new String[0]);
-
-                // send it for final processing
-                processNewLines(lines);
+    /**
+     * Returns the line ending at the given index, starting with the unfinished line if any. In
+     * older devices, the \n is preceded by a \r, which is removed.
+     */
+    private String decodeLine(ByteBuffer data, int start, int end) {
+        if (mUnfinishedLineLength == 0 && data.hasArray()) {
+            byte[] array = data.array();
+            int offset = data.arrayOffset() + start;
+            int length = end - start;
+            if (length > 0 && array[offset + length - 1] == '\r') {
+                length--;
             }
+            return new String(array, offset, length, StandardCharsets.UTF_8);
         }
+        appendUnfinishedLine(data, start, end);
+        int length = mUnfinishedLineLength;
+        if (length > 0 && mUnfinishedLine[length - 1] == '\r') {
+            length--;
+        }
+        mUnfinishedLineLength = 0;
+        return new String(mUnfinishedLine, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private void appendUnfinishedLine(ByteBuffer data, int start, int end) {
+        int length = end - start;
+        if (length == 0) {
+            return;
+        }
+        if (mUnfinishedLineLength + length > mUnfinishedLine.length) {
+            mUnfinishedLine = Arrays.copyOf(mUnfinishedLine,
+                    Math.max(mUnfinishedLine.length * 2, mUnfinishedLineLength + length));
+        }
+        ByteBuffer source = data.duplicate();
+        source.limit(end);
+        source.position(start);
+        source.get(mUnfinishedLine, mUnfinishedLineLength, length);
+        mUnfinishedLineLength += length;
     }
 
     /* (non-Javadoc)
@@ -111,13 +149,25 @@ public abstract class MultiLineReceiver implements IShellOutputReceiver {
      */
     @Override
     public void flush() {
-        if (mUnfinishedLine != null) {
-            processNewLines(new String[] {mUnfinishedLine});
+        if (mHasUnfinishedLine) {
+            processNewLines(new String[] {
+                new String(mUnfinishedLine, 0, mUnfinishedLineLength, StandardCharsets.UTF_8)
+            });
         }
 
         done();
     }
 
+    /**
+     * Forgets the output received so far, so that the receiver can receive the output of another
+     * command. The buffers grown by previous outputs are kept.
+     */
+    public void reset() {
+        mUnfinishedLineLength = 0;
+        mHasUnfinishedLine = false;
+        mArray.clear();
+    }
+
     /**
      * Terminates the process. This is called after the last lines have been through {@link
      * #processNewLines(String[])}.
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.IShellOutputReceiver;
+import com.android.ddmlib.Log;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.jspecify.annotations.NonNull;
+
+/**
+ * A policy aborting test runs early, e.g. when a broken build makes every test fail.
+ *
+ * <p>Added to a {@link RemoteAndroidTestRunner} with {@link
+ * RemoteAndroidTestRunner#addAbortPolicy}, a policy receives the events of the runs as a listener.
+ * Once it trips, the running instrumentation is cancelled and its run is reported as failed with
+ * the reason of the policy, and the runs started later are failed without being launched.
+ *
+ * <p>A policy keeps its state across all the runs it is added to, so it can be shared by the
+ * runners of all the devices to stop them all at once. Policies are thread safe.
+ */
+public abstract class AbortPolicy implements ITestRunListener {
+
+    private static final String LOG_TAG = "AbortPolicy";
+
+    static final String ABORT_MSG = "Test run aborted: %1$s";
+
+    private final Set<TestIdentifier> mFailedTests = new HashSet<>();
+    private String mAbortReason = null;
+
+    /**
+     * Returns a policy aborting the runs after the given number of test failures.
+     */
+    @NonNull
+    public static AbortPolicy maxFailures(int maxFailures) {
+        return new AbortPolicy() {
+            private int mFailures = 0;
+
+            @Override
+            protected void onTestEnded(TestIdentifier test, boolean failed) {
+                if (failed && ++mFailures >= maxFailures) {
+                    abort(String.format("%1$d tests failed", mFailures));
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns a policy aborting the runs when the tests failing among the last tests exceed the
+     * given rate.
+     *
+     * @param maxFailurePercent the highest acceptable percentage of failures
+     * @param windowSize the number of most recent tests the rate is computed on. The policy does
+     *     not trip before that many tests have ended
+     */
+    @NonNull
+    public static AbortPolicy maxFailureRate(double maxFailurePercent, int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("windowSize must be positive");
+        }
+        return new AbortPolicy() {
+            private final boolean[] mWindow = new boolean[windowSize];
+            private int mCount = 0;
+            private int mFailures = 0;
+
+            @Override
+            protected void onTestEnded(TestIdentifier test, boolean failed) {
+                int index = mCount % windowSize;
+                if (mCount >= windowSize && mWindow[index]) {
+                    mFailures--;
+                }
+                mWindow[index] = failed;
+                if (failed) {
+                    mFailures++;
+                }
+                mCount++;
+                if (mCount >= windowSize && mFailures * 100.0 / windowSize > maxFailurePercent) {
+                    abort(String.format("%1$d of the last %2$d tests failed",
+                            mFailures, windowSize));
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns a policy aborting the runs after the given number of consecutive instrumentation
+     * crashes with the same failure, ignoring the numbers in the failure message. A test passing
+     * in between resets the count.
+     */
+    @NonNull
+    public static AbortPolicy maxConsecutiveCrashes(int maxCrashes) {
+        return new AbortPolicy() {
+            private String mSignature = null;
+            private int mCrashes = 0;
+
+            @Override
+            protected void onTestEnded(TestIdentifier test, boolean failed) {
+                if (!failed) {
+                    mSignature = null;
+                    mCrashes = 0;
+                }
+            }
+
+            @Override
+            protected void onRunFailed(String errorMessage) {
+                String signature = errorMessage.replaceAll("[0-9]+", "#");
+                if (!signature.equals(mSignature)) {
+                    mSignature = signature;
+                    mCrashes = 0;
+                }
+                if (++mCrashes >= maxCrashes) {
+                    abort(String.format("%1$d consecutive runs failed with: %2$s",
+                            mCrashes, errorMessage));
+                }
+            }
+        };
+    }
+
+    /** Returns why the runs must be aborted, or null if the policy has not tripped. */
+    public synchronized String getAbortReason() {
+        return mAbortReason;
+    }
+
+    /** Trips the policy. Only the first reason is kept. */
+    protected synchronized void abort(@NonNull String reason) {
+        if (mAbortReason == null) {
+            mAbortReason = reason;
+        }
+    }
+
+    /**
+     * Called when a test ends.
+     *
+     * @param failed whether the test failed, as opposed to passed, was ignored or had an
+     *     assumption failure
+     */
+    protected void onTestEnded(TestIdentifier test, boolean failed) {}
+
+    /** Called when a test run fails to complete. */
+    protected void onRunFailed(String errorMessage) {}
+
+    @Override
+    public void testRunStarted(String runName, int testCount) {}
+
+    @Override
+    public void testStarted(TestIdentifier test) {}
+
+    @Override
+    public synchronized void testFailed(TestIdentifier test, String trace) {
+        mFailedTests.add(test);
+    }
+
+    @Override
+    public void testAssumptionFailure(TestIdentifier test, String trace) {}
+
+    @Override
+    public void testIgnored(TestIdentifier test) {}
+
+    @Override
+    public synchronized void testEnded(TestIdentifier test, Map<String, String> testMetrics) {
+        onTestEnded(test, mFailedTests.remove(test));
+    }
+
+    @Override
+    public synchronized void testRunFailed(String errorMessage) {
+        // the failures reported when a policy aborts a run are not crashes
+        if (!errorMessage.startsWith(String.format(ABORT_MSG, ""))) {
+            onRunFailed(errorMessage);
+        }
+    }
+
+    @Override
+    public void testRunStopped(long elapsedTime) {}
+
+    @Override
+    public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {}
+
+    /** Returns the reason of the first tripped policy, or null if none tripped. */
+    static String getAbortReason(List<AbortPolicy> policies) {
+        for (AbortPolicy policy : policies) {
+            String reason = policy.getAbortReason();
+            if (reason != null) {
+                return reason;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Passes the output of a run to its parser, and aborts the run once a policy trips.
+     *
+     * <p>The policies are checked after each chunk of output, once the parser has reported its
+     * events to all the listeners, and whenever the device checks whether the receiver is
+     * cancelled, which it does while the output is silent, so that a policy tripped by another
+     * device stops a silent one too.
+     */
+    static class Guard implements IShellOutputReceiver {
+        private final IShellOutputReceiver mReceiver;
+        private final IInstrumentationResultParser mParser;
+        private final List<AbortPolicy> mPolicies;
+
+        /**
+         * @param receiver the receiver passing the output to the parser
+         * @param parser the parser of the run
+         * @param policies the policies, which must be listeners of the parser
+         */
+        Guard(IShellOutputReceiver receiver, IInstrumentationResultParser parser,
+                List<AbortPolicy> policies) {
+            mReceiver = receiver;
+            mParser = parser;
+            mPolicies = policies;
+        }
+
+        @Override
+        public void addOutput(byte[] data, int offset, int length) {
+            mReceiver.addOutput(data, offset, length);
+            check();
+        }
+
+        @Override
+        public void addOutput(@NonNull ByteBuffer data) {
+            mReceiver.addOutput(data);
+            check();
+        }
+
+        @Override
+        public void flush() {
+            mReceiver.flush();
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return check() || mReceiver.isCancelled();
+        }
+
+        /** Aborts the run if a policy tripped, and returns whether it did. */
+        boolean check() {
+            if (mParser.isCancelled()) {
+                return true;
+            }
+            String reason = getAbortReason(mPolicies);
+            if (reason == null) {
+                return false;
+            }
+            Log.w(LOG_TAG, String.format(ABORT_MSG, reason));
+            mParser.handleTestRunFailed(String.format(ABORT_MSG, reason));
+            mParser.cancel();
+            return true;
+        }
+    }
+}
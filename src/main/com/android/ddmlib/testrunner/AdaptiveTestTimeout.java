@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.IShellOutputReceiver;
+import com.android.ddmlib.Log;
+import com.android.ddmlib.testrunner.TestResult.TestStatus;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.jspecify.annotations.NonNull;
+
+/**
+ * Per-test timeouts derived from the durations of previous runs.
+ *
+ * <p>Set on a {@link RemoteAndroidTestRunner} with {@link
+ * RemoteAndroidTestRunner#setAdaptiveTestTimeout}, it follows the running test from the parser
+ * events. The timeout of a test is the 99th percentile of its recorded durations multiplied by
+ * {@link #setSafetyFactor(double) a safety factor}, and at least {@link #setMinTimeout(long) the
+ * minimum timeout}. Tests without history use {@link #setDefaultTimeout(long) the default
+ * timeout}, and have no timeout if it is 0.
+ *
+ * <p>When a test runs past its timeout, it is reported as failed with a timeout message, the run
+ * is reported as failed, and the instrumentation is cancelled. The timers of all the runs share a
+ * single {@link TimerWheel}.
+ *
+ * <p>The durations of the tests which pass are recorded, so the timeouts adapt to the recent
+ * history of each test. This class is thread safe and can be shared by the runners of all the
+ * devices.
+ */
+public class AdaptiveTestTimeout {
+
+    private static final String LOG_TAG = "AdaptiveTestTimeout";
+
+    private static final char METHOD_SEPARATOR = '#';
+
+    /** Number of recent durations kept for each test. */
+    private static final int MAX_SAMPLES = 100;
+
+    static final String TIMEOUT_MSG = "Test timed out after %1$d ms";
+
+    /** The most recent durations of a test, in a ring buffer. */
+    private static class Samples {
+        private final long[] mDurations = new long[MAX_SAMPLES];
+        private int mCount = 0;
+        private int mNext = 0;
+
+        void add(long durationMs) {
+            mDurations[mNext] = durationMs;
+            mNext = (mNext + 1) % MAX_SAMPLES;
+            mCount = Math.min(mCount + 1, MAX_SAMPLES);
+        }
+
+        long getP99() {
+            long[] sorted = Arrays.copyOf(mDurations, mCount);
+            Arrays.sort(sorted);
+            return sorted[(int) Math.ceil(mCount * 0.99) - 1];
+        }
+    }
+
+    private final Map<String, Samples> mHistory = new HashMap<>();
+    private double mSafetyFactor = 3;
+    private long mMinTimeoutMs = TimeUnit.SECONDS.toMillis(10);
+    private long mDefaultTimeoutMs = 0;
+    private TimerWheel mTimerWheel = TimerWheel.getDefault();
+
+    /** Sets the factor applied to the 99th percentile of the durations. Defaults to 3. */
+    public void setSafetyFactor(double safetyFactor) {
+        mSafetyFactor = safetyFactor;
+    }
+
+    /** Sets the minimum timeout of a test with history, in ms. Defaults to 10 seconds. */
+    public void setMinTimeout(long minTimeoutMs) {
+        mMinTimeoutMs = minTimeoutMs;
+    }
+
+    /** Sets the timeout of tests without history, in ms. Defaults to 0, that is no timeout. */
+    public void setDefaultTimeout(long defaultTimeoutMs) {
+        mDefaultTimeoutMs = defaultTimeoutMs;
+    }
+
+    /** Sets the timer wheel running the timers. Defaults to {@link TimerWheel#getDefault()}. */
+    public void setTimerWheel(@NonNull TimerWheel timerWheel) {
+        mTimerWheel = timerWheel;
+    }
+
+    /**
+     * Records the duration of a test.
+     *
+     * @param test the test as {@code className#methodName}
+     */
+    public synchronized void addDuration(@NonNull String test, long durationMs) {
+        mHistory.computeIfAbsent(test, key -> new Samples()).add(Math.max(0, durationMs));
+    }
+
+    /** Records the durations of the passed tests of a previous run. */
+    public void addHistory(@NonNull TestRunResult runResult) {
+        for (Map.Entry<TestIdentifier, TestResult> entry : runResult.getTestResults().entrySet()) {
+            TestResult result = entry.getValue();
+            if (result.getStatus() == TestStatus.PASSED) {
+                addDuration(getName(entry.getKey()),
+                        result.getEndTime() - result.getStartTime());
+            }
+        }
+    }
+
+    /**
+     * Returns the timeout of a test in ms, or 0 if it has none.
+     */
+    public synchronized long getTimeout(@NonNull TestIdentifier test) {
+        Samples samples = mHistory.get(getName(test));
+        if (samples == null) {
+            return mDefaultTimeoutMs;
+        }
+        return Math.max(mMinTimeoutMs, (long) Math.ceil(samples.getP99() * mSafetyFactor));
+    }
+
+    /**
+     * Creates the watch of a single run. It must be given to the parser as a listener, then
+     * attached to the parser and given to the device in place of the receiver of the output.
+     */
+    Watch createWatch() {
+        return new Watch();
+    }
+
+    private static String getName(TestIdentifier test) {
+        return test.getClassName() + METHOD_SEPARATOR + test.getTestName();
+    }
+
+    /**
+     * Follows the running test of a run, and fails it when it times out.
+     *
+     * <p>The timers only record the timeout, since they run on the thread shared by the timers of
+     * all the devices and reporting calls every listener. The timeout is reported from the thread
+     * of the device, the next time it passes output or checks whether the receiver is cancelled,
+     * which devices do while the output is silent.
+     */
+    class Watch implements IShellOutputReceiver, ITestRunListener {
+        private IInstrumentationResultParser mParser = null;
+        private IShellOutputReceiver mReceiver = null;
+        private TimerWheel.Timeout mTimeout = null;
+        private volatile TestIdentifier mCurrentTest = null;
+        /** The test which timed out, set by the timer and reset once reported. */
+        private volatile TestIdentifier mTimedOutTest = null;
+        private volatile String mTimeoutMessage = null;
+        private long mStartTimeMs = 0;
+        private boolean mCurrentTestFailed = false;
+
+        /**
+         * @param parser the parser of the run
+         * @param receiver the receiver passing the output to the parser
+         */
+        synchronized void attach(@NonNull IInstrumentationResultParser parser,
+                @NonNull IShellOutputReceiver receiver) {
+            mParser = parser;
+            mReceiver = receiver;
+        }
+
+        /** Cancels the timer of the running test, if any. */
+        synchronized void stop() {
+            if (mTimeout != null) {
+                mTimeout.cancel();
+                mTimeout = null;
+            }
+            mCurrentTest = null;
+        }
+
+        @Override
+        public synchronized void addOutput(byte[] data, int offset, int length) {
+            reportTimeout();
+            mReceiver.addOutput(data, offset, length);
+        }
+
+        @Override
+        public synchronized void addOutput(@NonNull ByteBuffer data) {
+            reportTimeout();
+            mReceiver.addOutput(data);
+        }
+
+        @Override
+        public synchronized void flush() {
+            reportTimeout();
+            mReceiver.flush();
+        }
+
+        @Override
+        public boolean isCancelled() {
+            reportTimeout();
+            return mReceiver.isCancelled();
+        }
+
+        @Override
+        public void testRunStarted(String runName, int testCount) {}
+
+        @Override
+        public synchronized void testStarted(TestIdentifier test) {
+            stop();
+            mCurrentTest = test;
+            mStartTimeMs = System.currentTimeMillis();
+            mCurrentTestFailed = false;
+            long timeoutMs = getTimeout(test);
+            if (timeoutMs > 0) {
+                mTimeout = mTimerWheel.schedule(
+                        () -> onTimeout(test, timeoutMs), timeoutMs, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        @Override
+        public synchronized void testFailed(TestIdentifier test, String trace) {
+            // Durations of failed tests are not representative.
+            mCurrentTestFailed = true;
+        }
+
+        @Override
+        public void testAssumptionFailure(TestIdentifier test, String trace) {}
+
+        @Override
+        public void testIgnored(TestIdentifier test) {}
+
+        @Override
+        public synchronized void testEnded(TestIdentifier test, Map<String, String> testMetrics) {
+            if (test.equals(mCurrentTest) && !mCurrentTestFailed) {
+                addDuration(getName(test), System.currentTimeMillis() - mStartTimeMs);
+            }
+            stop();
+        }
+
+        @Override
+        public void testRunFailed(String errorMessage) {}
+
+        @Override
+        public void testRunStopped(long elapsedTime) {}
+
+        @Override
+        public synchronized void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+            stop();
+        }
+
+        /** Called on the timer thread, only records the timeout to be reported. */
+        private void onTimeout(TestIdentifier test, long timeoutMs) {
+            if (!test.equals(mCurrentTest)) {
+                return;
+            }
+            mTimeoutMessage = String.format(TIMEOUT_MSG, timeoutMs);
+            // set last, so that the message is visible once the test is
+            mTimedOutTest = test;
+        }
+
+        /** Reports the recorded timeout, if any, on the thread of the device. */
+        private void reportTimeout() {
+            if (mTimedOutTest == null) {
+                return;
+            }
+            synchronized (this) {
+                TestIdentifier test = mTimedOutTest;
+                mTimedOutTest = null;
+                if (test == null || !test.equals(mCurrentTest) || mParser.isCancelled()) {
+                    // the test ended before the timeout could be reported
+                    return;
+                }
+                Log.w(LOG_TAG, String.format("%1$s: %2$s", test, mTimeoutMessage));
+                // Reports the running test as failed, and the run as failed.
+                mParser.handleTestRunFailed(mTimeoutMessage);
+                mParser.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SHA-256 hashes of APK files, computed once for as long as their size and modification time
+ * are unchanged. Used to key the caches of test runs.
+ */
+class ApkHashes {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Hash of an APK file, valid while its size and modification time are unchanged. */
+    private static class ApkHash {
+        private final long mLength;
+        private final long mLastModified;
+        private final String mHash;
+
+        ApkHash(long length, long lastModified, String hash) {
+            mLength = length;
+            mLastModified = lastModified;
+            mHash = hash;
+        }
+    }
+
+    private final Map<File, ApkHash> mHashes = new ConcurrentHashMap<>();
+
+    /** Returns the hash of the content of the given APK, in hexadecimal. */
+    String getHash(File apk) throws IOException {
+        long length = apk.length();
+        long lastModified = apk.lastModified();
+        ApkHash cached = mHashes.get(apk);
+        if (cached != null && cached.mLength == length && cached.mLastModified == lastModified) {
+            return cached.mHash;
+        }
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream input = Files.newInputStream(apk.toPath())) {
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, count);
+            }
+        }
+        String hash = toHex(digest.digest());
+        mHashes.put(apk, new ApkHash(length, lastModified, hash));
+        return hash;
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.IShellEnabledDevice;
+import com.android.ddmlib.Log;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.jspecify.annotations.NonNull;
+
+/**
+ * Runs device sessions, such as test runs, for many devices from a single host.
+ *
+ * <p>A session blocks its thread for as long as the device command runs. To drive hundreds of
+ * devices without hundreds of platform threads, sessions run on virtual threads when the Java
+ * runtime supports them, and on a cached pool of daemon threads otherwise.
+ *
+ * <p>Sessions submitted for the same device are queued and run one after the other, in
+ * submission order. At most {@code maxConcurrentSessions} sessions run at the same time over all
+ * devices. Results are returned as {@link CompletableFuture}s, completed exceptionally with the
+ * exception thrown by the session.
+ */
+public class DeviceSessionExecutor implements AutoCloseable {
+
+    private static final String LOG_TAG = "DeviceSessionExecutor";
+
+    /** A unit of work using a device. */
+    public interface DeviceSession<T> {
+        /**
+         * Runs the session on the given device.
+         *
+         * @return the result of the session
+         */
+        T run(@NonNull IShellEnabledDevice device) throws Exception;
+    }
+
+    /** A submitted session and the future of its result. */
+    private static class Task<T> {
+        private final DeviceSession<T> mSession;
+        private final CompletableFuture<T> mFuture = new CompletableFuture<>();
+
+        private Task(DeviceSession<T> session) {
+            mSession = session;
+        }
+    }
+
+    /** Sessions waiting for a device, and whether one is running on it. */
+    private static class DeviceQueue {
+        private final Queue<Task<?>> mTasks = new ArrayDeque<>();
+        private boolean mRunning = false;
+    }
+
+    private final ExecutorService mExecutor;
+    private final Semaphore mPermits;
+    private final Map<IShellEnabledDevice, DeviceQueue> mQueues = new HashMap<>();
+    private boolean mIsShutdown = false;
+
+    /**
+     * Creates the executor.
+     *
+     * @param maxConcurrentSessions the maximum number of sessions running at the same time
+     */
+    public DeviceSessionExecutor(int maxConcurrentSessions) {
+        this(maxConcurrentSessions, newThreadPerSessionExecutor());
+    }
+
+    /**
+     * Creates the executor with the given thread pool, which is shut down by {@link #close()}.
+     *
+     * @param maxConcurrentSessions the maximum number of sessions running at the same time
+     * @param executor runs the sessions. Must not limit concurrency below {@code
+     *     maxConcurrentSessions}
+     */
+    public DeviceSessionExecutor(int maxConcurrentSessions, @NonNull ExecutorService executor) {
+        if (maxConcurrentSessions < 1) {
+            throw new IllegalArgumentException("maxConcurrentSessions must be positive");
+        }
+        mPermits = new Semaphore(maxConcurrentSessions, true);
+        mExecutor = executor;
+    }
+
+    /**
+     * Returns an executor that starts a new thread per task: a virtual thread when supported by
+     * the Java runtime, or a daemon platform thread from a cached pool otherwise.
+     *
+     * <p>Can also be given to {@link ShardedRemoteAndroidTestRunner#setExecutor} or {@link
+     * WorkStealingTestScheduler#setExecutor}.
+     */
+    @NonNull
+    public static ExecutorService newThreadPerSessionExecutor() {
+        try {
+            // Virtual threads are only available from Java 21.
+            return (ExecutorService)
+                    Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger threadCount = new AtomicInteger();
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable,
+                        "device-session-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Queues a session on the given device.
+     *
+     * @return the future result of the session. Cancelling the future before the session starts
+     *     prevents it from running
+     * @throws RejectedExecutionException if this executor was closed
+     */
+    @NonNull
+    public <T> CompletableFuture<T> submit(
+            @NonNull IShellEnabledDevice device, @NonNull DeviceSession<T> session) {
+        Task<T> task = new Task<>(session);
+        synchronized (mQueues) {
+            if (mIsShutdown) {
+                throw new RejectedExecutionException("executor has been closed");
+            }
+            DeviceQueue queue = mQueues.computeIfAbsent(device, key -> new DeviceQueue());
+            queue.mTasks.add(task);
+            if (!queue.mRunning) {
+                queue.mRunning = true;
+                mExecutor.execute(() -> drain(device, queue));
+            }
+        }
+        return task.mFuture;
+    }
+
+    /**
+     * Queues a test run on the given device.
+     *
+     * <p>Cancelling the returned future cancels the run through {@link
+     * RemoteAndroidTestRunner#cancel()}.
+     *
+     * @param device the device to run the tests on
+     * @param runnerFactory creates the runner for the device
+     * @param listeners listens for test results, in addition to the returned result
+     * @return the future result of the run
+     */
+    @NonNull
+    public CompletableFuture<TestRunResult> submitRun(
+            @NonNull IShellEnabledDevice device,
+            @NonNull Function<IShellEnabledDevice, RemoteAndroidTestRunner> runnerFactory,
+            @NonNull ITestRunListener... listeners) {
+        RemoteAndroidTestRunner runner = runnerFactory.apply(device);
+        CompletableFuture<TestRunResult> future = submit(device, sessionDevice -> {
+            TestRunResult result = new TestRunResult();
+            List<ITestRunListener> allListeners = new ArrayList<>(Arrays.asList(listeners));
+            allListeners.add(result);
+            runner.run(allListeners);
+            return result;
+        });
+        future.whenComplete((result, error) -> {
+            if (error instanceof CancellationException) {
+                runner.cancel();
+            }
+        });
+        return future;
+    }
+
+    /** Runs the sessions queued for a device until its queue is empty. */
+    private void drain(IShellEnabledDevice device, DeviceQueue queue) {
+        while (true) {
+            Task<?> task;
+            synchronized (mQueues) {
+                task = queue.mTasks.poll();
+                if (task == null) {
+                    queue.mRunning = false;
+                    mQueues.remove(device);
+                    return;
+                }
+            }
+            runTask(device, task);
+        }
+    }
+
+    private <T> void runTask(IShellEnabledDevice device, Task<T> task) {
+        if (task.mFuture.isDone()) {
+            // cancelled before it started
+            return;
+        }
+        try {
+            mPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            task.mFuture.completeExceptionally(e);
+            return;
+        }
+        try {
+            task.mFuture.complete(task.mSession.run(device));
+        } catch (Throwable t) {
+            Log.w(LOG_TAG, String.format("Session on %1$s failed: %2$s", device.getName(), t));
+            task.mFuture.completeExceptionally(t);
+        } finally {
+            mPermits.release();
+        }
+    }
+
+    /**
+     * Stops accepting new sessions and shuts the thread pool down. Sessions already submitted
+     * still run.
+     */
+    @Override
+    public void close() {
+        synchronized (mQueues) {
+            mIsShutdown = true;
+        }
+        mExecutor.shutdown();
+    }
+}
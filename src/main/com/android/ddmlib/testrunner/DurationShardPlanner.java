@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.testrunner.TestResult.TestStatus;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import org.jspecify.annotations.NonNull;
+
+/**
+ * Splits tests into shards of about the same total duration, based on the durations of previous
+ * runs.
+ *
+ * <p>Tests are given as {@code class} instrumentation argument entries, that is either a fully
+ * qualified class name or {@code className#methodName}. The duration of a class is the sum of the
+ * durations of its methods, unless a duration was recorded for the class itself. Tests without
+ * history use the {@link #setDefaultDuration(long) default duration}, or the average duration of
+ * the recorded methods if unset.
+ *
+ * <p>Tests are assigned with the longest processing time first heuristic: from the longest to the
+ * shortest, each test goes to the shard with the smallest total so far. The result is at most 4/3
+ * of the optimal longest shard, and planning takes O(n log n) for n tests.
+ *
+ * <p>The planned shards can be applied to a runner with {@link #selectTests} or run dynamically
+ * with {@link WorkStealingTestScheduler#runBatches}.
+ */
+public class DurationShardPlanner {
+
+    private static final char METHOD_SEPARATOR = '#';
+
+    /** Duration used when there is no history at all, so that shards are balanced by count. */
+    private static final long NO_HISTORY_DURATION_MS = 1;
+
+    /** Number of low bits holding the test index in the sort keys used by {@link #plan}. */
+    private static final int INDEX_BITS = 24;
+    private static final int MAX_INDEX = (1 << INDEX_BITS) - 1;
+    private static final long MAX_DURATION_MS = (1L << (62 - INDEX_BITS)) - 1;
+
+    /** Sum and number of recorded durations of a test. */
+    private static class Stats {
+        private long mTotalMs = 0;
+        private int mCount = 0;
+
+        long getAverage() {
+            return mTotalMs / mCount;
+        }
+    }
+
+    private final Map<String, Stats> mDurations = new HashMap<>();
+
+    private long mDefaultDurationMs = -1;
+
+    /** Derived from {@link #mDurations}, computed when first needed after a change. */
+    private Map<String, Long> mClassDurations = null;
+    private long mAverageDurationMs = -1;
+
+    /**
+     * Sets the duration used for tests without history. If unset, the average duration of the
+     * recorded methods is used.
+     */
+    public void setDefaultDuration(long durationMs) {
+        mDefaultDurationMs = durationMs;
+    }
+
+    /**
+     * Records the duration of a test.
+     *
+     * @param test a class name or {@code className#methodName}
+     * @param durationMs the duration of the test in milliseconds
+     */
+    public void addDuration(@NonNull String test, long durationMs) {
+        Stats stats = mDurations.computeIfAbsent(test, key -> new Stats());
+        stats.mTotalMs += Math.max(0, durationMs);
+        stats.mCount++;
+        mClassDurations = null;
+        mAverageDurationMs = -1;
+    }
+
+    /**
+     * Records the durations of all the completed tests of a previous run, for example one read
+     * with {@link XmlTestRunReader}.
+     */
+    public void addHistory(@NonNull TestRunResult runResult) {
+        for (Map.Entry<TestIdentifier, TestResult> entry : runResult.getTestResults().entrySet()) {
+            TestResult result = entry.getValue();
+            if (result.getStatus() == TestStatus.INCOMPLETE) {
+                continue;
+            }
+            TestIdentifier test = entry.getKey();
+            addDuration(test.getClassName() + METHOD_SEPARATOR + test.getTestName(),
+                    result.getEndTime() - result.getStartTime());
+        }
+    }
+
+    /**
+     * Splits the given tests into {@code numShards} shards. Shards are never empty, so there is
+     * one shard per test if there are fewer tests than shards.
+     *
+     * @param tests class names or {@code className#methodName} entries to split
+     * @param numShards the maximum number of shards
+     * @return the tests of each shard, longest test first
+     */
+    @NonNull
+    public List<List<String>> plan(@NonNull Collection<String> tests, int numShards) {
+        if (numShards < 1) {
+            throw new IllegalArgumentException("numShards must be positive");
+        }
+        Map<String, Long> classDurations = getClassDurations();
+        long defaultDuration = getDefaultDuration();
+
+        int count = tests.size();
+        if (count > MAX_INDEX) {
+            throw new IllegalArgumentException("too many tests: " + count);
+        }
+        if (count == 0) {
+            return new ArrayList<>();
+        }
+        numShards = Math.min(numShards, count);
+        String[] names = tests.toArray(new String[0]);
+        long[] durations = new long[count];
+        // Sorting primitive keys is much faster than sorting boxed indexes with a comparator. The
+        // key orders by decreasing duration, then by index, which is stored in the low bits.
+        long[] order = new long[count];
+        for (int i = 0; i < count; i++) {
+            durations[i] = Math.min(MAX_DURATION_MS,
+                    estimate(names[i], classDurations, defaultDuration));
+            order[i] = ((MAX_DURATION_MS - durations[i]) << INDEX_BITS) | i;
+        }
+        Arrays.sort(order);
+
+        List<List<String>> shards = new ArrayList<>(numShards);
+        // Shards ordered by total duration, then index. Each entry is {total, index}.
+        PriorityQueue<long[]> loads = new PriorityQueue<>(numShards, (a, b) ->
+                a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        for (int i = 0; i < numShards; i++) {
+            shards.add(new ArrayList<>());
+            loads.add(new long[] {0, i});
+        }
+        for (long key : order) {
+            int test = (int) (key & MAX_INDEX);
+            long[] load = loads.poll();
+            shards.get((int) load[1]).add(names[test]);
+            load[0] += durations[test];
+            loads.add(load);
+        }
+        return shards;
+    }
+
+    /**
+     * Returns the estimated duration of a test, in milliseconds.
+     *
+     * @param test a class name or {@code className#methodName}
+     */
+    public long estimate(@NonNull String test) {
+        return estimate(test, getClassDurations(), getDefaultDuration());
+    }
+
+    /**
+     * Restricts the runner to the given tests, e.g. a shard returned by {@link #plan}.
+     *
+     * @throws IllegalArgumentException if no test is given
+     */
+    public static void selectTests(
+            @NonNull RemoteAndroidTestRunner runner, @NonNull List<String> tests) {
+        WorkStealingTestScheduler.selectTests(runner, tests);
+    }
+
+    private long estimate(String test, Map<String, Long> classDurations, long defaultDuration) {
+        Stats stats = mDurations.get(test);
+        if (stats != null) {
+            return stats.getAverage();
+        }
+        if (test.indexOf(METHOD_SEPARATOR) < 0) {
+            Long classDuration = classDurations.get(test);
+            if (classDuration != null) {
+                return classDuration;
+            }
+        }
+        return defaultDuration;
+    }
+
+    /** Returns the sum of the recorded method durations of each class. */
+    private Map<String, Long> getClassDurations() {
+        if (mClassDurations != null) {
+            return mClassDurations;
+        }
+        Map<String, Long> classDurations = new HashMap<>();
+        for (Map.Entry<String, Stats> entry : mDurations.entrySet()) {
+            String test = entry.getKey();
+            int separator = test.indexOf(METHOD_SEPARATOR);
+            if (separator > 0) {
+                classDurations.merge(
+                        test.substring(0, separator), entry.getValue().getAverage(), Long::sum);
+            }
+        }
+        mClassDurations = classDurations;
+        return classDurations;
+    }
+
+    private long getDefaultDuration() {
+        if (mDefaultDurationMs >= 0) {
+            return mDefaultDurationMs;
+        }
+        if (mAverageDurationMs >= 0) {
+            return mAverageDurationMs;
+        }
+        long total = 0;
+        int count = 0;
+        for (Map.Entry<String, Stats> entry : mDurations.entrySet()) {
+            if (entry.getKey().indexOf(METHOD_SEPARATOR) > 0) {
+                total += entry.getValue().getAverage();
+                count++;
+            }
+        }
+        mAverageDurationMs = count == 0 ? NO_HISTORY_DURATION_MS : Math.max(1, total / count);
+        return mAverageDurationMs;
+    }
+}
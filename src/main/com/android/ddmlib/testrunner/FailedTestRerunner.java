@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.AdbCommandRejectedException;
+import com.android.ddmlib.IShellEnabledDevice;
+import com.android.ddmlib.Log;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.TimeoutException;
+import com.android.ddmlib.testrunner.TestResult.TestStatus;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+import org.jspecify.annotations.NonNull;
+
+/**
+ * Reruns the failed and incomplete tests of a test run, and merges the new results back into the
+ * run.
+ *
+ * <p>The tests to rerun are packed into as few instrumentations as possible, each one selecting
+ * its tests with the {@code class} argument while keeping the {@code am instrument} command
+ * under {@link #setMaxCommandLength(int) the command length limit}. The instrumentations run on
+ * the given devices with a {@link WorkStealingTestScheduler}, in parallel unless disabled.
+ *
+ * <p>The result of the last attempt of each test replaces its result in the run, with the
+ * attempt number in the {@link #ATTEMPT_METRIC} test metric. The results of every attempt are
+ * returned by {@link #rerun}.
+ */
+public class FailedTestRerunner {
+
+    private static final String LOG_TAG = "FailedTestRerunner";
+
+    /** Test metric holding the attempt number of a rerun test, starting at 1 for the first rerun. */
+    public static final String ATTEMPT_METRIC = "rerun_attempt";
+
+    /** Default limit of the command length, which is safe for the shell of every device. */
+    static final int DEFAULT_MAX_COMMAND_LENGTH = 4000;
+
+    /** Length added to the command by an empty {@code class} argument. */
+    private static final int CLASS_ARG_LENGTH = " -e class ''".length();
+
+    private static final char METHOD_SEPARATOR = '#';
+
+    private final List<IShellEnabledDevice> mDevices;
+    private final Function<IShellEnabledDevice, RemoteAndroidTestRunner> mRunnerFactory;
+
+    private int mMaxAttempts = 1;
+    private int mMaxCommandLength = DEFAULT_MAX_COMMAND_LENGTH;
+    private boolean mIsParallel = true;
+    private ExecutorService mExecutor = null;
+
+    private volatile WorkStealingTestScheduler mScheduler = null;
+    private volatile boolean mIsCancelled = false;
+
+    /**
+     * Creates the rerunner.
+     *
+     * @param devices the devices to rerun the tests on
+     * @param runnerFactory creates the runner for an instrumentation on the given device. The
+     *     runner must not be restricted to a class or method
+     */
+    public FailedTestRerunner(
+            @NonNull List<? extends IShellEnabledDevice> devices,
+            @NonNull Function<IShellEnabledDevice, RemoteAndroidTestRunner> runnerFactory) {
+        if (devices.isEmpty()) {
+            throw new IllegalArgumentException("at least one device is required");
+        }
+        mDevices = new ArrayList<>(devices);
+        mRunnerFactory = runnerFactory;
+    }
+
+    /**
+     * Sets how many times a test is rerun while it keeps failing. Defaults to 1.
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be positive");
+        }
+        mMaxAttempts = maxAttempts;
+    }
+
+    /**
+     * Sets the maximum length of an {@code am instrument} command, which limits the number of
+     * tests selected by a single instrumentation. Defaults to 4000 characters.
+     */
+    public void setMaxCommandLength(int maxCommandLength) {
+        mMaxCommandLength = maxCommandLength;
+    }
+
+    /**
+     * Sets whether the instrumentations run in parallel over all the devices, or one after the
+     * other on the first device. Defaults to true.
+     */
+    public void setParallel(boolean parallel) {
+        mIsParallel = parallel;
+    }
+
+    /**
+     * Sets the executor used to drive the devices. If unspecified, a thread is started for each
+     * device. The executor is not shut down by this rerunner.
+     */
+    public void setExecutor(ExecutorService executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * Reruns the failed and incomplete tests of the given run, until they pass or the maximum
+     * number of attempts is reached, and updates their results in the run.
+     *
+     * <p>If an instrumentation fails with an exception, the results received so far are still
+     * merged before the exception is thrown.
+     *
+     * @param runResult the results of the original run, updated with the results of the reruns
+     * @return the results of every attempt of the rerun tests, starting with the original result
+     * @throws TimeoutException in case of a timeout on the connection to a device.
+     * @throws AdbCommandRejectedException if adb rejects the command on a device
+     * @throws ShellCommandUnresponsiveException if a device did not output any test result for a
+     *     period longer than the max time to output.
+     * @throws IOException if connection to a device was lost.
+     */
+    @NonNull
+    public Map<TestIdentifier, List<TestResult>> rerun(@NonNull TestRunResult runResult)
+            throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
+                    IOException {
+        mIsCancelled = false;
+        Map<TestIdentifier, List<TestResult>> attempts = new LinkedHashMap<>();
+        for (int attempt = 1; attempt <= mMaxAttempts && !mIsCancelled; attempt++) {
+            Map<String, TestIdentifier> failedTests = getFailedTests(runResult);
+            if (failedTests.isEmpty()) {
+                break;
+            }
+            Log.i(LOG_TAG, String.format("Rerunning %1$d tests of %2$s, attempt %3$d",
+                    failedTests.size(), runResult.getName(), attempt));
+            for (TestIdentifier test : failedTests.values()) {
+                // the original result is the first attempt
+                attempts.computeIfAbsent(test, key -> new ArrayList<>(
+                        Collections.singletonList(runResult.getTestResults().get(test))));
+            }
+
+            WorkStealingTestScheduler scheduler = new WorkStealingTestScheduler(
+                    mIsParallel ? mDevices : mDevices.subList(0, 1), mRunnerFactory);
+            scheduler.setRunName(runResult.getName());
+            scheduler.setExecutor(mExecutor);
+            mScheduler = scheduler;
+            TestRunResult rerunResult = new TestRunResult();
+            Exception failure = null;
+            try {
+                scheduler.runBatches(packBatches(new ArrayList<>(failedTests.keySet())),
+                        Collections.singletonList(rerunResult));
+            } catch (TimeoutException | AdbCommandRejectedException
+                    | ShellCommandUnresponsiveException | IOException e) {
+                failure = e;
+            } finally {
+                mScheduler = null;
+            }
+
+            for (Map.Entry<TestIdentifier, TestResult> entry :
+                    rerunResult.getTestResults().entrySet()) {
+                TestIdentifier test = failedTests.get(getName(entry.getKey()));
+                if (test != null) {
+                    attempts.get(test).add(entry.getValue());
+                    merge(runResult, test, entry.getValue(), attempt);
+                }
+            }
+            if (failure != null) {
+                ShardedRemoteAndroidTestRunner.rethrow(failure);
+            }
+        }
+        return attempts;
+    }
+
+    /**
+     * Splits the given tests into batches whose instrumentation command fits in the maximum
+     * command length. A test too long to fit with any other gets a batch of its own.
+     *
+     * @param tests the tests as {@code className#methodName}
+     */
+    @NonNull
+    List<List<String>> packBatches(@NonNull List<String> tests) {
+        return packBatches(tests, mRunnerFactory.apply(mDevices.get(0)), mMaxCommandLength);
+    }
+
+    /**
+     * Splits the given {@code class} argument entries into batches whose instrumentation command
+     * fits in the maximum command length, once selected in the given runner. An entry too long to
+     * fit with any other gets a batch of its own.
+     *
+     * @param runner a runner not restricted to a class or method
+     */
+    static List<List<String>> packBatches(
+            List<String> tests, RemoteAndroidTestRunner runner, int maxCommandLength) {
+        int baseLength = runner.getAmInstrumentCommand().length() + CLASS_ARG_LENGTH;
+        List<List<String>> batches = new ArrayList<>();
+        List<String> batch = new ArrayList<>();
+        int length = baseLength;
+        for (String test : tests) {
+            int added = batch.isEmpty() ? test.length() : test.length() + 1;
+            if (!batch.isEmpty() && length + added > maxCommandLength) {
+                batches.add(batch);
+                batch = new ArrayList<>();
+                length = baseLength;
+                added = test.length();
+            }
+            if (baseLength + test.length() > maxCommandLength) {
+                Log.w(LOG_TAG, String.format("Command to run %1$s exceeds %2$d characters",
+                        test, maxCommandLength));
+            }
+            batch.add(test);
+            length += added;
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    /** Returns the failed and incomplete tests of the run, keyed by {@code className#methodName}. */
+    private static Map<String, TestIdentifier> getFailedTests(TestRunResult runResult) {
+        Map<String, TestIdentifier> failedTests = new LinkedHashMap<>();
+        for (Map.Entry<TestIdentifier, TestResult> entry : runResult.getTestResults().entrySet()) {
+            TestStatus status = entry.getValue().getStatus();
+            if (status == TestStatus.FAILURE || status == TestStatus.INCOMPLETE) {
+                failedTests.put(getName(entry.getKey()), entry.getKey());
+            }
+        }
+        return failedTests;
+    }
+
+    private static String getName(TestIdentifier test) {
+        return test.getClassName() + METHOD_SEPARATOR + test.getTestName();
+    }
+
+    /** Replaces the result of a test in the run with the result of a rerun. */
+    static void merge(
+            TestRunResult runResult, TestIdentifier test, TestResult result, int attempt) {
+        Map<String, String> metrics = new HashMap<>();
+        if (result.getMetrics() != null) {
+            metrics.putAll(result.getMetrics());
+        }
+        metrics.put(ATTEMPT_METRIC, Integer.toString(attempt));
+        runResult.testStarted(test, result.getStartTime());
+        switch (result.getStatus()) {
+            case FAILURE:
+                runResult.testFailed(test, result.getStackTrace());
+                break;
+            case ASSUMPTION_FAILURE:
+                runResult.testAssumptionFailure(test, result.getStackTrace());
+                break;
+            case IGNORED:
+                runResult.testIgnored(test);
+                break;
+            case INCOMPLETE:
+                // the test never ended, it stays incomplete with the attempt recorded
+                runResult.getTestResults().get(test).setMetrics(metrics);
+                return;
+            default:
+                break;
+        }
+        runResult.testEnded(test, result.getEndTime(), metrics);
+    }
+
+    /**
+     * Requests cancellation of the reruns. Running instrumentations are cancelled and no further
+     * attempts are started.
+     */
+    public void cancel() {
+        mIsCancelled = true;
+        WorkStealingTestScheduler scheduler = mScheduler;
+        if (scheduler != null) {
+            scheduler.cancel();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.testrunner.TestResult.TestStatus;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.jspecify.annotations.NonNull;
+
+/**
+ * Orders tests so that the likely failures run first, for the fastest feedback.
+ *
+ * <p>Each test is scored by its probability of failure divided by its expected duration, both
+ * learned from {@link #addHistory(TestRunResult) the results of previous runs}. The probability
+ * is smoothed so that a test seen once is not considered certain to fail or pass, and tests
+ * without history get a probability of one half and {@link #setDefaultDuration(long) the default
+ * duration}, so new tests run early.
+ *
+ * <p>An instrumentation does not run its tests in the order of its {@code class} argument, so
+ * the order is enforced by {@link #planBatches splitting the tests into instrumentations}. The
+ * first instrumentation only runs the most likely failures, and the following ones grow
+ * geometrically to limit the cost of launching instrumentations. The batches are meant to be run
+ * in order with a {@link WorkStealingTestScheduler}, whose listeners see the results as they
+ * come, so a failing build is reported long before the suite finishes.
+ */
+public class FailureFirstTestPlanner {
+
+    private static final char METHOD_SEPARATOR = '#';
+
+    /** The history of a test. */
+    private static class Stats {
+        private int mRuns = 0;
+        private int mFailures = 0;
+        private long mTotalDurationMs = 0;
+
+        double getFailureProbability() {
+            return (mFailures + 1.0) / (mRuns + 2.0);
+        }
+    }
+
+    private final Map<String, Stats> mHistory = new HashMap<>();
+    private long mDefaultDurationMs = 1000;
+    private int mFirstBatchSize = 8;
+    private int mMaxCommandLength = FailedTestRerunner.DEFAULT_MAX_COMMAND_LENGTH;
+
+    /** Sets the expected duration of tests without history, in ms. Defaults to 1 second. */
+    public void setDefaultDuration(long defaultDurationMs) {
+        mDefaultDurationMs = defaultDurationMs;
+    }
+
+    /**
+     * Sets the number of tests run by the first instrumentation. Each following instrumentation
+     * runs twice as many tests as the previous one. Defaults to 8.
+     */
+    public void setFirstBatchSize(int firstBatchSize) {
+        if (firstBatchSize < 1) {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
+        mFirstBatchSize = firstBatchSize;
+    }
+
+    /**
+     * Sets the maximum length of an {@code am instrument} command, which limits the number of
+     * tests of an instrumentation. Defaults to 4000 characters.
+     */
+    public void setMaxCommandLength(int maxCommandLength) {
+        mMaxCommandLength = maxCommandLength;
+    }
+
+    /**
+     * Records the result of a test.
+     *
+     * @param test the test as {@code className#methodName}
+     */
+    public synchronized void addResult(@NonNull String test, boolean failed, long durationMs) {
+        Stats stats = mHistory.computeIfAbsent(test, key -> new Stats());
+        stats.mRuns++;
+        if (failed) {
+            stats.mFailures++;
+        }
+        stats.mTotalDurationMs += Math.max(0, durationMs);
+    }
+
+    /**
+     * Records the results of a previous run. Ignored tests and assumption failures are skipped,
+     * incomplete tests count as failures.
+     */
+    public void addHistory(@NonNull TestRunResult runResult) {
+        for (Map.Entry<TestIdentifier, TestResult> entry : runResult.getTestResults().entrySet()) {
+            TestIdentifier test = entry.getKey();
+            TestResult result = entry.getValue();
+            TestStatus status = result.getStatus();
+            if (status == TestStatus.PASSED || status == TestStatus.FAILURE
+                    || status == TestStatus.INCOMPLETE) {
+                long duration = status == TestStatus.INCOMPLETE
+                        ? mDefaultDurationMs : result.getEndTime() - result.getStartTime();
+                addResult(test.getClassName() + METHOD_SEPARATOR + test.getTestName(),
+                        status != TestStatus.PASSED, duration);
+            }
+        }
+    }
+
+    /**
+     * Returns the score of a test, that is its probability of failure per second of expected
+     * duration.
+     *
+     * @param test the test as {@code className#methodName}
+     */
+    public synchronized double getScore(@NonNull String test) {
+        Stats stats = mHistory.get(test);
+        if (stats == null) {
+            return 0.5 / toSeconds(mDefaultDurationMs);
+        }
+        return stats.getFailureProbability() / toSeconds(stats.mTotalDurationMs / stats.mRuns);
+    }
+
+    /**
+     * Returns the given tests by decreasing score. Tests with the same score keep their order.
+     *
+     * @param tests the tests as {@code className#methodName}
+     */
+    @NonNull
+    public List<String> order(@NonNull List<String> tests) {
+        Map<String, Double> scores = new HashMap<>();
+        for (String test : tests) {
+            scores.put(test, getScore(test));
+        }
+        List<String> ordered = new ArrayList<>(tests);
+        ordered.sort(Comparator.comparing(scores::get, Comparator.reverseOrder()));
+        return ordered;
+    }
+
+    /**
+     * Orders the given tests and splits them into the batches of successive instrumentations.
+     *
+     * @param tests the tests as {@code className#methodName}
+     * @param runner a runner not restricted to a class or method, used to measure the command
+     * @return the tests of each instrumentation, to run in order
+     */
+    @NonNull
+    public List<List<String>> planBatches(
+            @NonNull List<String> tests, @NonNull RemoteAndroidTestRunner runner) {
+        List<String> ordered = order(tests);
+        List<List<String>> batches = new ArrayList<>();
+        int start = 0;
+        int batchSize = mFirstBatchSize;
+        while (start < ordered.size()) {
+            int end = Math.min(ordered.size(), start + batchSize);
+            batches.addAll(FailedTestRerunner.packBatches(
+                    ordered.subList(start, end), runner, mMaxCommandLength));
+            start = end;
+            batchSize = Math.min(batchSize * 2, ordered.size());
+        }
+        return batches;
+    }
+
+    private static double toSeconds(long durationMs) {
+        // avoid dividing by 0 for instant tests
+        return Math.max(1, durationMs) / 1000.0;
+    }
+}
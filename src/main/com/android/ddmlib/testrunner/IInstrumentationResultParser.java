@@ -93,4 +93,14 @@ public interface IInstrumentationResultParser extends IShellOutputReceiver {
      * ITestRunListener#testRunEnded} if the crash happens during the test execution.
      */
     void handleTestRunFailed(@NonNull String errorMsg);
+
+    /**
+     * This method is called when the "am instrument" command returns after being cancelled, in
+     * which case the output is not flushed. The listeners should be notified {@link
+     * ITestRunListener#testRunFailed} followed by {@link ITestRunListener#testRunEnded}, unless the
+     * end of the run was already reported.
+     */
+    default void handleTestRunCancelled(@NonNull String errorMsg) {
+        handleTestRunFailed(errorMsg);
+    }
 }
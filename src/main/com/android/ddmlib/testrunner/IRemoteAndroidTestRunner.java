@@ -21,7 +21,9 @@ import com.android.ddmlib.AdbCommandRejectedException;
 import com.android.ddmlib.ShellCommandUnresponsiveException;
 import com.android.ddmlib.TimeoutException;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -281,6 +283,30 @@ public interface IRemoteAndroidTestRunner {
             throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
             IOException;
 
+    /**
+     * Execute this test run asynchronously.
+     * <p>
+     * Convenience method for {@link #runAsync(Executor, Collection)}.
+     */
+    default TestRunFuture runAsync(Executor executor, ITestRunListener... listeners) {
+        return runAsync(executor, Arrays.asList(listeners));
+    }
+
+    /**
+     * Execute this test run asynchronously on the given executor.
+     * <p>
+     * The returned future completes with the results of the run once it has ended, or
+     * exceptionally with the exception thrown by {@link #run(Collection)}. Cancelling the future
+     * cancels the run with {@link #cancel()}.
+     *
+     * @param executor the executor the run blocks a thread of
+     * @param listeners collection of listeners for test results
+     * @return the future result of the run, which more listeners can subscribe to
+     */
+    default TestRunFuture runAsync(Executor executor, Collection<ITestRunListener> listeners) {
+        return TestRunFuture.start(this, executor, listeners);
+    }
+
     /**
      * Requests cancellation of this test run.
      */
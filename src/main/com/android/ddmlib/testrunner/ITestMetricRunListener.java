@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import java.util.Map;
+import org.jspecify.annotations.NonNull;
+
+/**
+ * An {@link ITestRunListener} receiving the metrics of the tests with their numbers already parsed,
+ * such as the timings reported by benchmarks, rather than parsing the strings again.
+ *
+ * <p>The {@link InstrumentationResultParser} reports the end of the tests to these listeners with
+ * {@link #testEnded(TestIdentifier, TestMetrics)} instead of {@link
+ * ITestRunListener#testEnded(TestIdentifier, Map)}. Other sources of events, such as the cached
+ * or rerun results, still report the metrics as strings.
+ */
+public interface ITestMetricRunListener extends ITestRunListener {
+
+    /**
+     * Reports the execution end of an individual test case, with its metrics.
+     *
+     * <p>The default implementation adapts the call to {@link
+     * ITestRunListener#testEnded(TestIdentifier, Map)}, with the metrics as strings.
+     *
+     * @param test identifies the test
+     * @param testMetrics the metrics emitted during the execution of the test case
+     */
+    default void testEnded(TestIdentifier test, @NonNull TestMetrics testMetrics) {
+        testEnded(test, testMetrics.asMap());
+    }
+}
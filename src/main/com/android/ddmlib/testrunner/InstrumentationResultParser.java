@@ -27,7 +27,6 @@ import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Locale;
 import java.util.Map;
@@ -91,7 +90,7 @@ public class InstrumentationResultParser extends MultiLineReceiver
         private static final String TIME_REPORT = "Time: ";
     }
 
-    private final Collection<ITestRunListener> mTestListeners;
+    private final Collection<ITestRunListener> mTestListeners = new ArrayList<>();
 
     /**
      * Test result data
@@ -128,7 +127,7 @@ public class InstrumentationResultParser extends MultiLineReceiver
     }
 
     /** the name to provide to {@link ITestRunListener#testRunStarted(String, int)} */
-    private final String mTestRunName;
+    private String mTestRunName;
 
     /** Stores the status values for the test result currently being parsed */
     private TestResult mCurrentTestResult = null;
@@ -142,6 +141,15 @@ public class InstrumentationResultParser extends MultiLineReceiver
     /** Stores the current "value" portion of the status key-value being parsed. */
     private StringBuilder mCurrentValue = null;
 
+    /** Holds the values being parsed, reused for each value. */
+    private final StringBuilder mValueBuilder = new StringBuilder();
+
+    /**
+     * Canonical instances of the keys and of the test class and method names of the run, shared
+     * by all the results and metrics of the run instead of being copied for each of them.
+     */
+    private final StringTable mStrings = new StringTable(MAX_INTERNED_STRINGS);
+
     /** True if start of test has already been reported to listener. */
     private boolean mTestStartReported = false;
 
@@ -151,6 +159,9 @@ public class InstrumentationResultParser extends MultiLineReceiver
     /** True if test run failure has already been reported to listener. */
     private boolean mTestRunFailReported = false;
 
+    /** True if the end of the output was handled, which reports the end of the run. */
+    private boolean mOutputDone = false;
+
     /** The elapsed time of the test run, in milliseconds. */
     private Long mTestTime = null;
 
@@ -185,10 +196,19 @@ public class InstrumentationResultParser extends MultiLineReceiver
      * class are filtered out of this Map. The {@link ITestRunListener}s may choose to display some
      * or all of them when the test case ends.
      */
-    private Map<String, String> mTestMetrics = new LinkedHashMap<>();
+    private MetricMap mTestMetrics;
+
+    /** Stores the characters of the test metric values of the run. */
+    private final MetricMap.Arena mMetricArena = new MetricMap.Arena();
 
     private static final String LOG_TAG = "InstrumentationResultParser";
 
+    /** The capacity beyond which the value builder is not reused, to release its memory. */
+    private static final int MAX_RETAINED_VALUE_CAPACITY = 64 * 1024;
+
+    /** The maximum number of keys and names interned per run. */
+    private static final int MAX_INTERNED_STRINGS = 8192;
+
     /** Error message supplied when no parseable test results are received from test run. */
     static final String NO_TEST_RESULTS_MSG = "No test results";
 
@@ -222,7 +242,9 @@ public class InstrumentationResultParser extends MultiLineReceiver
      */
     public InstrumentationResultParser(String runName, Collection<ITestRunListener> listeners) {
         mTestRunName = runName;
-        mTestListeners = new ArrayList<ITestRunListener>(listeners);
+        mTestListeners.addAll(listeners);
+        mTestMetrics = new MetricMap(mMetricArena);
+        internKnownKeys();
     }
 
     /**
@@ -316,55 +338,23 @@ public class InstrumentationResultParser extends MultiLineReceiver
      */
     private void submitCurrentKeyValue() {
         if (mCurrentKey != null && mCurrentValue != null) {
-            String statusValue = mCurrentValue.toString();
-            if (mInInstrumentationResultKey) {
-                if (!KNOWN_KEYS.contains(mCurrentKey)) {
-                    mInstrumentationResultBundle.put(mCurrentKey, statusValue);
-                } else if (mCurrentKey.equals(StatusKeys.SHORTMSG)) {
-                    // test run must have failed
-                    handleTestRunFailed(String.format("Instrumentation run failed due to '%1$s'",
-                            statusValue));
-                } else if (StatusKeys.STREAM.equals(mCurrentKey)) {
-                    if (statusValue != null) {
-                        if (statusValue.contains(FATAL_EXCEPTION_MSG)) {
-                            mStreamError = statusValue.trim();
-                        } else if (INSTRUMENTATION_FAILURES_PATTERN
-                                .matcher(statusValue.trim())
-                                .matches()) {
-                            mStreamError = statusValue.trim();
-                        }
-                    }
+            if (!mInInstrumentationResultKey && mCurrentKey.equals(StatusKeys.CLASS)) {
+                // names are repeated in the start and end bundles of every test
+                getCurrentTestInfo().mTestClass =
+                        internTrimmed(mCurrentValue, 0, mCurrentValue.length());
+            } else if (!mInInstrumentationResultKey && mCurrentKey.equals(StatusKeys.TEST)) {
+                getCurrentTestInfo().mTestName =
+                        internTrimmed(mCurrentValue, 0, mCurrentValue.length());
+            } else if (!mInInstrumentationResultKey && !KNOWN_KEYS.contains(mCurrentKey)) {
+                // Not one of the recognized key/value pairs, so dump it in mTestMetrics, where
+                // the value is only copied to a string if a listener reads it
+                if (mTestMetrics.add(mCurrentKey, mCurrentValue)) {
+                    Log.d(LOG_TAG,
+                            String.format("Received a duplicate metric key '%s' which value "
+                                    + "will be overridden.", mCurrentKey));
                 }
             } else {
-                TestResult testInfo = getCurrentTestInfo();
-
-                if (mCurrentKey.equals(StatusKeys.CLASS)) {
-                    testInfo.mTestClass = statusValue.trim();
-                } else if (mCurrentKey.equals(StatusKeys.TEST)) {
-                    testInfo.mTestName = statusValue.trim();
-                } else if (mCurrentKey.equals(StatusKeys.NUMTESTS)) {
-                    try {
-                        testInfo.mNumTests = Integer.parseInt(statusValue);
-                    } catch (NumberFormatException e) {
-                        Log.w(LOG_TAG, "Unexpected integer number of tests, received "
-                                + statusValue);
-                    }
-                } else if (mCurrentKey.equals(StatusKeys.ERROR)) {
-                    // test run must have failed
-                    handleTestRunFailed(statusValue);
-                } else if (mCurrentKey.equals(StatusKeys.STACK)) {
-                    testInfo.mStackTrace = statusValue;
-                } else if (StatusKeys.CURRENT.equals(mCurrentKey)) {
-                    testInfo.mCurrentTestNumber = statusValue;
-                } else if (!KNOWN_KEYS.contains(mCurrentKey)) {
-                    // Not one of the recognized key/value pairs, so dump it in mTestMetrics
-                    String previousValue = mTestMetrics.put(mCurrentKey, statusValue);
-                    if (previousValue != null) {
-                        Log.d(LOG_TAG,
-                                String.format("Received a duplicate metric key '%s' which value "
-                                        + "will be overridden.", mCurrentKey));
-                    }
-                }
+                submitCurrentValue(mCurrentValue.toString());
             }
 
             mCurrentKey = null;
@@ -372,16 +362,82 @@ public class InstrumentationResultParser extends MultiLineReceiver
         }
     }
 
+    /** Stores the value of the current key, other than a test name or metric. */
+    private void submitCurrentValue(String statusValue) {
+        if (mInInstrumentationResultKey) {
+            if (!KNOWN_KEYS.contains(mCurrentKey)) {
+                mInstrumentationResultBundle.put(mCurrentKey, statusValue);
+            } else if (mCurrentKey.equals(StatusKeys.SHORTMSG)) {
+                // test run must have failed
+                handleTestRunFailed(String.format("Instrumentation run failed due to '%1$s'",
+                        statusValue));
+            } else if (StatusKeys.STREAM.equals(mCurrentKey)) {
+                if (statusValue != null) {
+                    if (statusValue.contains(FATAL_EXCEPTION_MSG)) {
+                        mStreamError = statusValue.trim();
+                    } else if (INSTRUMENTATION_FAILURES_PATTERN
+                            .matcher(statusValue.trim())
+                            .matches()) {
+                        mStreamError = statusValue.trim();
+                    }
+                }
+            }
+        } else {
+            TestResult testInfo = getCurrentTestInfo();
+
+            if (mCurrentKey.equals(StatusKeys.NUMTESTS)) {
+                try {
+                    testInfo.mNumTests = Integer.parseInt(statusValue);
+                } catch (NumberFormatException e) {
+                    Log.w(LOG_TAG, "Unexpected integer number of tests, received "
+                            + statusValue);
+                }
+            } else if (mCurrentKey.equals(StatusKeys.ERROR)) {
+                // test run must have failed
+                handleTestRunFailed(statusValue);
+            } else if (mCurrentKey.equals(StatusKeys.STACK)) {
+                testInfo.mStackTrace = statusValue;
+            } else if (StatusKeys.CURRENT.equals(mCurrentKey)) {
+                testInfo.mCurrentTestNumber = statusValue;
+            }
+        }
+    }
+
+    /** Returns the canonical instance of the given characters, without surrounding spaces. */
+    private String internTrimmed(CharSequence chars, int start, int end) {
+        while (start < end && chars.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && chars.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return mStrings.intern(chars, start, end);
+    }
+
     /**
      * A utility method to return the test metrics from the current test case execution and get
      * ready for the next one.
      */
-    private Map<String, String> getAndResetTestMetrics() {
-        Map<String, String> retVal = mTestMetrics;
-        mTestMetrics = new HashMap<String, String>();
+    private TestMetrics getAndResetTestMetrics() {
+        TestMetrics retVal = new TestMetrics(mTestMetrics);
+        mTestMetrics = new MetricMap(mMetricArena);
         return retVal;
     }
 
+    /**
+     * Reports the end of a test to a listener, with the metrics parsed once for all the {@link
+     * ITestMetricRunListener}s.
+     */
+    private static void reportTestEnded(
+            ITestRunListener listener, TestIdentifier testId, TestMetrics metrics) {
+        if (listener instanceof ITestMetricRunListener) {
+            metrics.parse();
+            ((ITestMetricRunListener) listener).testEnded(testId, metrics);
+        } else {
+            listener.testEnded(testId, metrics.asMap());
+        }
+    }
+
     private TestResult getCurrentTestInfo() {
         if (mCurrentTestResult == null) {
             mCurrentTestResult = new TestResult();
@@ -404,7 +460,8 @@ public class InstrumentationResultParser extends MultiLineReceiver
     private void parseKey(String line, int keyStartPos) {
         int endKeyPos = line.indexOf('=', keyStartPos);
         if (endKeyPos != -1) {
-            mCurrentKey = line.substring(keyStartPos, endKeyPos).trim();
+            // the same keys are repeated for every test, so they are looked up rather than copied
+            mCurrentKey = internTrimmed(line, keyStartPos, endKeyPos);
             parseValue(line, endKeyPos + 1);
         }
     }
@@ -416,8 +473,14 @@ public class InstrumentationResultParser extends MultiLineReceiver
      * @param valueStartPos - the starting position of the value in the given line
      */
     private void parseValue(String line, int valueStartPos) {
-        mCurrentValue = new StringBuilder();
-        mCurrentValue.append(line.substring(valueStartPos));
+        if (mValueBuilder.capacity() > MAX_RETAINED_VALUE_CAPACITY) {
+            // don't hold on to the memory of an unusually long stack trace
+            mValueBuilder.setLength(0);
+            mValueBuilder.trimToSize();
+        }
+        mCurrentValue = mValueBuilder;
+        mCurrentValue.setLength(0);
+        mCurrentValue.append(line, valueStartPos, line.length());
     }
 
     /**
@@ -456,6 +519,61 @@ public class InstrumentationResultParser extends MultiLineReceiver
         mIsCancelled = true;
     }
 
+    /**
+     * Prepares the parser to parse another test run, for the same run name and listeners.
+     *
+     * @see #reset(String, Collection)
+     */
+    @Override
+    public void reset() {
+        super.reset();
+        mCurrentTestResult = null;
+        mLastTestResult = null;
+        mCurrentKey = null;
+        mCurrentValue = null;
+        mTestStartReported = false;
+        mTestRunFinished = false;
+        mTestRunFailReported = false;
+        mOutputDone = false;
+        mTestTime = null;
+        mIsCancelled = false;
+        mNumTestsRun = 0;
+        mNumTestsExpected = 0;
+        mInInstrumentationResultKey = false;
+        mStreamError = null;
+        mOnError = null;
+        if (!mInstrumentationResultBundle.isEmpty()) {
+            // the bundle was given to the listeners at the end of the previous run
+            mInstrumentationResultBundle = new LinkedHashMap<>();
+        }
+        if (!mTestMetrics.isEmpty()) {
+            mTestMetrics = new MetricMap(mMetricArena);
+        }
+        mStrings.clear();
+        internKnownKeys();
+    }
+
+    private void internKnownKeys() {
+        for (String key : KNOWN_KEYS) {
+            mStrings.intern(key);
+        }
+    }
+
+    /**
+     * Prepares the parser to parse another test run, as if it had just been created. Reusing a
+     * parser for many short runs saves allocating and growing its buffers for every run.
+     *
+     * @param runName the test run name to provide to
+     *            {@link ITestRunListener#testRunStarted(String, int)}
+     * @param listeners informed of test results as the tests are executing
+     */
+    public void reset(String runName, Collection<ITestRunListener> listeners) {
+        reset();
+        mTestRunName = runName;
+        mTestListeners.clear();
+        mTestListeners.addAll(listeners);
+    }
+
     /**
      * Reports a test result to the test run listener. Must be called when a individual test result
      * has been fully parsed.
@@ -469,7 +587,7 @@ public class InstrumentationResultParser extends MultiLineReceiver
         }
         reportTestRunStarted(testInfo);
         TestIdentifier testId = new TestIdentifier(testInfo.mTestClass, testInfo.mTestName);
-        Map<String, String> metrics;
+        TestMetrics metrics;
 
         switch (testInfo.mCode) {
             case StatusCodes.START:
@@ -495,7 +613,7 @@ public class InstrumentationResultParser extends MultiLineReceiver
                 metrics = getAndResetTestMetrics();
                 for (ITestRunListener listener : mTestListeners) {
                     listener.testFailed(testId, getTrace(testInfo));
-                    listener.testEnded(testId, metrics);
+                    reportTestEnded(listener, testId, metrics);
                 }
                 mNumTestsRun++;
                 break;
@@ -505,7 +623,7 @@ public class InstrumentationResultParser extends MultiLineReceiver
                 metrics = getAndResetTestMetrics();
                 for (ITestRunListener listener : mTestListeners) {
                     listener.testFailed(testId, getTrace(testInfo));
-                    listener.testEnded(testId, metrics);
+                    reportTestEnded(listener, testId, metrics);
                 }
                 mNumTestsRun++;
                 break;
@@ -513,7 +631,7 @@ public class InstrumentationResultParser extends MultiLineReceiver
                 metrics = getAndResetTestMetrics();
                 for (ITestRunListener listener : mTestListeners) {
                     listener.testIgnored(testId);
-                    listener.testEnded(testId, metrics);
+                    reportTestEnded(listener, testId, metrics);
                 }
                 mNumTestsRun++;
                 break;
@@ -521,14 +639,14 @@ public class InstrumentationResultParser extends MultiLineReceiver
                 metrics = getAndResetTestMetrics();
                 for (ITestRunListener listener : mTestListeners) {
                     listener.testAssumptionFailure(testId, getTrace(testInfo));
-                    listener.testEnded(testId, metrics);
+                    reportTestEnded(listener, testId, metrics);
                 }
                 mNumTestsRun++;
                 break;
             case StatusCodes.OK:
                 metrics = getAndResetTestMetrics();
                 for (ITestRunListener listener : mTestListeners) {
-                    listener.testEnded(testId, metrics);
+                    reportTestEnded(listener, testId, metrics);
                 }
                 mNumTestsRun++;
                 break;
@@ -536,7 +654,7 @@ public class InstrumentationResultParser extends MultiLineReceiver
                 metrics = getAndResetTestMetrics();
                 Log.e(LOG_TAG, "Unknown status code received: " + testInfo.mCode);
                 for (ITestRunListener listener : mTestListeners) {
-                    listener.testEnded(testId, metrics);
+                    reportTestEnded(listener, testId, metrics);
                 }
                 mNumTestsRun++;
                 break;
@@ -615,7 +733,7 @@ public class InstrumentationResultParser extends MultiLineReceiver
                 listener.testFailed(testId,
                     String.format("%1$s. Reason: '%2$s'. %3$s", INCOMPLETE_TEST_ERR_MSG_PREFIX,
                             errorMsg, INCOMPLETE_TEST_ERR_MSG_POSTFIX));
-                listener.testEnded(testId, getAndResetTestMetrics());
+                reportTestEnded(listener, testId, getAndResetTestMetrics());
             }
         }
         for (ITestRunListener listener : mTestListeners) {
@@ -645,6 +763,14 @@ public class InstrumentationResultParser extends MultiLineReceiver
         if (!mTestRunFailReported) {
             handleOutputDone();
         }
+        mOutputDone = true;
+    }
+
+    @Override
+    public void handleTestRunCancelled(@NonNull String errorMsg) {
+        if (!mTestRunFailReported && !mOutputDone) {
+            handleTestRunFailed(errorMsg);
+        }
     }
 
     /**
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import org.jspecify.annotations.NonNull;
+
+/**
+ * A pool of {@link InstrumentationResultParser}s, reset between runs.
+ *
+ * <p>Runs of a single test or a few tests parse little output, so creating a parser and growing
+ * its buffers is a large part of the cost of parsing them. Parsers are released to the pool once
+ * their run has ended and are reused by the next runs, with the buffers they already grew. At most
+ * the given number of parsers are kept. This class is thread safe.
+ *
+ * @see RemoteAndroidTestRunner#setParserPool
+ */
+public class InstrumentationResultParserPool {
+
+    private final int mMaxPooled;
+    private final Deque<InstrumentationResultParser> mParsers = new ArrayDeque<>();
+
+    /**
+     * Creates a pool.
+     *
+     * @param maxPooled the maximum number of parsers kept in the pool
+     */
+    public InstrumentationResultParserPool(int maxPooled) {
+        mMaxPooled = maxPooled;
+    }
+
+    /**
+     * Returns a parser for a new run, from the pool if possible.
+     *
+     * @param runName the test run name to provide to
+     *            {@link ITestRunListener#testRunStarted(String, int)}
+     * @param listeners informed of test results as the tests are executing
+     */
+    @NonNull
+    public InstrumentationResultParser acquire(
+            @NonNull String runName, @NonNull Collection<ITestRunListener> listeners) {
+        InstrumentationResultParser parser;
+        synchronized (this) {
+            parser = mParsers.pollFirst();
+        }
+        if (parser == null) {
+            return new InstrumentationResultParser(runName, listeners);
+        }
+        parser.reset(runName, listeners);
+        return parser;
+    }
+
+    /**
+     * Returns a parser to the pool, once its run has ended. The parser must not be used by the
+     * caller afterwards.
+     */
+    public void release(@NonNull InstrumentationResultParser parser) {
+        // don't keep the listeners of the run alive while pooled
+        parser.reset(null, Collections.emptyList());
+        synchronized (this) {
+            if (mParsers.size() < mMaxPooled) {
+                mParsers.addFirst(parser);
+            }
+        }
+    }
+
+    /** Returns the number of parsers available in the pool. */
+    public synchronized int getPooledCount() {
+        return mParsers.size();
+    }
+}
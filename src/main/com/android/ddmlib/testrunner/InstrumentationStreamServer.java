@@ -0,0 +1,421 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.ByteBufferPool;
+import com.android.ddmlib.Log;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.jspecify.annotations.NonNull;
+
+/**
+ * Accepts connections streaming the output of {@code am instrument -r}, and parses each of them
+ * as a test run, so a single long running process can collect the results of many devices.
+ *
+ * <p>The server listens on a TCP or a Unix domain socket address. Each connection is a test run,
+ * parsed by its own {@link InstrumentationResultParser} and reported to the listeners created for
+ * it. The run ends when the client closes its side of the connection. A client may name its run by
+ * sending {@code RUN_NAME: <name>} as its first line; otherwise the run is named after the
+ * connection.
+ *
+ * <p>Connections are read by a fixed number of selector threads, so many idle connections only
+ * cost a socket each. The parsers of the closed connections are reused by the next ones. The
+ * listeners of a connection are always called from the same thread, but the listeners of
+ * different connections are called concurrently.
+ */
+public class InstrumentationStreamServer implements Closeable {
+
+    private static final String LOG_TAG = "InstrumentationStreamServer";
+
+    /** Prefix of the optional first line of a connection, holding the name of its run. */
+    public static final String RUN_NAME_HEADER = "RUN_NAME: ";
+
+    static final String CONNECTION_LOST_MSG = "Connection lost: %1$s";
+    static final String SERVER_STOPPED_MSG = "Ingestion server stopped";
+    static final String LISTENER_FAILED_MSG = "Listener failed: %1$s";
+
+    private static final int MAX_HEADER_LENGTH = 1024;
+    private static final int MAX_POOLED_PARSERS = 64;
+
+    private final SocketAddress mAddress;
+    private final Function<String, Collection<ITestRunListener>> mListenerFactory;
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private final AtomicInteger mOpenConnectionCount = new AtomicInteger();
+    private final InstrumentationResultParserPool mParserPool =
+            new InstrumentationResultParserPool(MAX_POOLED_PARSERS);
+
+    private int mThreadCount = 2;
+    private ServerSocketChannel mServerChannel = null;
+    private Worker[] mWorkers = null;
+    private volatile boolean mIsClosed = false;
+
+    /**
+     * Creates a server, which must be {@link #start() started}.
+     *
+     * @param address the address to listen on, an {@link java.net.InetSocketAddress} or an {@link
+     *     UnixDomainSocketAddress}
+     * @param listenerFactory creates the listeners of a run, given its name. Called once per
+     *     connection, from a selector thread
+     */
+    public InstrumentationStreamServer(
+            @NonNull SocketAddress address,
+            @NonNull Function<String, Collection<ITestRunListener>> listenerFactory) {
+        mAddress = address;
+        mListenerFactory = listenerFactory;
+    }
+
+    /** Sets the number of threads reading and parsing the connections. Defaults to 2. */
+    public void setThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount must be positive");
+        }
+        mThreadCount = threadCount;
+    }
+
+    /**
+     * Starts listening, and returns once the server accepts connections.
+     *
+     * @throws IOException if the address can't be bound
+     */
+    public synchronized void start() throws IOException {
+        if (mServerChannel != null) {
+            throw new IllegalStateException("server already started");
+        }
+        if (mAddress instanceof UnixDomainSocketAddress) {
+            // A stale socket file from a previous server prevents binding.
+            Files.deleteIfExists(((UnixDomainSocketAddress) mAddress).getPath());
+            mServerChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            mServerChannel = ServerSocketChannel.open();
+        }
+        try {
+            mServerChannel.bind(mAddress);
+            mServerChannel.configureBlocking(false);
+            mWorkers = new Worker[mThreadCount];
+            for (int i = 0; i < mWorkers.length; i++) {
+                mWorkers[i] = new Worker(i);
+            }
+            // The first worker also accepts the connections.
+            mServerChannel.register(mWorkers[0].mSelector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            closeQuietly(mServerChannel);
+            if (mWorkers != null) {
+                for (Worker worker : mWorkers) {
+                    if (worker != null) {
+                        closeQuietly(worker.mSelector);
+                    }
+                }
+                mWorkers = null;
+            }
+            throw e;
+        }
+        for (Worker worker : mWorkers) {
+            worker.mThread.start();
+        }
+        Log.i(LOG_TAG, String.format("Listening on %1$s", getLocalAddress()));
+    }
+
+    /** Returns the address the server listens on, e.g. to find the port bound to port 0. */
+    public synchronized SocketAddress getLocalAddress() throws IOException {
+        return mServerChannel != null ? mServerChannel.getLocalAddress() : null;
+    }
+
+    /** Returns the number of connections being parsed. */
+    public int getOpenConnectionCount() {
+        return mOpenConnectionCount.get();
+    }
+
+    /**
+     * Stops the server. The runs of the open connections are reported as failed, and the
+     * connections are closed.
+     */
+    @Override
+    public void close() {
+        Worker[] workers;
+        synchronized (this) {
+            if (mIsClosed) {
+                return;
+            }
+            mIsClosed = true;
+            workers = mWorkers;
+            if (mServerChannel != null) {
+                closeQuietly(mServerChannel);
+            }
+        }
+        if (workers == null) {
+            return;
+        }
+        for (Worker worker : workers) {
+            worker.mSelector.wakeup();
+        }
+        for (Worker worker : workers) {
+            try {
+                worker.mThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if (mAddress instanceof UnixDomainSocketAddress) {
+            try {
+                Files.deleteIfExists(((UnixDomainSocketAddress) mAddress).getPath());
+            } catch (IOException e) {
+                Log.w(LOG_TAG, e);
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    /** A selector thread, reading its connections and passing their output to their parsers. */
+    private class Worker {
+        private final Selector mSelector;
+        private final Thread mThread;
+        private final Queue<SocketChannel> mNewChannels = new ConcurrentLinkedQueue<>();
+        private int mNextWorker = 0;
+
+        Worker(int index) throws IOException {
+            mSelector = Selector.open();
+            mThread = new Thread(this::run, "instrumentation-stream-" + index);
+            mThread.setDaemon(true);
+        }
+
+        /** Hands a new connection over to this worker. */
+        void add(SocketChannel channel) {
+            mNewChannels.add(channel);
+            mSelector.wakeup();
+        }
+
+        private void run() {
+            // Reads are parsed before the next one, so a single buffer serves all connections.
+            ByteBufferPool pool = ByteBufferPool.getDefault();
+            ByteBuffer buffer = pool.acquire();
+            try {
+                while (!mIsClosed) {
+                    mSelector.select();
+                    SocketChannel channel;
+                    while ((channel = mNewChannels.poll()) != null) {
+                        register(channel);
+                    }
+                    for (SelectionKey key : mSelector.selectedKeys()) {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else if (key.isReadable()) {
+                            ((Connection) key.attachment()).read(buffer);
+                        }
+                    }
+                    mSelector.selectedKeys().clear();
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                Log.e(LOG_TAG, e);
+            } finally {
+                pool.release(buffer);
+                SocketChannel channel;
+                while ((channel = mNewChannels.poll()) != null) {
+                    closeQuietly(channel);
+                }
+                for (SelectionKey key : mSelector.keys()) {
+                    if (key.attachment() instanceof Connection) {
+                        ((Connection) key.attachment()).fail(SERVER_STOPPED_MSG);
+                    }
+                }
+                closeQuietly(mSelector);
+            }
+        }
+
+        private void accept() {
+            try {
+                SocketChannel channel;
+                while ((channel = mServerChannel.accept()) != null) {
+                    mWorkers[mNextWorker].add(channel);
+                    mNextWorker = (mNextWorker + 1) % mWorkers.length;
+                }
+            } catch (IOException e) {
+                // e.g. too many open files: keep serving the open connections, the pending ones
+                // are accepted by a later selection
+                if (!mIsClosed) {
+                    Log.e(LOG_TAG, e);
+                }
+            }
+        }
+
+        private void register(SocketChannel channel) {
+            Connection connection =
+                    new Connection(channel, "connection-" + mConnectionCount.incrementAndGet());
+            try {
+                channel.configureBlocking(false);
+                connection.mKey = channel.register(mSelector, SelectionKey.OP_READ, connection);
+                mOpenConnectionCount.incrementAndGet();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, e);
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    /**
+     * A connection, parsed as a test run. The parser is created once the name of the run is known,
+     * i.e. once the first line has been received.
+     */
+    private class Connection {
+        private final SocketChannel mChannel;
+        private final String mDefaultRunName;
+        private SelectionKey mKey;
+        private InstrumentationResultParser mParser = null;
+        private byte[] mHeader = new byte[0];
+
+        Connection(SocketChannel channel, String defaultRunName) {
+            mChannel = channel;
+            mDefaultRunName = defaultRunName;
+        }
+
+        /** Reads the available output and parses it, using the given buffer. */
+        void read(ByteBuffer buffer) {
+            try {
+                int count;
+                while ((count = mChannel.read(buffer)) > 0) {
+                    buffer.flip();
+                    parse(buffer);
+                    buffer.clear();
+                }
+                if (count < 0) {
+                    end();
+                }
+            } catch (IOException e) {
+                buffer.clear();
+                fail(String.format(CONNECTION_LOST_MSG, e.getMessage()));
+            } catch (RuntimeException e) {
+                // A listener failed, drop the connection rather than the whole worker.
+                buffer.clear();
+                Log.e(LOG_TAG, e);
+                fail(String.format(LISTENER_FAILED_MSG, e));
+            }
+        }
+
+        private void parse(ByteBuffer data) {
+            if (mParser == null && !readHeader(data)) {
+                return;
+            }
+            mParser.addOutput(data);
+        }
+
+        /**
+         * Collects the first line, and creates the parser once it is known whether it holds the
+         * name of the run.
+         *
+         * @return whether the parser was created, in which case the remaining data is left in the
+         *     buffer, and the header bytes which are not a run name have been parsed
+         */
+        private boolean readHeader(ByteBuffer data) {
+            int end = data.position();
+            while (end < data.limit() && data.get(end) != '\n') {
+                end++;
+            }
+            int length = mHeader.length;
+            mHeader = Arrays.copyOf(mHeader, length + end - data.position());
+            data.get(mHeader, length, mHeader.length - length);
+            String header = new String(mHeader, StandardCharsets.UTF_8);
+            boolean isRunName = header.startsWith(RUN_NAME_HEADER);
+            if (end == data.limit() && mHeader.length < MAX_HEADER_LENGTH
+                    && (isRunName || RUN_NAME_HEADER.startsWith(header))) {
+                // wait for the rest of the line
+                return false;
+            }
+            if (isRunName && end < data.limit()) {
+                data.get(); // skip the line feed
+                createParser(header.substring(RUN_NAME_HEADER.length()).trim());
+            } else {
+                createParser(mDefaultRunName);
+                mParser.addOutput(mHeader, 0, mHeader.length);
+            }
+            mHeader = null;
+            return true;
+        }
+
+        private void createParser(String runName) {
+            Log.d(LOG_TAG, String.format("Receiving run %1$s", runName));
+            mParser = mParserPool.acquire(runName, mListenerFactory.apply(runName));
+        }
+
+        /** Ends the run, once the client has sent all its output. */
+        private void end() {
+            if (mParser == null) {
+                createParser(mDefaultRunName);
+                mParser.addOutput(mHeader, 0, mHeader.length);
+            }
+            mParser.flush();
+            close();
+        }
+
+        /** Reports the run as failed, unless it has ended, and closes the connection. */
+        void fail(String errorMessage) {
+            if (!mChannel.isOpen()) {
+                return;
+            }
+            try {
+                if (mParser == null) {
+                    createParser(mDefaultRunName);
+                }
+                mParser.handleTestRunFailed(errorMessage);
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, e);
+            }
+            close();
+        }
+
+        private void close() {
+            if (!mChannel.isOpen()) {
+                return;
+            }
+            mOpenConnectionCount.decrementAndGet();
+            if (mKey != null) {
+                mKey.cancel();
+            }
+            closeQuietly(mChannel);
+            if (mParser != null) {
+                mParserPool.release(mParser);
+                mParser = null;
+            }
+        }
+    }
+}
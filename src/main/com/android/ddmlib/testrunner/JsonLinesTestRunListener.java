@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.Log;
+import com.android.ddmlib.testrunner.TestResult.TestStatus;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import org.jspecify.annotations.NonNull;
+
+/**
+ * Writes test results as JSON Lines: one compact JSON object per line.
+ *
+ * <p>Unlike {@link XmlTestRunListener}, which writes its report when the run ends, every record is
+ * written as soon as the corresponding event is received, so consumers can process the output
+ * while the run is still in progress. The output is flushed after each finished test and at the
+ * end of the run.
+ *
+ * <p>By default a single "test" record is emitted per finished test, containing its status, stack
+ * trace, start and end time and metrics. When {@link #setReportEvents(boolean)} is enabled, one
+ * record is emitted per {@link ITestRunListener} callback instead.
+ *
+ * <p>Every record has an "event" field holding the record type. Run level records are
+ * "testRunStarted", "testRunFailed" and "testRunEnded".
+ */
+public class JsonLinesTestRunListener implements ITestRunListener {
+
+    private static final String LOG_TAG = "JsonLinesResultReporter";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Writer mWriter;
+
+    private boolean mReportEvents = false;
+
+    /** Tests that have started but not ended yet, used to build the per-test records. */
+    private final Map<TestIdentifier, TestResult> mRunningTests = new HashMap<>();
+
+    /** Reused for every record to avoid allocating a builder per line. */
+    private final StringBuilder mLine = new StringBuilder(256);
+
+    /**
+     * Creates a listener writing UTF-8 encoded records to the given stream. The stream is not
+     * closed by this listener.
+     */
+    public JsonLinesTestRunListener(@NonNull OutputStream stream) {
+        mWriter = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Sets whether one record should be written per listener event rather than one record per
+     * finished test.
+     */
+    public void setReportEvents(boolean reportEvents) {
+        mReportEvents = reportEvents;
+    }
+
+    @Override
+    public void testRunStarted(String runName, int testCount) {
+        mRunningTests.clear();
+        beginRecord("testRunStarted");
+        appendField("runName", runName);
+        appendField("testCount", testCount);
+        endRecord(true);
+    }
+
+    @Override
+    public void testStarted(TestIdentifier test) {
+        TestResult result = new TestResult();
+        mRunningTests.put(test, result);
+        if (mReportEvents) {
+            beginRecord("testStarted");
+            appendTest(test);
+            appendField("time", result.getStartTime());
+            endRecord(false);
+        }
+    }
+
+    @Override
+    public void testFailed(TestIdentifier test, String trace) {
+        updateRunningTest(test, TestStatus.FAILURE, trace);
+        if (mReportEvents) {
+            beginRecord("testFailed");
+            appendTest(test);
+            appendField("trace", trace);
+            endRecord(false);
+        }
+    }
+
+    @Override
+    public void testAssumptionFailure(TestIdentifier test, String trace) {
+        updateRunningTest(test, TestStatus.ASSUMPTION_FAILURE, trace);
+        if (mReportEvents) {
+            beginRecord("testAssumptionFailure");
+            appendTest(test);
+            appendField("trace", trace);
+            endRecord(false);
+        }
+    }
+
+    @Override
+    public void testIgnored(TestIdentifier test) {
+        updateRunningTest(test, TestStatus.IGNORED, null);
+        if (mReportEvents) {
+            beginRecord("testIgnored");
+            appendTest(test);
+            endRecord(false);
+        }
+    }
+
+    @Override
+    public void testEnded(TestIdentifier test, Map<String, String> testMetrics) {
+        TestResult result = mRunningTests.remove(test);
+        if (result == null) {
+            Log.d(LOG_TAG, String.format("received test end without test start for %s", test));
+            result = new TestResult();
+        }
+        if (result.getStatus() == TestStatus.INCOMPLETE) {
+            result.setStatus(TestStatus.PASSED);
+        }
+        result.setEndTime(System.currentTimeMillis());
+        if (mReportEvents) {
+            beginRecord("testEnded");
+            appendTest(test);
+            appendField("time", result.getEndTime());
+        } else {
+            beginRecord("test");
+            appendTest(test);
+            appendField("status", result.getStatus().name());
+            appendField("startTime", result.getStartTime());
+            appendField("endTime", result.getEndTime());
+            if (result.getStackTrace() != null) {
+                appendField("trace", result.getStackTrace());
+            }
+        }
+        appendField("metrics", testMetrics);
+        endRecord(true);
+    }
+
+    @Override
+    public void testRunFailed(String errorMessage) {
+        beginRecord("testRunFailed");
+        appendField("message", errorMessage);
+        endRecord(false);
+    }
+
+    @Override
+    public void testRunStopped(long elapsedTime) {
+        // ignore
+    }
+
+    @Override
+    public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+        beginRecord("testRunEnded");
+        appendField("elapsedTime", elapsedTime);
+        appendField("metrics", runMetrics);
+        endRecord(true);
+    }
+
+    private void updateRunningTest(TestIdentifier test, TestStatus status, String trace) {
+        TestResult result = mRunningTests.get(test);
+        if (result == null) {
+            Log.d(LOG_TAG, String.format("received test event without test start for %s", test));
+            result = new TestResult();
+            mRunningTests.put(test, result);
+        }
+        result.setStatus(status);
+        result.setStackTrace(trace);
+    }
+
+    private void beginRecord(String event) {
+        mLine.setLength(0);
+        mLine.append('{');
+        appendField("event", event);
+    }
+
+    private void endRecord(boolean flush) {
+        mLine.append("}\n");
+        try {
+            mWriter.append(mLine);
+            if (flush) {
+                mWriter.flush();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to write report data");
+        }
+    }
+
+    private void appendTest(TestIdentifier test) {
+        appendField("class", test.getClassName());
+        appendField("test", test.getTestName());
+    }
+
+    private void appendName(String name) {
+        if (mLine.length() > 1) {
+            mLine.append(',');
+        }
+        appendString(name);
+        mLine.append(':');
+    }
+
+    private void appendField(String name, String value) {
+        appendName(name);
+        if (value == null) {
+            mLine.append("null");
+        } else {
+            appendString(value);
+        }
+    }
+
+    private void appendField(String name, long value) {
+        appendName(name);
+        mLine.append(value);
+    }
+
+    private void appendField(String name, Map<String, String> values) {
+        appendName(name);
+        if (values == null) {
+            mLine.append("null");
+            return;
+        }
+        mLine.append('{');
+        boolean first = true;
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            if (!first) {
+                mLine.append(',');
+            }
+            first = false;
+            appendString(entry.getKey());
+            mLine.append(':');
+            if (entry.getValue() == null) {
+                mLine.append("null");
+            } else {
+                appendString(entry.getValue());
+            }
+        }
+        mLine.append('}');
+    }
+
+    /** Appends the given text as a quoted JSON string, escaping it as required by RFC 8259. */
+    private void appendString(String text) {
+        mLine.append('"');
+        int length = text.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            mLine.append(text, start, i);
+            start = i + 1;
+            switch (c) {
+                case '"':
+                    mLine.append("\\\"");
+                    break;
+                case '\\':
+                    mLine.append("\\\\");
+                    break;
+                case '\n':
+                    mLine.append("\\n");
+                    break;
+                case '\r':
+                    mLine.append("\\r");
+                    break;
+                case '\t':
+                    mLine.append("\\t");
+                    break;
+                default:
+                    mLine.append("\\u00").append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xf]);
+                    break;
+            }
+        }
+        mLine.append(text, start, length);
+        mLine.append('"');
+    }
+}
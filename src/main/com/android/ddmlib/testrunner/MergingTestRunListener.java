@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.Log;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import org.jspecify.annotations.NonNull;
+
+/**
+ * Merges the events of several instrumentation runs into a single logical test run.
+ *
+ * <p>Each instrumentation run reports to its own child listener, created with {@link
+ * #createChildListener(String)}. Test events of all children are forwarded to the registered
+ * listeners, serialized so that listeners which are not thread safe can be used even when the
+ * children run concurrently. The run level events of the children are not forwarded. Instead:
+ *
+ * <ul>
+ *   <li>{@link ITestRunListener#testRunStarted} is reported once, either when {@link
+ *       #startRun(int)} is called or, if {@link #setExpectedChildRuns(int)} was used, when all
+ *       expected children have started. In the latter case the test count is the sum of the
+ *       children test counts, and test events received before that are buffered.
+ *   <li>{@link ITestRunListener#testRunFailed} and {@link ITestRunListener#testRunEnded} are
+ *       reported once by {@link #endRun()}. The failure message combines the failures of all the
+ *       children, prefixed by their label. The elapsed time is the wall-clock time from the
+ *       start of the first child to the end of the last one, or the longest of the children
+ *       elapsed times if greater, since the children may run concurrently. The run metrics are
+ *       merged.
+ * </ul>
+ */
+public class MergingTestRunListener {
+
+    private static final String LOG_TAG = "MergingTestRunListener";
+
+    private final String mRunName;
+    private final List<ITestRunListener> mListeners;
+
+    private int mExpectedChildRuns = 0;
+    private int mStartedChildRuns = 0;
+    private int mTestCount = 0;
+    private boolean mRunStarted = false;
+    private boolean mRunEnded = false;
+    private long mElapsedTime = 0;
+    private long mFirstChildStartMs = -1;
+    private long mLastChildEndMs = -1;
+    private final Map<String, String> mRunMetrics = new LinkedHashMap<>();
+    private final List<String> mRunFailures = new ArrayList<>();
+
+    /** Events received before the merged run was started. */
+    private final List<Consumer<ITestRunListener>> mPendingEvents = new ArrayList<>();
+
+    /**
+     * Creates the MergingTestRunListener.
+     *
+     * @param runName the run name to report to {@link ITestRunListener#testRunStarted}
+     * @param listeners the listeners informed of the merged run
+     */
+    public MergingTestRunListener(
+            @NonNull String runName, @NonNull Collection<ITestRunListener> listeners) {
+        mRunName = runName;
+        mListeners = new ArrayList<>(listeners);
+    }
+
+    /**
+     * Sets the number of child runs which need to start before the merged run is reported as
+     * started. Must be called before any child run starts.
+     */
+    public synchronized void setExpectedChildRuns(int expectedChildRuns) {
+        mExpectedChildRuns = expectedChildRuns;
+    }
+
+    /**
+     * Reports the start of the merged run with the given test count, and forwards all test events
+     * buffered so far. Does nothing if the run has already been started.
+     */
+    public synchronized void startRun(int testCount) {
+        if (mRunStarted) {
+            return;
+        }
+        mRunStarted = true;
+        for (ITestRunListener listener : mListeners) {
+            listener.testRunStarted(mRunName, testCount);
+        }
+        for (Consumer<ITestRunListener> event : mPendingEvents) {
+            for (ITestRunListener listener : mListeners) {
+                event.accept(listener);
+            }
+        }
+        mPendingEvents.clear();
+    }
+
+    /**
+     * Reports the end of the merged run. Starts the run first if that has not happened yet. Does
+     * nothing if the run has already ended.
+     */
+    public synchronized void endRun() {
+        if (mRunEnded) {
+            return;
+        }
+        startRun(mTestCount);
+        mRunEnded = true;
+        for (ITestRunListener listener : mListeners) {
+            if (!mRunFailures.isEmpty()) {
+                listener.testRunFailed(String.join("\n", mRunFailures));
+            }
+            listener.testRunEnded(getElapsedTime(), mRunMetrics);
+        }
+    }
+
+    private long getElapsedTime() {
+        if (mFirstChildStartMs < 0 || mLastChildEndMs < 0) {
+            return mElapsedTime;
+        }
+        return Math.max(mElapsedTime, mLastChildEndMs - mFirstChildStartMs);
+    }
+
+    /** Returns true if any of the child runs reported a run failure. */
+    public synchronized boolean isRunFailure() {
+        return !mRunFailures.isEmpty();
+    }
+
+    /**
+     * Creates the listener for a new child run.
+     *
+     * @param label identifies the child run in the merged run failure message
+     */
+    @NonNull
+    public ITestRunListener createChildListener(@NonNull String label) {
+        return new ChildListener(label);
+    }
+
+    private synchronized void childRunStarted(int testCount) {
+        mStartedChildRuns++;
+        if (mFirstChildStartMs < 0) {
+            mFirstChildStartMs = System.currentTimeMillis();
+        }
+        mTestCount += testCount;
+        if (mExpectedChildRuns > 0 && mStartedChildRuns >= mExpectedChildRuns) {
+            startRun(mTestCount);
+        }
+    }
+
+    private synchronized void childRunFailed(String label, String errorMessage) {
+        mRunFailures.add(String.format("%1$s: %2$s", label, errorMessage));
+    }
+
+    private synchronized void childRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+        // the children may have run concurrently, so their times are not added
+        mElapsedTime = Math.max(mElapsedTime, elapsedTime);
+        mLastChildEndMs = System.currentTimeMillis();
+        mRunMetrics.putAll(runMetrics);
+    }
+
+    private synchronized void forward(Consumer<ITestRunListener> event) {
+        if (mRunEnded) {
+            Log.w(LOG_TAG, "Ignoring test event received after the end of the merged run");
+            return;
+        }
+        if (!mRunStarted) {
+            mPendingEvents.add(event);
+            return;
+        }
+        for (ITestRunListener listener : mListeners) {
+            event.accept(listener);
+        }
+    }
+
+    /** Receives the events of a single child run. */
+    private class ChildListener implements ITestRunListener {
+
+        private final String mLabel;
+
+        private ChildListener(String label) {
+            mLabel = label;
+        }
+
+        @Override
+        public void testRunStarted(String runName, int testCount) {
+            childRunStarted(testCount);
+        }
+
+        @Override
+        public void testStarted(TestIdentifier test) {
+            forward(listener -> listener.testStarted(test));
+        }
+
+        @Override
+        public void testFailed(TestIdentifier test, String trace) {
+            forward(listener -> listener.testFailed(test, trace));
+        }
+
+        @Override
+        public void testAssumptionFailure(TestIdentifier test, String trace) {
+            forward(listener -> listener.testAssumptionFailure(test, trace));
+        }
+
+        @Override
+        public void testIgnored(TestIdentifier test) {
+            forward(listener -> listener.testIgnored(test));
+        }
+
+        @Override
+        public void testEnded(TestIdentifier test, Map<String, String> testMetrics) {
+            forward(listener -> listener.testEnded(test, testMetrics));
+        }
+
+        @Override
+        public void testRunFailed(String errorMessage) {
+            childRunFailed(mLabel, errorMessage);
+        }
+
+        @Override
+        public void testRunStopped(long elapsedTime) {
+            // ignore
+        }
+
+        @Override
+        public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+            childRunEnded(elapsedTime, runMetrics);
+        }
+    }
+}
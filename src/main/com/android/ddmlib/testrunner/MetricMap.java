@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The metrics of a test, as given to the {@link ITestRunListener}s, keeping the order in which
+ * they were reported.
+ *
+ * <p>The characters of the values are copied into the {@link Arena} of the run, and a value is
+ * only created as a string when it is first read, so that metrics no listener reads don't cost a
+ * string each. It is filled by a single thread before being given to the listeners, and only
+ * caches the values read afterwards.
+ *
+ * <p>Listeners may modify the map, as they could the map the parser used to give them: the first
+ * modification copies the metrics to a {@link LinkedHashMap}, which then backs the map. The
+ * metrics as reported stay available by index, for {@link TestMetrics}.
+ */
+final class MetricMap extends AbstractMap<String, String> {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private static final String[] NO_STRINGS = new String[0];
+    private static final char[][] NO_CHARS = new char[0][];
+    private static final int[] NO_INTS = new int[0];
+
+    /**
+     * Append-only storage of the characters of the values of a run. The characters of a value are
+     * never overwritten, so the maps given to listeners remain valid after the run.
+     */
+    static final class Arena {
+
+        private static final int CHUNK_SIZE = 8192;
+
+        /** The values larger than this get an array of their own. */
+        private static final int MAX_SHARED_LENGTH = CHUNK_SIZE / 8;
+
+        private char[] mChunk = null;
+        private int mChunkLength = 0;
+
+        /** The array and offset holding the characters of the last appended value. */
+        private char[] mLastChars;
+        private int mLastOffset;
+
+        private void append(StringBuilder value) {
+            int length = value.length();
+            if (length > MAX_SHARED_LENGTH) {
+                mLastChars = new char[length];
+                mLastOffset = 0;
+            } else {
+                if (mChunk == null || mChunkLength + length > mChunk.length) {
+                    mChunk = new char[CHUNK_SIZE];
+                    mChunkLength = 0;
+                }
+                mLastChars = mChunk;
+                mLastOffset = mChunkLength;
+                mChunkLength += length;
+            }
+            value.getChars(0, length, mLastChars, mLastOffset);
+        }
+    }
+
+    private final Arena mArena;
+
+    private String[] mKeys = NO_STRINGS;
+    private char[][] mChars = NO_CHARS;
+    private int[] mOffsets = NO_INTS;
+    private int[] mLengths = NO_INTS;
+    /** The values already created as strings. */
+    private String[] mValues = NO_STRINGS;
+    private int mSize = 0;
+
+    /** Indexes of the keys, plus one, by hash. Kept at most half full. */
+    private int[] mSlots = NO_INTS;
+
+    /** The copy of the metrics backing the map once a listener modified it, or null. */
+    private Map<String, String> mCopy = null;
+
+    private Set<Entry<String, String>> mEntrySet;
+
+    /**
+     * @param arena the storage of the values of the run
+     */
+    MetricMap(Arena arena) {
+        mArena = arena;
+    }
+
+    /**
+     * Adds a metric, replacing the value of the key if already present.
+     *
+     * @return whether the key was already present
+     */
+    boolean add(String key, StringBuilder value) {
+        int index = indexOf(key);
+        boolean replaced = index >= 0;
+        if (!replaced) {
+            if (mSize == mKeys.length) {
+                grow();
+            }
+            index = mSize++;
+            mKeys[index] = key;
+            mSlots[findSlot(key)] = index + 1;
+        }
+        mArena.append(value);
+        mChars[index] = mArena.mLastChars;
+        mOffsets[index] = mArena.mLastOffset;
+        mLengths[index] = value.length();
+        mValues[index] = null;
+        return replaced;
+    }
+
+    @Override
+    public int size() {
+        return mCopy != null ? mCopy.size() : mSize;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return mCopy != null ? mCopy.containsKey(key) : indexOf(key) >= 0;
+    }
+
+    @Override
+    public String get(Object key) {
+        if (mCopy != null) {
+            return mCopy.get(key);
+        }
+        int index = indexOf(key);
+        return index >= 0 ? getValue(index) : null;
+    }
+
+    @Override
+    public String put(String key, String value) {
+        return copy().put(key, value);
+    }
+
+    @Override
+    public String remove(Object key) {
+        return copy().remove(key);
+    }
+
+    @Override
+    public void clear() {
+        copy().clear();
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        if (mCopy != null) {
+            return mCopy.entrySet();
+        }
+        if (mEntrySet == null) {
+            mEntrySet = new EntrySet();
+        }
+        return mEntrySet;
+    }
+
+    /** Returns the number of metrics as reported, before any modification by the listeners. */
+    int reportedSize() {
+        return mSize;
+    }
+
+    String keyAt(int index) {
+        return mKeys[index];
+    }
+
+    /** Returns the array holding the characters of the value at the given index. */
+    char[] charsAt(int index) {
+        return mChars[index];
+    }
+
+    int offsetAt(int index) {
+        return mOffsets[index];
+    }
+
+    int lengthAt(int index) {
+        return mLengths[index];
+    }
+
+    /** Returns the index of the given key, or -1 if not present. */
+    int indexOf(Object key) {
+        if (key == null || mSize == 0) {
+            return -1;
+        }
+        return mSlots[findSlot(key)] - 1;
+    }
+
+    String getValue(int index) {
+        String value = mValues[index];
+        if (value == null) {
+            value = new String(mChars[index], mOffsets[index], mLengths[index]);
+            mValues[index] = value;
+        }
+        return value;
+    }
+
+    /** Returns the copy backing the map, copying the metrics first if needed. */
+    private Map<String, String> copy() {
+        if (mCopy == null) {
+            Map<String, String> copy = new LinkedHashMap<>();
+            for (int i = 0; i < mSize; i++) {
+                copy.put(mKeys[i], getValue(i));
+            }
+            mCopy = copy;
+        }
+        return mCopy;
+    }
+
+    /** Returns the slot of the given key, or the empty slot where it would be added. */
+    private int findSlot(Object key) {
+        int hash = key.hashCode();
+        int mask = mSlots.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        int index;
+        while ((index = mSlots[slot]) != 0) {
+            String existing = mKeys[index - 1];
+            if (existing == key || existing.equals(key)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        int capacity = Math.max(INITIAL_CAPACITY, mKeys.length * 2);
+        mKeys = Arrays.copyOf(mKeys, capacity);
+        mChars = Arrays.copyOf(mChars, capacity);
+        mOffsets = Arrays.copyOf(mOffsets, capacity);
+        mLengths = Arrays.copyOf(mLengths, capacity);
+        mValues = Arrays.copyOf(mValues, capacity);
+        mSlots = new int[capacity * 2];
+        for (int i = 0; i < mSize; i++) {
+            mSlots[findSlot(mKeys[i])] = i + 1;
+        }
+    }
+
+    private class EntrySet extends AbstractSet<Entry<String, String>> {
+
+        @Override
+        public int size() {
+            return mSize;
+        }
+
+        @Override
+        public Iterator<Entry<String, String>> iterator() {
+            return new Iterator<Entry<String, String>>() {
+                private int mIndex = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return mIndex < mSize;
+                }
+
+                @Override
+                public Entry<String, String> next() {
+                    if (mIndex >= mSize) {
+                        throw new NoSuchElementException();
+                    }
+                    return new MetricEntry(mIndex++);
+                }
+
+                @Override
+                public void remove() {
+                    if (mIndex == 0) {
+                        throw new IllegalStateException();
+                    }
+                    // the metrics as reported are kept, so the iteration goes on over them
+                    copy().remove(mKeys[mIndex - 1]);
+                }
+            };
+        }
+    }
+
+    /** An entry which value is only created when read. */
+    private class MetricEntry implements Entry<String, String> {
+
+        private final int mIndex;
+
+        MetricEntry(int index) {
+            mIndex = index;
+        }
+
+        @Override
+        public String getKey() {
+            return mKeys[mIndex];
+        }
+
+        @Override
+        public String getValue() {
+            return mCopy != null ? mCopy.get(getKey()) : MetricMap.this.getValue(mIndex);
+        }
+
+        @Override
+        public String setValue(String value) {
+            return copy().put(getKey(), value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> other = (Map.Entry<?, ?>) o;
+            return getKey().equals(other.getKey()) && Objects.equals(getValue(), other.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return getKey().hashCode() ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
@@ -20,13 +20,16 @@ import org.jspecify.annotations.NonNull;
 import com.android.ddmlib.AdbCommandRejectedException;
 //import com.android.ddmlib.IDevice;
 import com.android.ddmlib.IShellEnabledDevice;
+import com.android.ddmlib.IShellOutputReceiver;
 import com.android.ddmlib.Log;
 import com.android.ddmlib.ShellCommandUnresponsiveException;
 import com.android.ddmlib.TimeoutException;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.TimeUnit;
@@ -103,9 +106,17 @@ public class RemoteAndroidTestRunner implements IRemoteAndroidTestRunner  {
 
     /** map of name-value instrumentation argument pairs */
     private Map<String, String> mArgMap;
-    private IInstrumentationResultParser mParser;
+    private volatile IInstrumentationResultParser mParser;
+    /** Whether {@link #cancel()} was called before the parser of the run was created. */
+    private volatile boolean mCancelled = false;
+    private AdaptiveTestTimeout mAdaptiveTestTimeout = null;
+    private InstrumentationResultParserPool mParserPool = null;
+    private final List<AbortPolicy> mAbortPolicies = new ArrayList<>();
 
     private static final String LOG_TAG = "RemoteAndroidTest";
+
+    /** The run failure reported when a run is cancelled. */
+    static final String CANCELLED_MSG = "Test run cancelled";
     private static final String DEFAULT_RUNNER_NAME = "android.test.InstrumentationTestRunner";
 
     private static final char CLASS_SEPARATOR = ',';
@@ -114,12 +125,12 @@ public class RemoteAndroidTestRunner implements IRemoteAndroidTestRunner  {
 
     // defined instrumentation argument names
     private static final String CLASS_ARG_NAME = "class";
-    private static final String LOG_ARG_NAME = "log";
+    static final String LOG_ARG_NAME = "log";
     private static final String DEBUG_ARG_NAME = "debug";
     private static final String COVERAGE_ARG_NAME = "coverage";
     private static final String PACKAGE_ARG_NAME = "package";
     private static final String SIZE_ARG_NAME = "size";
-    private static final String DELAY_MSEC_ARG_NAME = "delay_msec";
+    static final String DELAY_MSEC_ARG_NAME = "delay_msec";
     private String mRunOptions = "";
 
     private static final int TEST_COLLECTION_TIMEOUT = 2 * 60 * 1000; //2 min
@@ -321,6 +332,10 @@ public class RemoteAndroidTestRunner implements IRemoteAndroidTestRunner  {
         mMaxTimeToOutputResponseMs = maxTimeUnits.toMillis(maxTimeToOutputResponse);
     }
 
+    long getMaxTimeToOutputResponseMs() {
+        return mMaxTimeToOutputResponseMs;
+    }
+
     @Override
     public void setMaxTimeout(long maxTimeout, TimeUnit maxTimeUnits) {
         mMaxTimeoutMs = maxTimeUnits.toMillis(maxTimeout);
@@ -331,6 +346,34 @@ public class RemoteAndroidTestRunner implements IRemoteAndroidTestRunner  {
         mRunName = runName;
     }
 
+    /**
+     * Sets the per-test timeouts of the runs, derived from the durations of the previous runs. A
+     * test running past its timeout is failed and the instrumentation is cancelled.
+     *
+     * @param adaptiveTestTimeout the timeouts, or null to disable them
+     */
+    public void setAdaptiveTestTimeout(AdaptiveTestTimeout adaptiveTestTimeout) {
+        mAdaptiveTestTimeout = adaptiveTestTimeout;
+    }
+
+    /**
+     * Sets the pool the parsers of the runs are taken from, and released to once the runs end,
+     * instead of creating a parser per run. {@link #createParser} is not called when a pool is set.
+     *
+     * @param parserPool the pool, or null to create a parser per run
+     */
+    public void setParserPool(InstrumentationResultParserPool parserPool) {
+        mParserPool = parserPool;
+    }
+
+    /**
+     * Adds a policy aborting the runs early. When it trips, the running instrumentation is
+     * cancelled and the next runs fail without being launched.
+     */
+    public void addAbortPolicy(@NonNull AbortPolicy policy) {
+        mAbortPolicies.add(policy);
+    }
+
     @Override
     public void run(ITestRunListener... listeners)
             throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
@@ -346,15 +389,81 @@ public class RemoteAndroidTestRunner implements IRemoteAndroidTestRunner  {
         Log.i(LOG_TAG, String.format("Running %1$s on %2$s", runCaseCommandStr,
                 mRemoteDevice.getName()));
         String runName = mRunName == null ? mPackageName : mRunName;
-        mParser = createParser(runName, listeners);
+        AdaptiveTestTimeout.Watch watch = null;
+        if (mAdaptiveTestTimeout != null || !mAbortPolicies.isEmpty()) {
+            listeners = new ArrayList<>(listeners);
+            listeners.addAll(mAbortPolicies);
+            if (mAdaptiveTestTimeout != null) {
+                watch = mAdaptiveTestTimeout.createWatch();
+                listeners.add(watch);
+            }
+        }
+        InstrumentationResultParserPool parserPool = mParserPool;
+        try {
+            if (parserPool != null) {
+                InstrumentationResultParser parser = parserPool.acquire(runName, listeners);
+                mParser = parser;
+                try {
+                    runInstrumentation(runCaseCommandStr, watch);
+                } finally {
+                    mParser = null;
+                    parserPool.release(parser);
+                }
+            } else {
+                mParser = createParser(runName, listeners);
+                runInstrumentation(runCaseCommandStr, watch);
+            }
+        } finally {
+            mCancelled = false;
+        }
+    }
+
+    /** Runs the instrumentation, parsing its output with {@link #mParser}. */
+    private void runInstrumentation(String runCaseCommandStr, AdaptiveTestTimeout.Watch watch)
+            throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
+            IOException {
+        if (mCancelled) {
+            // cancelled before the parser was created, the command is not launched
+            mParser.cancel();
+            mParser.handleTestRunCancelled(CANCELLED_MSG);
+            return;
+        }
+        IShellOutputReceiver receiver = mParser;
+        if (!mAbortPolicies.isEmpty()) {
+            AbortPolicy.Guard guard =
+                    new AbortPolicy.Guard(mParser, mParser, new ArrayList<>(mAbortPolicies));
+            if (guard.check()) {
+                // Either a policy tripped during a previous run, and the guard reported the run as
+                // aborted, or the run was cancelled meanwhile. The command is not launched.
+                mParser.handleTestRunCancelled(CANCELLED_MSG);
+                return;
+            }
+            receiver = guard;
+        }
+        if (watch != null) {
+            // the watch passes the output to the parser, under the lock of its timers
+            watch.attach(mParser, receiver);
+            receiver = watch;
+        }
 
         try {
-            mRemoteDevice.executeShellCommand(
-                    runCaseCommandStr,
-                    mParser,
-                    mMaxTimeoutMs,
-                    mMaxTimeToOutputResponseMs,
-                    TimeUnit.MILLISECONDS);
+            try {
+                mRemoteDevice.executeShellCommand(
+                        runCaseCommandStr,
+                        receiver,
+                        mMaxTimeoutMs,
+                        mMaxTimeToOutputResponseMs,
+                        TimeUnit.MILLISECONDS);
+            } finally {
+                if (watch != null) {
+                    watch.stop();
+                }
+            }
+            if (mParser.isCancelled()) {
+                // the output of a cancelled command is not flushed, so the parser did not report
+                // the end of the run, unless the cancellation already reported it as failed
+                mParser.handleTestRunCancelled(CANCELLED_MSG);
+            }
         } catch (IOException e) {
             Log.w(LOG_TAG, String.format("IOException %1$s when running tests %2$s on %3$s",
                     e.toString(), getPackageName(), mRemoteDevice.getName()));
@@ -410,6 +519,33 @@ public class RemoteAndroidTestRunner implements IRemoteAndroidTestRunner  {
                 getRunnerPath());
     }
 
+    /**
+     * Returns the am instrument command, without the instrumentation arguments set by {@link
+     * #setTestCollection}, which don't change the selected tests.
+     */
+    @NonNull
+    String getAmInstrumentCommandWithoutCollectionArgs() {
+        StringBuilder args = new StringBuilder();
+        for (Entry<String, String> argPair : mArgMap.entrySet()) {
+            if (!argPair.getKey().equals(LOG_ARG_NAME)
+                    && !argPair.getKey().equals(DELAY_MSEC_ARG_NAME)) {
+                args.append(String.format(" -e %1$s %2$s", argPair.getKey(),
+                        argPair.getValue()));
+            }
+        }
+        return String.format(
+                "am instrument -w %1$s %2$s %3$s %4$s",
+                mStatusReporterMode.getAmInstrumentCommandArg(),
+                getRunOptions(),
+                args,
+                getRunnerPath());
+    }
+
+    /** Returns the value of the given instrumentation argument, or null if it is not set. */
+    String getInstrumentationArg(@NonNull String name) {
+        return mArgMap.get(name);
+    }
+
     /**
      * Returns options for the am instrument command.
      */
@@ -425,10 +561,18 @@ public class RemoteAndroidTestRunner implements IRemoteAndroidTestRunner  {
         mRunOptions = options;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>A run which has not created its parser yet is cancelled as soon as it does, so is the
+     * next run if none is in progress.
+     */
     @Override
     public void cancel() {
-        if (mParser != null) {
-            mParser.cancel();
+        mCancelled = true;
+        IInstrumentationResultParser parser = mParser;
+        if (parser != null) {
+            parser.cancel();
         }
     }
 
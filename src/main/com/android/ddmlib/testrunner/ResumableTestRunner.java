@@ -0,0 +1,373 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.AdbCommandRejectedException;
+import com.android.ddmlib.IShellEnabledDevice;
+import com.android.ddmlib.Log;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.TimeoutException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import org.jspecify.annotations.NonNull;
+
+/**
+ * Runs a list of tests on a device, and relaunches the instrumentation for the remaining tests
+ * when it crashes.
+ *
+ * <p>The tests are typically collected beforehand, e.g. with {@link TestCollectionCache}. The
+ * first instrumentation runs all the tests. When an instrumentation fails, the tests it started,
+ * including the one running at the time of the crash which is reported as failed, are considered
+ * done and a new instrumentation is launched for the tests not started yet. Classes with no test
+ * started are selected by name, other tests by {@code className#methodName}, in as many
+ * instrumentations as needed to fit the command length limit.
+ *
+ * <p>All the instrumentations are merged with a {@link MergingTestRunListener} into a single test
+ * run. As long as every test gets to run, instrumentation failures are only logged. The run fails
+ * if an instrumentation fails without starting any test, or when the maximum number of relaunches
+ * is reached. Tests which were never run, because the relaunches are exhausted, an instrumentation
+ * ended without running all its tests or the runner threw, are reported as failed and listed in
+ * the run failure, so that the merged run reports every given test.
+ */
+public class ResumableTestRunner {
+
+    private static final String LOG_TAG = "ResumableTestRunner";
+
+    private static final char METHOD_SEPARATOR = '#';
+
+    static final String NOT_RUN_MSG = "Test was not run";
+
+    /**
+     * Listener forwarding the events of an instrumentation to the merged run, except its end,
+     * which is held until it is known whether the instrumentation will be resumed.
+     */
+    private static class LaunchListener implements ITestRunListener {
+        private final ITestRunListener mDelegate;
+        private final Set<String> mStartedTests = new LinkedHashSet<>();
+        private String mRunFailure = null;
+        private long mElapsedTime = 0;
+        private Map<String, String> mRunMetrics = new LinkedHashMap<>();
+
+        LaunchListener(ITestRunListener delegate) {
+            mDelegate = delegate;
+        }
+
+        @Override
+        public void testRunStarted(String runName, int testCount) {
+            mDelegate.testRunStarted(runName, testCount);
+        }
+
+        @Override
+        public void testStarted(TestIdentifier test) {
+            mStartedTests.add(test.getClassName() + METHOD_SEPARATOR + test.getTestName());
+            mDelegate.testStarted(test);
+        }
+
+        @Override
+        public void testFailed(TestIdentifier test, String trace) {
+            mDelegate.testFailed(test, trace);
+        }
+
+        @Override
+        public void testAssumptionFailure(TestIdentifier test, String trace) {
+            mDelegate.testAssumptionFailure(test, trace);
+        }
+
+        @Override
+        public void testIgnored(TestIdentifier test) {
+            mDelegate.testIgnored(test);
+        }
+
+        @Override
+        public void testEnded(TestIdentifier test, Map<String, String> testMetrics) {
+            mDelegate.testEnded(test, testMetrics);
+        }
+
+        @Override
+        public void testRunFailed(String errorMessage) {
+            mRunFailure = errorMessage;
+        }
+
+        @Override
+        public void testRunStopped(long elapsedTime) {
+            mDelegate.testRunStopped(elapsedTime);
+        }
+
+        @Override
+        public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+            mElapsedTime = elapsedTime;
+            mRunMetrics = runMetrics;
+        }
+
+        /** Reports the end of the instrumentation, and its failure if requested. */
+        void finish(boolean reportFailure) {
+            if (mRunFailure != null && reportFailure) {
+                mDelegate.testRunFailed(mRunFailure);
+            }
+            mDelegate.testRunEnded(mElapsedTime, mRunMetrics);
+        }
+    }
+
+    private final IShellEnabledDevice mDevice;
+    private final Function<IShellEnabledDevice, RemoteAndroidTestRunner> mRunnerFactory;
+
+    private String mRunName = null;
+    private int mMaxRelaunches = 10;
+    private int mMaxCommandLength = FailedTestRerunner.DEFAULT_MAX_COMMAND_LENGTH;
+    private int mLaunchCount = 0;
+
+    private volatile boolean mIsCancelled = false;
+    private volatile RemoteAndroidTestRunner mActiveRunner = null;
+
+    /**
+     * Creates the runner.
+     *
+     * @param device the device to run the tests on
+     * @param runnerFactory creates the runner for an instrumentation on the given device. The
+     *     runner must not be restricted to a class or method
+     */
+    public ResumableTestRunner(
+            @NonNull IShellEnabledDevice device,
+            @NonNull Function<IShellEnabledDevice, RemoteAndroidTestRunner> runnerFactory) {
+        mDevice = device;
+        mRunnerFactory = runnerFactory;
+    }
+
+    /**
+     * Set a custom run name to be reported to the {@link ITestRunListener} on {@link #run}.
+     *
+     * <p>If unspecified, will use the package name of the runner.
+     */
+    public void setRunName(String runName) {
+        mRunName = runName;
+    }
+
+    /** Sets how many times the instrumentation is relaunched after crashes. Defaults to 10. */
+    public void setMaxRelaunches(int maxRelaunches) {
+        mMaxRelaunches = maxRelaunches;
+    }
+
+    /**
+     * Sets the maximum length of an {@code am instrument} command, which limits the number of
+     * tests selected by a relaunched instrumentation. Defaults to 4000 characters.
+     */
+    public void setMaxCommandLength(int maxCommandLength) {
+        mMaxCommandLength = maxCommandLength;
+    }
+
+    /** Returns the number of instrumentations launched by the last run. */
+    public int getLaunchCount() {
+        return mLaunchCount;
+    }
+
+    /**
+     * Execute this test run.
+     *
+     * @see #run(List, Collection)
+     */
+    public void run(@NonNull List<TestIdentifier> tests, ITestRunListener... listeners)
+            throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
+                    IOException {
+        run(tests, Arrays.asList(listeners));
+    }
+
+    /**
+     * Runs the given tests, relaunching the instrumentation after crashes, and waits for all of
+     * them to finish.
+     *
+     * <p>The listeners are always informed of the end of the run, even when an instrumentation
+     * fails with an exception, in which case no further instrumentation is launched.
+     *
+     * @param tests the tests run by the runner, in run order
+     * @param listeners collection of listeners for the merged test results
+     * @throws TimeoutException in case of a timeout on the connection to the device.
+     * @throws AdbCommandRejectedException if adb rejects the command
+     * @throws ShellCommandUnresponsiveException if the device did not output any test result for
+     *     a period longer than the max time to output.
+     * @throws IOException if connection to the device was lost.
+     */
+    public void run(@NonNull List<TestIdentifier> tests,
+            @NonNull Collection<ITestRunListener> listeners)
+            throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
+                    IOException {
+        mIsCancelled = false;
+        mLaunchCount = 0;
+        // Remaining tests by class, in run order.
+        Map<String, Set<String>> remaining = new LinkedHashMap<>();
+        for (TestIdentifier test : tests) {
+            remaining.computeIfAbsent(test.getClassName(), key -> new LinkedHashSet<>())
+                    .add(test.getClassName() + METHOD_SEPARATOR + test.getTestName());
+        }
+        Map<String, Integer> classSizes = new LinkedHashMap<>();
+        remaining.forEach((className, methods) -> classSizes.put(className, methods.size()));
+
+        String runName = mRunName;
+        if (runName == null) {
+            runName = mRunnerFactory.apply(mDevice).getPackageName();
+        }
+        MergingTestRunListener merger = new MergingTestRunListener(runName, listeners);
+        merger.startRun(tests.size());
+        try {
+            List<String> selection = null;
+            int crashCount = 0;
+            while (!mIsCancelled) {
+                RemoteAndroidTestRunner runner = mRunnerFactory.apply(mDevice);
+                if (selection != null) {
+                    WorkStealingTestScheduler.selectTests(runner, selection);
+                }
+                LaunchListener listener = new LaunchListener(merger.createChildListener(
+                        String.format("Launch %1$d on %2$s", mLaunchCount, mDevice.getName())));
+                mLaunchCount++;
+                mActiveRunner = runner;
+                try {
+                    runner.run(listener);
+                } catch (TimeoutException | AdbCommandRejectedException
+                        | ShellCommandUnresponsiveException | IOException | RuntimeException e) {
+                    listener.finish(true);
+                    removeTests(remaining, listener.mStartedTests);
+                    reportTestsNotRun(getTests(remaining), merger);
+                    throw e;
+                } finally {
+                    mActiveRunner = null;
+                }
+
+                boolean crashed = listener.mRunFailure != null;
+                Set<String> notRun = new LinkedHashSet<>();
+                if (crashed) {
+                    crashCount++;
+                    removeTests(remaining, listener.mStartedTests);
+                } else {
+                    // Tests of the instrumentation which were not reported will not be reported
+                    // later.
+                    Set<String> selected =
+                            selection != null ? expand(selection, remaining) : getTests(remaining);
+                    removeTests(remaining, selected);
+                    selected.removeAll(listener.mStartedTests);
+                    notRun.addAll(selected);
+                }
+                boolean resume = crashed && !remaining.isEmpty()
+                        && !listener.mStartedTests.isEmpty()
+                        && crashCount <= mMaxRelaunches && !mIsCancelled;
+                boolean failed = crashed && !resume
+                        && (!remaining.isEmpty() || listener.mStartedTests.isEmpty());
+                if (crashed && !failed) {
+                    Log.w(LOG_TAG, String.format("Instrumentation of %1$s failed: %2$s",
+                            runName, listener.mRunFailure));
+                }
+                listener.finish(failed);
+                if (crashed && !resume) {
+                    reportTestsNotRun(getTests(remaining), merger);
+                    break;
+                }
+                reportTestsNotRun(notRun, merger);
+                if (remaining.isEmpty()) {
+                    break;
+                }
+                selection = FailedTestRerunner.packBatches(getSelection(remaining, classSizes),
+                        mRunnerFactory.apply(mDevice), mMaxCommandLength).get(0);
+            }
+        } finally {
+            merger.endRun();
+        }
+    }
+
+    /** Returns the class argument entries selecting the remaining tests. */
+    private static List<String> getSelection(
+            Map<String, Set<String>> remaining, Map<String, Integer> classSizes) {
+        List<String> selection = new ArrayList<>();
+        for (Map.Entry<String, Set<String>> entry : remaining.entrySet()) {
+            if (entry.getValue().size() == classSizes.get(entry.getKey())) {
+                selection.add(entry.getKey());
+            } else {
+                selection.addAll(entry.getValue());
+            }
+        }
+        return selection;
+    }
+
+    /** Returns the tests selected by the given class argument entries. */
+    private static Set<String> expand(List<String> selection, Map<String, Set<String>> remaining) {
+        Set<String> tests = new LinkedHashSet<>();
+        for (String entry : selection) {
+            if (entry.indexOf(METHOD_SEPARATOR) > 0) {
+                tests.add(entry);
+            } else if (remaining.containsKey(entry)) {
+                tests.addAll(remaining.get(entry));
+            }
+        }
+        return tests;
+    }
+
+    /** Returns the remaining tests as {@code className#methodName}, in run order. */
+    private static Set<String> getTests(Map<String, Set<String>> remaining) {
+        Set<String> tests = new LinkedHashSet<>();
+        remaining.values().forEach(tests::addAll);
+        return tests;
+    }
+
+    private static void removeTests(Map<String, Set<String>> remaining, Set<String> tests) {
+        for (String test : tests) {
+            String className = test.substring(0, test.indexOf(METHOD_SEPARATOR));
+            Set<String> methods = remaining.get(className);
+            if (methods != null) {
+                methods.remove(test);
+                if (methods.isEmpty()) {
+                    remaining.remove(className);
+                }
+            }
+        }
+    }
+
+    /** Reports the given tests, as {@code className#methodName}, as failed without being run. */
+    private static void reportTestsNotRun(Set<String> tests, MergingTestRunListener merger) {
+        if (tests.isEmpty()) {
+            return;
+        }
+        ITestRunListener listener = merger.createChildListener("Resume");
+        for (String test : tests) {
+            int separator = test.indexOf(METHOD_SEPARATOR);
+            TestIdentifier testId = new TestIdentifier(
+                    test.substring(0, separator), test.substring(separator + 1));
+            listener.testStarted(testId);
+            listener.testFailed(testId, NOT_RUN_MSG);
+            listener.testEnded(testId, new LinkedHashMap<>());
+        }
+        listener.testRunFailed(String.format("%1$d tests were not run: %2$s",
+                tests.size(), String.join(", ", tests)));
+        listener.testRunEnded(0, new LinkedHashMap<>());
+    }
+
+    /**
+     * Requests cancellation of this test run. The running instrumentation is cancelled and no
+     * further instrumentation is launched.
+     */
+    public void cancel() {
+        mIsCancelled = true;
+        RemoteAndroidTestRunner runner = mActiveRunner;
+        if (runner != null) {
+            runner.cancel();
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.AdbCommandRejectedException;
+import com.android.ddmlib.IShellEnabledDevice;
+import com.android.ddmlib.Log;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.TimeoutException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import org.jspecify.annotations.NonNull;
+
+/**
+ * Runs an Android test command split into shards, one shard per device, with all the shards
+ * running concurrently.
+ *
+ * <p>Each device gets its own {@link RemoteAndroidTestRunner}, created by the given factory, with
+ * the {@code numShards} and {@code shardIndex} instrumentation arguments added. The events of all
+ * the shards are merged with a {@link MergingTestRunListener} into a single test run, reported to
+ * the listeners once every shard has started. The results of each shard are also available
+ * separately from {@link #getShardResults()}.
+ */
+public class ShardedRemoteAndroidTestRunner {
+
+    private static final String LOG_TAG = "ShardedAndroidTest";
+
+    static final String NUM_SHARDS_ARG_NAME = "numShards";
+    static final String SHARD_INDEX_ARG_NAME = "shardIndex";
+
+    private final List<IShellEnabledDevice> mDevices;
+    private final Function<IShellEnabledDevice, RemoteAndroidTestRunner> mRunnerFactory;
+
+    private String mRunName = null;
+    private ExecutorService mExecutor = null;
+
+    private final List<RemoteAndroidTestRunner> mShardRunners = new ArrayList<>();
+    private final List<TestRunResult> mShardResults = new ArrayList<>();
+
+    /**
+     * Creates a sharded test runner.
+     *
+     * @param devices the devices to run the shards on, one shard per device
+     * @param runnerFactory creates the runner for a shard on the given device. All the runners
+     *     should be configured the same way, and must not set the shard arguments themselves
+     */
+    public ShardedRemoteAndroidTestRunner(
+            @NonNull List<? extends IShellEnabledDevice> devices,
+            @NonNull Function<IShellEnabledDevice, RemoteAndroidTestRunner> runnerFactory) {
+        if (devices.isEmpty()) {
+            throw new IllegalArgumentException("at least one device is required");
+        }
+        mDevices = new ArrayList<>(devices);
+        mRunnerFactory = runnerFactory;
+    }
+
+    /**
+     * Set a custom run name to be reported to the {@link ITestRunListener} on {@link #run}.
+     *
+     * <p>If unspecified, will use the package name of the first shard runner.
+     */
+    public void setRunName(String runName) {
+        mRunName = runName;
+    }
+
+    /**
+     * Sets the executor used to run the shards. If unspecified, a thread is started for each
+     * shard. The executor is not shut down by this runner.
+     */
+    public void setExecutor(ExecutorService executor) {
+        mExecutor = executor;
+    }
+
+    /** Returns the devices, in shard index order. */
+    @NonNull
+    public List<IShellEnabledDevice> getDevices() {
+        return Collections.unmodifiableList(mDevices);
+    }
+
+    /**
+     * Returns the results of each shard of the last run, in shard index order.
+     */
+    @NonNull
+    public List<TestRunResult> getShardResults() {
+        return Collections.unmodifiableList(mShardResults);
+    }
+
+    /**
+     * Execute this sharded test run.
+     *
+     * @see #run(Collection)
+     */
+    public void run(ITestRunListener... listeners)
+            throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
+                    IOException {
+        run(Arrays.asList(listeners));
+    }
+
+    /**
+     * Execute this sharded test run, and wait for all the shards to finish.
+     *
+     * <p>The listeners are always informed of the end of the run, even when some shards fail. If
+     * several shards fail with an exception, the first one is thrown with the others suppressed.
+     *
+     * @param listeners collection of listeners for the merged test results
+     * @throws TimeoutException in case of a timeout on the connection to a device.
+     * @throws AdbCommandRejectedException if adb rejects the command on a device
+     * @throws ShellCommandUnresponsiveException if a device did not output any test result for a
+     *     period longer than the max time to output.
+     * @throws IOException if connection to a device was lost.
+     */
+    public void run(Collection<ITestRunListener> listeners)
+            throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
+                    IOException {
+        int numShards = mDevices.size();
+        synchronized (mShardRunners) {
+            mShardRunners.clear();
+            mShardResults.clear();
+            for (int i = 0; i < numShards; i++) {
+                RemoteAndroidTestRunner runner = mRunnerFactory.apply(mDevices.get(i));
+                runner.addInstrumentationArg(NUM_SHARDS_ARG_NAME, Integer.toString(numShards));
+                runner.addInstrumentationArg(SHARD_INDEX_ARG_NAME, Integer.toString(i));
+                mShardRunners.add(runner);
+                mShardResults.add(new TestRunResult());
+            }
+        }
+        String runName = mRunName == null ? mShardRunners.get(0).getPackageName() : mRunName;
+        MergingTestRunListener merger = new MergingTestRunListener(runName, listeners);
+        merger.setExpectedChildRuns(numShards);
+
+        ExecutorService executor =
+                mExecutor != null ? mExecutor : Executors.newFixedThreadPool(numShards);
+        List<Future<?>> futures = new ArrayList<>(numShards);
+        try {
+            for (int i = 0; i < numShards; i++) {
+                RemoteAndroidTestRunner runner = mShardRunners.get(i);
+                ITestRunListener shardListener =
+                        merger.createChildListener(
+                                String.format("Shard %1$d on %2$s", i, mDevices.get(i).getName()));
+                TestRunResult shardResult = mShardResults.get(i);
+                futures.add(executor.submit(() -> {
+                    runner.run(shardListener, shardResult);
+                    return null;
+                }));
+            }
+            Exception failure = null;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Exception cause =
+                            e.getCause() instanceof Exception
+                                    ? (Exception) e.getCause()
+                                    : new IOException(e.getCause());
+                    if (failure == null) {
+                        failure = cause;
+                    } else {
+                        failure.addSuppressed(cause);
+                    }
+                }
+            }
+            merger.endRun();
+            if (failure != null) {
+                rethrow(failure);
+            }
+        } catch (InterruptedException e) {
+            Log.w(LOG_TAG, "Interrupted while waiting for shards of " + runName);
+            cancel();
+            Thread.currentThread().interrupt();
+            merger.endRun();
+            throw new InterruptedIOException("Interrupted while waiting for shards");
+        } finally {
+            if (executor != mExecutor) {
+                executor.shutdown();
+            }
+        }
+    }
+
+    /** Rethrows an exception thrown by {@link RemoteAndroidTestRunner#run}. */
+    static void rethrow(Exception e)
+            throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
+                    IOException {
+        if (e instanceof TimeoutException) {
+            throw (TimeoutException) e;
+        } else if (e instanceof AdbCommandRejectedException) {
+            throw (AdbCommandRejectedException) e;
+        } else if (e instanceof ShellCommandUnresponsiveException) {
+            throw (ShellCommandUnresponsiveException) e;
+        } else if (e instanceof IOException) {
+            throw (IOException) e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        throw new IOException(e);
+    }
+
+    /**
+     * Requests cancellation of all the shards of this test run.
+     */
+    public void cancel() {
+        synchronized (mShardRunners) {
+            for (RemoteAndroidTestRunner runner : mShardRunners) {
+                runner.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,513 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.IShellEnabledDevice;
+import com.android.ddmlib.IShellOutputReceiver;
+import com.android.ddmlib.Log;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.TimeoutException;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.jspecify.annotations.NonNull;
+
+/**
+ * An {@link IShellEnabledDevice} answering {@code am instrument} commands without a device, to
+ * exercise the whole host side of a test run: sharding, timeouts, parsing and listeners.
+ *
+ * <p>The device either replays a {@link Recording} of a real run with its original timing, or
+ * synthesizes the output of the tests given to {@link #setTests}. Synthesized runs honor the
+ * {@code class} argument, with class names and {@code className#methodName} entries, the {@code
+ * numShards} and {@code shardIndex} arguments, and the {@code log} argument which reports the
+ * tests without running them. A shard gets the tests whose index modulo {@code numShards} is
+ * {@code shardIndex}. Failures, crashes, stalls and output split in the middle of lines can be
+ * simulated as well.
+ *
+ * <p>Like a real device, the simulator throws {@link ShellCommandUnresponsiveException} and
+ * {@link TimeoutException} when the output stalls or the command lasts longer than allowed, and
+ * stops when the receiver is cancelled.
+ */
+public class SimulatedInstrumentationDevice implements IShellEnabledDevice {
+
+    private static final String LOG_TAG = "SimulatedDevice";
+
+    private static final String AM_INSTRUMENT = "am instrument";
+    private static final Pattern ARG_PATTERN = Pattern.compile("-e (\\S+) ('[^']*'|\\S+)");
+    private static final String CLASS_ARG_NAME = "class";
+    private static final String LOG_ARG_NAME = "log";
+    private static final char CLASS_SEPARATOR = ',';
+    private static final char METHOD_SEPARATOR = '#';
+
+    /** Longest sleep between two checks of the receiver cancellation. */
+    private static final long POLL_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * Output of a shell command with the time at which each chunk was received, which can be
+     * replayed by the simulator.
+     */
+    public static class Recording {
+        private final List<Long> mOffsetsMs = new ArrayList<>();
+        private final List<byte[]> mChunks = new ArrayList<>();
+
+        /**
+         * Adds a chunk of output.
+         *
+         * @param offsetMs the time the chunk was received, from the start of the command
+         */
+        public synchronized void addChunk(long offsetMs, @NonNull byte[] data) {
+            mOffsetsMs.add(offsetMs);
+            mChunks.add(data.clone());
+        }
+
+        /**
+         * Returns a receiver which records the output it receives before forwarding it to the
+         * given receiver. Offsets are counted from the creation of the receiver.
+         */
+        @NonNull
+        public IShellOutputReceiver record(@NonNull IShellOutputReceiver receiver) {
+            long start = System.nanoTime();
+            return new IShellOutputReceiver() {
+                @Override
+                public void addOutput(byte[] data, int offset, int length) {
+                    byte[] chunk = new byte[length];
+                    System.arraycopy(data, offset, chunk, 0, length);
+                    addChunk(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), chunk);
+                    receiver.addOutput(data, offset, length);
+                }
+
+                @Override
+                public void flush() {
+                    receiver.flush();
+                }
+
+                @Override
+                public boolean isCancelled() {
+                    return receiver.isCancelled();
+                }
+            };
+        }
+
+        /** Writes this recording to a stream, in a format read by {@link #read}. */
+        public synchronized void write(@NonNull OutputStream stream) throws IOException {
+            DataOutputStream output = new DataOutputStream(stream);
+            for (int i = 0; i < mChunks.size(); i++) {
+                output.writeLong(mOffsetsMs.get(i));
+                output.writeInt(mChunks.get(i).length);
+                output.write(mChunks.get(i));
+            }
+            output.flush();
+        }
+
+        /** Reads a recording written by {@link #write}. */
+        @NonNull
+        public static Recording read(@NonNull InputStream stream) throws IOException {
+            DataInputStream input = new DataInputStream(stream);
+            Recording recording = new Recording();
+            while (true) {
+                long offsetMs;
+                try {
+                    offsetMs = input.readLong();
+                } catch (EOFException e) {
+                    return recording;
+                }
+                byte[] data = new byte[input.readInt()];
+                input.readFully(data);
+                recording.mOffsetsMs.add(offsetMs);
+                recording.mChunks.add(data);
+            }
+        }
+    }
+
+    /** State of a single command, and the time limits it must respect. */
+    private class Invocation {
+        private final IShellOutputReceiver mReceiver;
+        private final long mStartNanos;
+        private final long mMaxTimeoutNanos;
+        private final long mMaxTimeToOutputNanos;
+        private final ByteArrayOutputStream mPending = new ByteArrayOutputStream();
+        private final Random mRandom;
+        private long mLastOutputNanos;
+
+        Invocation(IShellOutputReceiver receiver, long maxTimeout, long maxTimeToOutputResponse,
+                TimeUnit maxTimeUnits, long seed) {
+            mReceiver = receiver;
+            mStartNanos = System.nanoTime();
+            mLastOutputNanos = mStartNanos;
+            mMaxTimeoutNanos = maxTimeUnits.toNanos(maxTimeout);
+            mMaxTimeToOutputNanos = maxTimeUnits.toNanos(maxTimeToOutputResponse);
+            mRandom = new Random(seed);
+        }
+
+        void append(String output) {
+            byte[] bytes = output.getBytes(StandardCharsets.UTF_8);
+            mPending.write(bytes, 0, bytes.length);
+        }
+
+        /**
+         * Sends the pending output to the receiver, in random chunks if partial lines are
+         * simulated.
+         *
+         * @return false if the receiver was cancelled
+         */
+        boolean send() {
+            byte[] output = mPending.toByteArray();
+            mPending.reset();
+            return send(output);
+        }
+
+        boolean send(byte[] output) {
+            int offset = 0;
+            while (offset < output.length) {
+                if (mReceiver.isCancelled()) {
+                    return false;
+                }
+                int length = output.length - offset;
+                if (mMaxChunkSize > 0) {
+                    length = Math.min(length, 1 + mRandom.nextInt(mMaxChunkSize));
+                }
+                mReceiver.addOutput(output, offset, length);
+                offset += length;
+                mLastOutputNanos = System.nanoTime();
+            }
+            return !mReceiver.isCancelled();
+        }
+
+        /**
+         * Waits until the given time, like a device producing no output until then.
+         *
+         * @param targetNanos the {@link System#nanoTime()} to wait for
+         * @return false if the receiver was cancelled
+         */
+        boolean waitUntil(long targetNanos)
+                throws TimeoutException, ShellCommandUnresponsiveException, IOException {
+            while (true) {
+                if (mReceiver.isCancelled()) {
+                    return false;
+                }
+                long now = System.nanoTime();
+                if (now - targetNanos >= 0) {
+                    return true;
+                }
+                if (mMaxTimeoutNanos > 0 && now - mStartNanos >= mMaxTimeoutNanos) {
+                    throw new TimeoutException("Simulated command timed out");
+                }
+                if (mMaxTimeToOutputNanos > 0 && now - mLastOutputNanos >= mMaxTimeToOutputNanos) {
+                    throw new ShellCommandUnresponsiveException();
+                }
+                long sleepNanos = Math.min(targetNanos - now, POLL_INTERVAL_NANOS);
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while simulating output");
+                }
+            }
+        }
+    }
+
+    private final String mName;
+
+    private Recording mRecording = null;
+    private List<String> mTests = Collections.emptyList();
+    private final Set<String> mFailingTests = new HashSet<>();
+    private double mTestsPerSecond = 0;
+    private int mCrashAfter = -1;
+    private int mStallBefore = -1;
+    private long mStallMs = 0;
+    private int mMaxChunkSize = 0;
+    private double mSpeed = 1;
+
+    private final List<String> mCommands = Collections.synchronizedList(new ArrayList<>());
+    private int mInvocationCount = 0;
+
+    public SimulatedInstrumentationDevice(@NonNull String name) {
+        mName = name;
+    }
+
+    @Override
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Sets a recording to replay for every command. The arguments of the command are ignored.
+     */
+    public void setRecording(Recording recording) {
+        mRecording = recording;
+    }
+
+    /**
+     * Sets the tests available on the simulated device, used to synthesize the output when no
+     * recording is set.
+     *
+     * @param tests the tests as {@code className#methodName}, in run order
+     */
+    public void setTests(@NonNull List<String> tests) {
+        mTests = new ArrayList<>(tests);
+    }
+
+    /** Makes the given test, as {@code className#methodName}, fail. */
+    public void addFailingTest(@NonNull String test) {
+        mFailingTests.add(test);
+    }
+
+    /**
+     * Sets the number of tests completed per second. If unset, the output of synthesized runs is
+     * produced without delay.
+     */
+    public void setTestRate(double testsPerSecond) {
+        mTestsPerSecond = testsPerSecond;
+    }
+
+    /**
+     * Makes the instrumentation crash in the middle of a test, after the given number of tests
+     * completed. A negative value disables crashes.
+     */
+    public void setCrashAfter(int numTests) {
+        mCrashAfter = numTests;
+    }
+
+    /**
+     * Makes the output stall before the given test starts.
+     *
+     * @param testIndex the index of the test, among the tests of the command
+     * @param stallMs how long the output stalls, or a negative value to stall until the receiver
+     *     is cancelled or a time limit of the command is reached
+     */
+    public void setStall(int testIndex, long stallMs) {
+        mStallBefore = testIndex;
+        mStallMs = stallMs;
+    }
+
+    /**
+     * Splits the synthesized output into chunks of random size, from 1 to {@code maxChunkSize}
+     * bytes, which cut lines and characters in the middle. 0 disables splitting.
+     */
+    public void setMaxChunkSize(int maxChunkSize) {
+        mMaxChunkSize = maxChunkSize;
+    }
+
+    /**
+     * Sets the speed of replays and stalls relative to real time, e.g. 2 for twice as fast.
+     */
+    public void setSpeed(double speed) {
+        if (speed <= 0) {
+            throw new IllegalArgumentException("speed must be positive");
+        }
+        mSpeed = speed;
+    }
+
+    /** Returns the commands run on this device so far. */
+    @NonNull
+    public List<String> getCommands() {
+        synchronized (mCommands) {
+            return new ArrayList<>(mCommands);
+        }
+    }
+
+    @Override
+    public void executeShellCommand(String command, IShellOutputReceiver receiver,
+            long maxTimeToOutputResponse, TimeUnit maxTimeUnits)
+            throws TimeoutException, ShellCommandUnresponsiveException, IOException {
+        executeShellCommand(command, receiver, 0, maxTimeToOutputResponse, maxTimeUnits);
+    }
+
+    @Override
+    public void executeShellCommand(String command, IShellOutputReceiver receiver,
+            long maxTimeout, long maxTimeToOutputResponse, TimeUnit maxTimeUnits)
+            throws TimeoutException, ShellCommandUnresponsiveException, IOException {
+        if (!command.startsWith(AM_INSTRUMENT)) {
+            throw new IOException("Unsupported command: " + command);
+        }
+        long seed;
+        synchronized (mCommands) {
+            mCommands.add(command);
+            seed = mInvocationCount++;
+        }
+        Log.d(LOG_TAG, String.format("Simulating '%1$s' on %2$s", command, mName));
+        Invocation invocation = new Invocation(
+                receiver, maxTimeout, maxTimeToOutputResponse, maxTimeUnits, seed);
+        if (mRecording != null) {
+            replay(invocation);
+        } else {
+            synthesize(invocation, parseArgs(command));
+        }
+        // like adb, the receiver is only flushed at the end of a command which wasn't cancelled
+        if (!receiver.isCancelled()) {
+            receiver.flush();
+        }
+    }
+
+    private void replay(Invocation invocation)
+            throws TimeoutException, ShellCommandUnresponsiveException, IOException {
+        List<Long> offsets;
+        List<byte[]> chunks;
+        synchronized (mRecording) {
+            offsets = new ArrayList<>(mRecording.mOffsetsMs);
+            chunks = new ArrayList<>(mRecording.mChunks);
+        }
+        for (int i = 0; i < chunks.size(); i++) {
+            long target = invocation.mStartNanos + scale(offsets.get(i));
+            if (!invocation.waitUntil(target) || !invocation.send(chunks.get(i))) {
+                return;
+            }
+        }
+    }
+
+    private void synthesize(Invocation invocation, Map<String, String> args)
+            throws TimeoutException, ShellCommandUnresponsiveException, IOException {
+        List<String> tests = selectTests(args);
+        boolean logOnly = Boolean.parseBoolean(args.get(LOG_ARG_NAME));
+        long intervalNanos = logOnly || mTestsPerSecond <= 0
+                ? 0 : (long) (TimeUnit.SECONDS.toNanos(1) / mTestsPerSecond);
+        long nextNanos = invocation.mStartNanos;
+        int numTests = tests.size();
+        for (int i = 0; i < numTests; i++) {
+            String test = tests.get(i);
+            int separator = test.indexOf(METHOD_SEPARATOR);
+            String className = test.substring(0, separator);
+            String methodName = test.substring(separator + 1);
+            if (!logOnly && i == mStallBefore) {
+                if (!invocation.send()) {
+                    return;
+                }
+                if (mStallMs < 0) {
+                    while (invocation.waitUntil(System.nanoTime() + POLL_INTERVAL_NANOS)) {
+                        // stalled until cancelled or timed out
+                    }
+                    return;
+                }
+                if (!invocation.waitUntil(System.nanoTime() + scale(mStallMs))) {
+                    return;
+                }
+                nextNanos = System.nanoTime();
+            }
+            appendStatus(invocation, className, methodName, i + 1, numTests, 1, null);
+            if (!logOnly && i == mCrashAfter) {
+                invocation.append("INSTRUMENTATION_RESULT: shortMsg=Process crashed.\n");
+                invocation.append("INSTRUMENTATION_CODE: 0\n");
+                invocation.send();
+                return;
+            }
+            if (intervalNanos > 0) {
+                nextNanos += intervalNanos;
+                if (nextNanos - System.nanoTime() > POLL_INTERVAL_NANOS / 10) {
+                    if (!invocation.send() || !invocation.waitUntil(nextNanos)) {
+                        return;
+                    }
+                }
+            }
+            if (!logOnly && mFailingTests.contains(test)) {
+                appendStatus(invocation, className, methodName, i + 1, numTests, -2,
+                        "java.lang.AssertionError: simulated failure\n\tat "
+                                + className + "." + methodName + "(Simulated.java)\n");
+            } else {
+                appendStatus(invocation, className, methodName, i + 1, numTests, 0, null);
+            }
+        }
+        double seconds = (System.nanoTime() - invocation.mStartNanos) / 1e9;
+        invocation.append(String.format(
+                "INSTRUMENTATION_RESULT: stream=\n\nTime: %1$.3f\n\nOK (%2$d tests)\n\n\n",
+                seconds, numTests));
+        invocation.append("INSTRUMENTATION_CODE: -1\n");
+        invocation.send();
+    }
+
+    private static void appendStatus(Invocation invocation, String className, String methodName,
+            int current, int numTests, int code, String stack) {
+        StringBuilder status = new StringBuilder();
+        status.append("INSTRUMENTATION_STATUS: class=").append(className).append('\n');
+        status.append("INSTRUMENTATION_STATUS: current=").append(current).append('\n');
+        status.append("INSTRUMENTATION_STATUS: id=AndroidJUnitRunner\n");
+        status.append("INSTRUMENTATION_STATUS: numtests=").append(numTests).append('\n');
+        if (stack != null) {
+            status.append("INSTRUMENTATION_STATUS: stack=").append(stack);
+        }
+        status.append("INSTRUMENTATION_STATUS: stream=\n");
+        status.append("INSTRUMENTATION_STATUS: test=").append(methodName).append('\n');
+        status.append("INSTRUMENTATION_STATUS_CODE: ").append(code).append('\n');
+        invocation.append(status.toString());
+    }
+
+    /** Returns the tests selected by the class and shard arguments, in run order. */
+    private List<String> selectTests(Map<String, String> args) {
+        List<String> tests = mTests;
+        String classArg = args.get(CLASS_ARG_NAME);
+        if (classArg != null) {
+            Set<String> filters = new HashSet<>();
+            for (String filter : classArg.split(String.valueOf(CLASS_SEPARATOR))) {
+                filters.add(filter.trim());
+            }
+            List<String> selected = new ArrayList<>();
+            for (String test : tests) {
+                String className = test.substring(0, test.indexOf(METHOD_SEPARATOR));
+                if (filters.contains(test) || filters.contains(className)) {
+                    selected.add(test);
+                }
+            }
+            tests = selected;
+        }
+        String numShards = args.get(ShardedRemoteAndroidTestRunner.NUM_SHARDS_ARG_NAME);
+        String shardIndex = args.get(ShardedRemoteAndroidTestRunner.SHARD_INDEX_ARG_NAME);
+        if (numShards != null && shardIndex != null) {
+            int count = Integer.parseInt(numShards);
+            int index = Integer.parseInt(shardIndex);
+            List<String> shard = new ArrayList<>();
+            for (int i = index; i < tests.size(); i += count) {
+                shard.add(tests.get(i));
+            }
+            tests = shard;
+        }
+        return tests;
+    }
+
+    /** Parses the {@code -e name value} arguments of an {@code am instrument} command. */
+    static Map<String, String> parseArgs(String command) {
+        Map<String, String> args = new HashMap<>();
+        Matcher matcher = ARG_PATTERN.matcher(command);
+        while (matcher.find()) {
+            String value = matcher.group(2);
+            if (value.length() >= 2 && value.startsWith("'") && value.endsWith("'")) {
+                value = value.substring(1, value.length() - 1);
+            }
+            args.put(matcher.group(1), value);
+        }
+        return args;
+    }
+
+    private long scale(long durationMs) {
+        return (long) (TimeUnit.MILLISECONDS.toNanos(durationMs) / mSpeed);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import java.util.Arrays;
+
+/**
+ * A dictionary of canonical strings, looked up from a range of characters without creating a
+ * string, so values repeated in the output share a single instance.
+ *
+ * <p>Once the table holds its maximum number of strings, new values are returned as new strings
+ * without being added. This class is not thread safe.
+ */
+class StringTable {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int mMaxSize;
+    private String[] mStrings = new String[INITIAL_CAPACITY];
+    private int[] mHashes = new int[INITIAL_CAPACITY];
+    private int mSize = 0;
+
+    /**
+     * @param maxSize the maximum number of strings held by the table
+     */
+    StringTable(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /** Returns the canonical instance of the given string. */
+    String intern(String string) {
+        return intern(string, 0, string.length());
+    }
+
+    /** Returns the canonical instance of the given range of characters. */
+    String intern(CharSequence chars, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + chars.charAt(i);
+        }
+        int mask = mStrings.length - 1;
+        int index = mix(hash) & mask;
+        String string;
+        while ((string = mStrings[index]) != null) {
+            if (mHashes[index] == hash && matches(string, chars, start, end)) {
+                return string;
+            }
+            index = (index + 1) & mask;
+        }
+        string = chars.subSequence(start, end).toString();
+        if (mSize < mMaxSize) {
+            mStrings[index] = string;
+            mHashes[index] = hash;
+            // keep the table at most half full, so that probes stay short
+            if (++mSize * 2 > mStrings.length) {
+                grow();
+            }
+        }
+        return string;
+    }
+
+    /** Removes all the strings. */
+    void clear() {
+        Arrays.fill(mStrings, null);
+        mSize = 0;
+    }
+
+    /** Returns the number of strings in the table. */
+    int size() {
+        return mSize;
+    }
+
+    private static boolean matches(String string, CharSequence chars, int start, int end) {
+        if (string.length() != end - start) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (string.charAt(i - start) != chars.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Spreads the high bits of the hash over the low bits indexing the table. */
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private void grow() {
+        String[] strings = mStrings;
+        int[] hashes = mHashes;
+        mStrings = new String[strings.length * 2];
+        mHashes = new int[strings.length * 2];
+        int mask = mStrings.length - 1;
+        for (int i = 0; i < strings.length; i++) {
+            if (strings[i] != null) {
+                int index = mix(hashes[i]) & mask;
+                while (mStrings[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                mStrings[index] = strings[i];
+                mHashes[index] = hashes[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.AdbCommandRejectedException;
+import com.android.ddmlib.Log;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.TimeoutException;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.jspecify.annotations.NonNull;
+
+/**
+ * Caches the list of tests collected with {@link RemoteAndroidTestRunner#setTestCollection}, so
+ * that collection is only run again when the test APK or the runner arguments change.
+ *
+ * <p>Entries are keyed by the SHA-256 of the test APK content and the {@code am instrument}
+ * command of the runner, which holds the runner, its arguments and its filters. They are stored in
+ * the cache directory, one file per entry with a test per line. Concurrent requests for the same
+ * entry share a single collection, while different entries are collected in parallel.
+ */
+public class TestCollectionCache {
+
+    private static final String LOG_TAG = "TestCollectionCache";
+
+    private static final String ENTRY_SUFFIX = ".tests";
+    private static final char METHOD_SEPARATOR = '#';
+
+    private final File mCacheDir;
+
+    private final Map<String, CompletableFuture<List<TestIdentifier>>> mEntries =
+            new ConcurrentHashMap<>();
+    private final ApkHashes mApkHashes = new ApkHashes();
+
+    /**
+     * Creates a cache stored in the given directory, which is created if needed.
+     */
+    public TestCollectionCache(@NonNull File cacheDir) {
+        mCacheDir = cacheDir;
+    }
+
+    /**
+     * Returns the tests of the given APK selected by the runner, collecting them with the runner
+     * unless they are cached.
+     *
+     * <p>The runner is switched to test collection mode for the duration of the collection, and
+     * restored to its previous arguments and timeout afterwards.
+     *
+     * @param testApk the test APK installed on the device of the runner
+     * @param runner the runner, configured as for the actual run
+     * @return the tests, in run order
+     * @throws TimeoutException in case of a timeout on the connection to the device.
+     * @throws AdbCommandRejectedException if adb rejects the command
+     * @throws ShellCommandUnresponsiveException if the device did not output anything for a
+     *     period longer than the max time to output.
+     * @throws IOException if the APK can't be read, the cache can't be written, the connection to
+     *     the device was lost, or the collection failed.
+     */
+    @NonNull
+    public List<TestIdentifier> getTests(
+            @NonNull File testApk, @NonNull RemoteAndroidTestRunner runner)
+            throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
+                    IOException {
+        String key = getKey(testApk, runner);
+        CompletableFuture<List<TestIdentifier>> entry = new CompletableFuture<>();
+        CompletableFuture<List<TestIdentifier>> existing = mEntries.putIfAbsent(key, entry);
+        if (existing != null) {
+            return await(existing);
+        }
+        try {
+            List<TestIdentifier> tests = readEntry(key);
+            if (tests == null) {
+                tests = collect(runner);
+                writeEntry(key, tests);
+            }
+            entry.complete(Collections.unmodifiableList(tests));
+        } catch (Exception e) {
+            // Let the next request try again.
+            mEntries.remove(key, entry);
+            entry.completeExceptionally(e);
+        }
+        return await(entry);
+    }
+
+    /** Removes all the entries of this cache. */
+    public void clear() {
+        mEntries.clear();
+        File[] files = mCacheDir.listFiles((dir, name) -> name.endsWith(ENTRY_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    /** Returns the cache key of the given APK and runner. */
+    String getKey(File testApk, RemoteAndroidTestRunner runner) throws IOException {
+        MessageDigest digest = ApkHashes.newDigest();
+        digest.update(mApkHashes.getHash(testApk).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) '\n');
+        // the collection arguments are left out, so that the key doesn't depend on whether the
+        // runner is collecting
+        digest.update(runner.getAmInstrumentCommandWithoutCollectionArgs()
+                .getBytes(StandardCharsets.UTF_8));
+        return ApkHashes.toHex(digest.digest());
+    }
+
+    private static List<TestIdentifier> collect(RemoteAndroidTestRunner runner)
+            throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
+                    IOException {
+        TestRunResult result = new TestRunResult();
+        // setTestCollection(false) doesn't undo setTestCollection(true), it sets log to false and
+        // keeps the collection timeout, so the runner is restored from its previous state
+        String logOnly = runner.getInstrumentationArg(RemoteAndroidTestRunner.LOG_ARG_NAME);
+        String delay = runner.getInstrumentationArg(RemoteAndroidTestRunner.DELAY_MSEC_ARG_NAME);
+        long maxTimeToOutputResponseMs = runner.getMaxTimeToOutputResponseMs();
+        runner.setTestCollection(true);
+        try {
+            runner.run(result);
+        } finally {
+            restoreArg(runner, RemoteAndroidTestRunner.LOG_ARG_NAME, logOnly);
+            restoreArg(runner, RemoteAndroidTestRunner.DELAY_MSEC_ARG_NAME, delay);
+            runner.setMaxTimeToOutputResponse(maxTimeToOutputResponseMs, TimeUnit.MILLISECONDS);
+        }
+        if (result.isRunFailure()) {
+            throw new IOException("Test collection failed: " + result.getRunFailureMessage());
+        }
+        List<TestIdentifier> tests = new ArrayList<>();
+        for (TestIdentifier test : result.getTestResults().keySet()) {
+            tests.add(new TestIdentifier(test.getClassName(), test.getTestName()));
+        }
+        return tests;
+    }
+
+    private static void restoreArg(RemoteAndroidTestRunner runner, String name, String value) {
+        if (value != null) {
+            runner.addInstrumentationArg(name, value);
+        } else {
+            runner.removeInstrumentationArg(name);
+        }
+    }
+
+    private List<TestIdentifier> readEntry(String key) throws IOException {
+        File file = new File(mCacheDir, key + ENTRY_SUFFIX);
+        if (!file.isFile()) {
+            return null;
+        }
+        List<TestIdentifier> tests = new ArrayList<>();
+        try (BufferedReader reader =
+                Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.lastIndexOf(METHOD_SEPARATOR);
+                if (separator <= 0) {
+                    Log.w(LOG_TAG, String.format("Ignoring corrupted entry %1$s", file));
+                    return null;
+                }
+                tests.add(new TestIdentifier(
+                        line.substring(0, separator), line.substring(separator + 1)));
+            }
+        }
+        Log.d(LOG_TAG, String.format("Using %1$d cached tests from %2$s", tests.size(), file));
+        return tests;
+    }
+
+    private void writeEntry(String key, List<TestIdentifier> tests) throws IOException {
+        if (!mCacheDir.isDirectory() && !mCacheDir.mkdirs()) {
+            throw new IOException("Unable to create cache directory " + mCacheDir);
+        }
+        // Write to a temporary file first, so that readers never see a partial entry.
+        File temp = File.createTempFile(key, ".tmp", mCacheDir);
+        try {
+            try (BufferedWriter writer =
+                    Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+                for (TestIdentifier test : tests) {
+                    writer.write(test.getClassName());
+                    writer.write(METHOD_SEPARATOR);
+                    writer.write(test.getTestName());
+                    writer.newLine();
+                }
+            }
+            Files.move(temp.toPath(), new File(mCacheDir, key + ENTRY_SUFFIX).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    private static List<TestIdentifier> await(CompletableFuture<List<TestIdentifier>> entry)
+            throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
+                    IOException {
+        try {
+            return entry.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for test collection");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            ShardedRemoteAndroidTestRunner.rethrow(
+                    cause instanceof Exception ? (Exception) cause : new IOException(cause));
+            throw new IllegalStateException(cause);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.Log;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Flow;
+import org.jspecify.annotations.NonNull;
+
+/**
+ * Publishes the events of a test run to a {@link Flow.Subscriber}, as requested by the subscriber.
+ *
+ * <p>The publisher is given to the runner as a listener, e.g. with {@code runner.run(publisher)}.
+ * Events are kept in a bounded buffer until the subscriber requests them. When the buffer is full,
+ * the listener methods block, which blocks the parser and stops reading the output of the device
+ * until the subscriber catches up. A subscriber which never requests events therefore stalls the
+ * run, until the time limits of the runner are reached.
+ *
+ * <p>The publisher accepts a single subscriber, and a single run. The subscriber is completed
+ * after {@link ITestRunListener#testRunEnded}. Cancelling the subscription cancels the run, and
+ * the events reported after that are dropped. So does a failure of the publisher, such as the
+ * thread of the run being interrupted while waiting for the subscriber, which is signalled to the
+ * subscriber with {@link Flow.Subscriber#onError}.
+ */
+public class TestEventPublisher implements Flow.Publisher<TestRunEvent>, ITestRunListener {
+
+    private static final String LOG_TAG = "TestEventPublisher";
+
+    private static final int DEFAULT_CAPACITY = 256;
+
+    private final IRemoteAndroidTestRunner mRunner;
+    private final int mCapacity;
+    private final Queue<TestRunEvent> mBuffer = new ArrayDeque<>();
+
+    private Flow.Subscriber<? super TestRunEvent> mSubscriber = null;
+    private long mDemand = 0;
+    private boolean mIsDraining = false;
+    private boolean mIsEnded = false;
+    private boolean mIsCompleted = false;
+    private boolean mIsCancelled = false;
+    /** The failure to signal to the subscriber instead of the remaining events, if any. */
+    private Throwable mError = null;
+
+    /** The subscription of the subscriber. */
+    private final Flow.Subscription mSubscription = new Flow.Subscription() {
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("non-positive request: " + n));
+                return;
+            }
+            synchronized (TestEventPublisher.this) {
+                mDemand = mDemand + n < 0 ? Long.MAX_VALUE : mDemand + n;
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            TestEventPublisher.this.cancel();
+        }
+    };
+
+    /**
+     * Creates a publisher of the events of a run, with a buffer of 256 events.
+     *
+     * @param runner the runner, cancelled when the subscription is cancelled
+     */
+    public TestEventPublisher(@NonNull IRemoteAndroidTestRunner runner) {
+        this(runner, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a publisher of the events of a run.
+     *
+     * @param runner the runner, cancelled when the subscription is cancelled
+     * @param capacity the number of events buffered before the run is paused
+     */
+    public TestEventPublisher(@NonNull IRemoteAndroidTestRunner runner, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        mRunner = runner;
+        mCapacity = capacity;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super TestRunEvent> subscriber) {
+        synchronized (this) {
+            if (mSubscriber == null) {
+                mSubscriber = subscriber;
+                subscriber = null;
+            }
+        }
+        if (subscriber != null) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {}
+
+                @Override
+                public void cancel() {}
+            });
+            subscriber.onError(new IllegalStateException("only one subscriber is supported"));
+            return;
+        }
+        mSubscriber.onSubscribe(mSubscription);
+        drain();
+    }
+
+    @Override
+    public void testRunStarted(String runName, int testCount) {
+        publish(TestRunEvent.runStarted(runName, testCount));
+    }
+
+    @Override
+    public void testStarted(TestIdentifier test) {
+        publish(TestRunEvent.testEvent(TestRunEvent.Type.TEST_STARTED, test, null));
+    }
+
+    @Override
+    public void testFailed(TestIdentifier test, String trace) {
+        publish(TestRunEvent.testEvent(TestRunEvent.Type.TEST_FAILED, test, trace));
+    }
+
+    @Override
+    public void testAssumptionFailure(TestIdentifier test, String trace) {
+        publish(TestRunEvent.testEvent(TestRunEvent.Type.TEST_ASSUMPTION_FAILURE, test, trace));
+    }
+
+    @Override
+    public void testIgnored(TestIdentifier test) {
+        publish(TestRunEvent.testEvent(TestRunEvent.Type.TEST_IGNORED, test, null));
+    }
+
+    @Override
+    public void testEnded(TestIdentifier test, Map<String, String> testMetrics) {
+        publish(TestRunEvent.testEnded(test, testMetrics));
+    }
+
+    @Override
+    public void testRunFailed(String errorMessage) {
+        publish(TestRunEvent.runFailed(errorMessage));
+    }
+
+    @Override
+    public void testRunStopped(long elapsedTime) {
+        publish(TestRunEvent.runStopped(elapsedTime));
+    }
+
+    @Override
+    public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+        publish(TestRunEvent.runEnded(elapsedTime, runMetrics));
+    }
+
+    /** Buffers an event, waiting for room in the buffer, and delivers what is requested. */
+    private void publish(TestRunEvent event) {
+        boolean interrupted = false;
+        synchronized (this) {
+            while (mBuffer.size() >= mCapacity && !mIsCancelled && mError == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    interrupted = true;
+                    break;
+                }
+            }
+            if (!interrupted) {
+                if (mIsCancelled || mIsEnded || mError != null) {
+                    return;
+                }
+                mBuffer.add(event);
+                mIsEnded = event.getType() == TestRunEvent.Type.RUN_ENDED;
+            }
+        }
+        if (interrupted) {
+            Log.w(LOG_TAG, "Interrupted while waiting for the subscriber");
+            fail(new InterruptedException("Interrupted while waiting for the subscriber"));
+            return;
+        }
+        drain();
+    }
+
+    /**
+     * Delivers the buffered events to the subscriber while it has demand, or the failure of the
+     * publisher. Only one thread delivers at a time, so the subscriber is never called
+     * concurrently.
+     */
+    private void drain() {
+        synchronized (this) {
+            if (mIsDraining || mSubscriber == null) {
+                return;
+            }
+            mIsDraining = true;
+        }
+        while (true) {
+            TestRunEvent event = null;
+            Throwable error = null;
+            synchronized (this) {
+                if (mIsCancelled || mIsCompleted) {
+                    mIsDraining = false;
+                    return;
+                }
+                if (mError != null) {
+                    error = mError;
+                    mIsCompleted = true;
+                } else if (mDemand > 0 && !mBuffer.isEmpty()) {
+                    event = mBuffer.poll();
+                    mDemand--;
+                    notifyAll();
+                } else if (mBuffer.isEmpty() && mIsEnded) {
+                    mIsCompleted = true;
+                } else {
+                    mIsDraining = false;
+                    return;
+                }
+            }
+            try {
+                if (error != null) {
+                    mSubscriber.onError(error);
+                } else if (event != null) {
+                    mSubscriber.onNext(event);
+                } else {
+                    mSubscriber.onComplete();
+                }
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, e);
+                cancel();
+            }
+        }
+    }
+
+    /**
+     * Cancels the run and drops the buffered events, and has the error signalled to the
+     * subscriber by the delivering thread.
+     */
+    private void fail(Throwable error) {
+        synchronized (this) {
+            if (mIsCancelled || mIsCompleted || mError != null) {
+                return;
+            }
+            mError = error;
+            mBuffer.clear();
+            notifyAll();
+        }
+        mRunner.cancel();
+        drain();
+    }
+
+    private void cancel() {
+        synchronized (this) {
+            if (mIsCancelled || mIsCompleted) {
+                return;
+            }
+            mIsCancelled = true;
+            mBuffer.clear();
+            notifyAll();
+        }
+        mRunner.cancel();
+    }
+}
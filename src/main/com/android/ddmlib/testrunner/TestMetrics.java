@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import java.util.Map;
+import org.jspecify.annotations.NonNull;
+
+/**
+ * The metrics of a test, with the values that are numbers parsed once, as given to the {@link
+ * ITestMetricRunListener}s.
+ *
+ * <p>Metrics are accessed by index, in the order in which they were reported, or by key. The keys
+ * are shared by the tests of a run. Values such as {@code 5721.05} or {@code 42} are parsed without
+ * creating a string.
+ */
+public final class TestMetrics {
+
+    private static final byte TYPE_STRING = 0;
+    private static final byte TYPE_LONG = 1;
+    private static final byte TYPE_DOUBLE = 2;
+
+    /** Numbers with at most this many digits are exactly represented by a double. */
+    private static final int MAX_EXACT_DIGITS = 15;
+
+    private static final double[] POWERS_OF_TEN = new double[MAX_EXACT_DIGITS + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final MetricMap mMetrics;
+
+    private byte[] mTypes;
+    private long[] mLongs;
+    private double[] mDoubles;
+
+    TestMetrics(MetricMap metrics) {
+        mMetrics = metrics;
+    }
+
+    /** Returns the number of metrics. */
+    public int size() {
+        return mMetrics.reportedSize();
+    }
+
+    /** Returns the index of the metric with the given key, or -1 if the test didn't report it. */
+    public int indexOf(@NonNull String key) {
+        return mMetrics.indexOf(key);
+    }
+
+    /** Returns the key of the metric at the given index. */
+    @NonNull
+    public String getKey(int index) {
+        return mMetrics.keyAt(index);
+    }
+
+    /** Returns the value of the metric at the given index, as reported. */
+    @NonNull
+    public String getString(int index) {
+        return mMetrics.getValue(index);
+    }
+
+    /** Returns whether the value of the metric at the given index is a number. */
+    public boolean isNumber(int index) {
+        parse();
+        return mTypes[index] != TYPE_STRING;
+    }
+
+    /** Returns whether the value of the metric at the given index is an integer. */
+    public boolean isLong(int index) {
+        parse();
+        return mTypes[index] == TYPE_LONG;
+    }
+
+    /**
+     * Returns the value of the metric at the given index, rounded toward zero if not an integer,
+     * or 0 if not a number.
+     */
+    public long getLong(int index) {
+        parse();
+        return mLongs[index];
+    }
+
+    /** Returns the value of the metric at the given index, or {@code NaN} if not a number. */
+    public double getDouble(int index) {
+        parse();
+        return mDoubles[index];
+    }
+
+    /** Returns the value of the given metric, or the default value if not a number. */
+    public long getLong(@NonNull String key, long defaultValue) {
+        int index = indexOf(key);
+        return index >= 0 && isNumber(index) ? getLong(index) : defaultValue;
+    }
+
+    /** Returns the value of the given metric, or the default value if not a number. */
+    public double getDouble(@NonNull String key, double defaultValue) {
+        int index = indexOf(key);
+        return index >= 0 && isNumber(index) ? getDouble(index) : defaultValue;
+    }
+
+    /**
+     * Returns the metrics as strings, as given to {@link ITestRunListener#testEnded(TestIdentifier,
+     * Map)}. The map may be modified, which does not change the metrics accessed by index.
+     */
+    @NonNull
+    public Map<String, String> asMap() {
+        return mMetrics;
+    }
+
+    @Override
+    public String toString() {
+        return asMap().toString();
+    }
+
+    /** Parses the values of the metrics, if not already done. */
+    void parse() {
+        if (mTypes != null) {
+            return;
+        }
+        int size = size();
+        mLongs = new long[size];
+        mDoubles = new double[size];
+        byte[] types = new byte[size];
+        for (int i = 0; i < size; i++) {
+            types[i] = parseValue(i);
+        }
+        mTypes = types;
+    }
+
+    /**
+     * Parses the value at the given index, decimal numbers of a few digits directly from the
+     * characters, and other numbers from a string.
+     */
+    private byte parseValue(int index) {
+        char[] chars = mMetrics.charsAt(index);
+        int start = mMetrics.offsetAt(index);
+        int end = start + mMetrics.lengthAt(index);
+        while (start < end && chars[start] <= ' ') {
+            start++;
+        }
+        while (end > start && chars[end - 1] <= ' ') {
+            end--;
+        }
+        int i = start;
+        boolean negative = false;
+        if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+            negative = chars[i] == '-';
+            i++;
+        }
+        if (i == end || !(isDigit(chars[i]) || chars[i] == '.' || chars[i] == 'N'
+                || chars[i] == 'I')) {
+            mDoubles[index] = Double.NaN;
+            return TYPE_STRING;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; i < end; i++) {
+            char c = chars[i];
+            if (isDigit(c) && digits < MAX_EXACT_DIGITS) {
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                return parseValue(index, new String(chars, start, end - start));
+            }
+        }
+        if (digits == 0) {
+            mDoubles[index] = Double.NaN;
+            return TYPE_STRING;
+        }
+        if (negative) {
+            mantissa = -mantissa;
+        }
+        if (fractionDigits < 0) {
+            mLongs[index] = mantissa;
+            mDoubles[index] = mantissa;
+            return TYPE_LONG;
+        }
+        // both numbers are exact, so the division is correctly rounded
+        double value = mantissa / POWERS_OF_TEN[fractionDigits];
+        mLongs[index] = (long) value;
+        mDoubles[index] = negative && mantissa == 0 ? -0.0 : value;
+        return TYPE_DOUBLE;
+    }
+
+    private byte parseValue(int index, String value) {
+        try {
+            long longValue = Long.parseLong(value);
+            mLongs[index] = longValue;
+            mDoubles[index] = longValue;
+            return TYPE_LONG;
+        } catch (NumberFormatException e) {
+            // not an integer
+        }
+        try {
+            double doubleValue = Double.parseDouble(value);
+            mLongs[index] = (long) doubleValue;
+            mDoubles[index] = doubleValue;
+            return TYPE_DOUBLE;
+        } catch (NumberFormatException e) {
+            mDoubles[index] = Double.NaN;
+            return TYPE_STRING;
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
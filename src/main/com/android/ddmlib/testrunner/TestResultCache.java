@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.AdbCommandRejectedException;
+import com.android.ddmlib.IShellEnabledDevice;
+import com.android.ddmlib.Log;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.TimeoutException;
+import com.android.ddmlib.testrunner.TestResult.TestStatus;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import org.jspecify.annotations.NonNull;
+
+/**
+ * Skips the tests which passed before with the same inputs, and replays their results.
+ *
+ * <p>Entries are keyed by the SHA-256 of the content of the test and app APKs and of the {@code
+ * am instrument} command of the runner, which holds the runner and its arguments. Each entry holds
+ * the tests which passed with these inputs and their durations. Only the other tests are run, and
+ * the cached tests are reported to the listeners as passed, with the {@link #CACHED_METRIC} and
+ * {@link #CACHED_DURATION_METRIC} test metrics, so reports stay complete.
+ *
+ * <p>Entries are stored in the cache directory, one file per entry with a test per line. The
+ * least recently used entries are deleted when there are more than {@link #setMaxEntries(int) the
+ * maximum number of entries}.
+ */
+public class TestResultCache {
+
+    private static final String LOG_TAG = "TestResultCache";
+
+    /** Test metric set to {@code true} on the tests replayed from the cache. */
+    public static final String CACHED_METRIC = "cached";
+
+    /** Test metric holding the duration in ms of the cached run of a replayed test. */
+    public static final String CACHED_DURATION_METRIC = "cached_duration_ms";
+
+    private static final String ENTRY_SUFFIX = ".results";
+    private static final char METHOD_SEPARATOR = '#';
+    private static final char DURATION_SEPARATOR = '\t';
+
+    private final File mCacheDir;
+    private final ApkHashes mApkHashes = new ApkHashes();
+
+    private int mMaxEntries = 64;
+    private int mMaxCommandLength = FailedTestRerunner.DEFAULT_MAX_COMMAND_LENGTH;
+
+    /**
+     * Creates a cache stored in the given directory, which is created if needed.
+     */
+    public TestResultCache(@NonNull File cacheDir) {
+        mCacheDir = cacheDir;
+    }
+
+    /** Sets the maximum number of entries kept in the cache directory. Defaults to 64. */
+    public void setMaxEntries(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        mMaxEntries = maxEntries;
+    }
+
+    /**
+     * Sets the maximum length of an {@code am instrument} command, which limits the number of
+     * tests selected by a single instrumentation. Defaults to 4000 characters.
+     */
+    public void setMaxCommandLength(int maxCommandLength) {
+        mMaxCommandLength = maxCommandLength;
+    }
+
+    /**
+     * Runs the given tests which are not cached, replays the cached ones, and records the tests
+     * which pass.
+     *
+     * <p>The cached tests are reported first, then the other tests are run with a {@link
+     * WorkStealingTestScheduler} on the given devices, all as a single test run.
+     *
+     * @param devices the devices to run the tests on
+     * @param runnerFactory creates the runner for an instrumentation on the given device. The
+     *     runner must not be restricted to a class or method
+     * @param apks the test APK and the APKs of the apps under test
+     * @param tests the tests to run
+     * @param listeners collection of listeners for the test results
+     * @throws TimeoutException in case of a timeout on the connection to a device.
+     * @throws AdbCommandRejectedException if adb rejects the command on a device
+     * @throws ShellCommandUnresponsiveException if a device did not output any test result for a
+     *     period longer than the max time to output.
+     * @throws IOException if an APK can't be read, the connection to a device was lost. Failing
+     *     to write the cache entry is only logged.
+     */
+    public void run(
+            @NonNull List<? extends IShellEnabledDevice> devices,
+            @NonNull Function<IShellEnabledDevice, RemoteAndroidTestRunner> runnerFactory,
+            @NonNull List<File> apks,
+            @NonNull List<TestIdentifier> tests,
+            @NonNull Collection<ITestRunListener> listeners)
+            throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
+                    IOException {
+        RemoteAndroidTestRunner baseRunner = runnerFactory.apply(devices.get(0));
+        String key = getKey(apks, baseRunner);
+        Map<String, Long> passed = readEntry(key);
+
+        List<TestIdentifier> cachedTests = new ArrayList<>();
+        List<String> remainingTests = new ArrayList<>();
+        for (TestIdentifier test : tests) {
+            if (passed.containsKey(getName(test))) {
+                cachedTests.add(test);
+            } else {
+                remainingTests.add(getName(test));
+            }
+        }
+        Log.i(LOG_TAG, String.format("Replaying %1$d cached tests, running %2$d tests",
+                cachedTests.size(), remainingTests.size()));
+
+        MergingTestRunListener merger =
+                new MergingTestRunListener(baseRunner.getPackageName(), listeners);
+        merger.startRun(tests.size());
+        try {
+            replay(cachedTests, passed, merger.createChildListener("Cache"));
+            if (!remainingTests.isEmpty()) {
+                TestRunResult result = new TestRunResult();
+                try {
+                    WorkStealingTestScheduler scheduler =
+                            new WorkStealingTestScheduler(devices, runnerFactory);
+                    scheduler.setRunName(baseRunner.getPackageName());
+                    scheduler.runBatches(
+                            FailedTestRerunner.packBatches(
+                                    remainingTests, baseRunner, mMaxCommandLength),
+                            Arrays.asList(merger.createChildListener("Run"), result));
+                } finally {
+                    // record the tests which passed, even if a device failed
+                    addPassedTests(result, passed);
+                    try {
+                        writeEntry(key, passed);
+                    } catch (IOException e) {
+                        // don't hide the failure of the run, the cache only saves time
+                        Log.e(LOG_TAG, String.format("Unable to write cache entry %1$s: %2$s",
+                                key, e.getMessage()));
+                    }
+                }
+            }
+        } finally {
+            merger.endRun();
+        }
+    }
+
+    /** Removes all the entries of this cache. */
+    public void clear() {
+        File[] files = mCacheDir.listFiles((dir, name) -> name.endsWith(ENTRY_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    /** Returns the cache key of the given APKs and runner. */
+    String getKey(List<File> apks, RemoteAndroidTestRunner runner) throws IOException {
+        MessageDigest digest = ApkHashes.newDigest();
+        for (File apk : apks) {
+            digest.update(mApkHashes.getHash(apk).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+        }
+        digest.update(runner.getAmInstrumentCommand().getBytes(StandardCharsets.UTF_8));
+        return ApkHashes.toHex(digest.digest());
+    }
+
+    private static String getName(TestIdentifier test) {
+        return test.getClassName() + METHOD_SEPARATOR + test.getTestName();
+    }
+
+    private static void replay(
+            List<TestIdentifier> tests, Map<String, Long> passed, ITestRunListener listener) {
+        listener.testRunStarted("Cache", tests.size());
+        for (TestIdentifier test : tests) {
+            Map<String, String> metrics = new HashMap<>();
+            metrics.put(CACHED_METRIC, Boolean.TRUE.toString());
+            metrics.put(CACHED_DURATION_METRIC, Long.toString(passed.get(getName(test))));
+            listener.testStarted(test);
+            listener.testEnded(test, metrics);
+        }
+        listener.testRunEnded(0, new HashMap<>());
+    }
+
+    private static void addPassedTests(TestRunResult result, Map<String, Long> passed) {
+        for (Map.Entry<TestIdentifier, TestResult> entry : result.getTestResults().entrySet()) {
+            TestResult testResult = entry.getValue();
+            if (testResult.getStatus() == TestStatus.PASSED) {
+                passed.put(getName(entry.getKey()),
+                        testResult.getEndTime() - testResult.getStartTime());
+            }
+        }
+    }
+
+    /** Returns the durations of the passed tests of the entry, by {@code className#methodName}. */
+    private Map<String, Long> readEntry(String key) throws IOException {
+        Map<String, Long> passed = new LinkedHashMap<>();
+        File file = new File(mCacheDir, key + ENTRY_SUFFIX);
+        if (!file.isFile()) {
+            return passed;
+        }
+        try (BufferedReader reader =
+                Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.lastIndexOf(DURATION_SEPARATOR);
+                try {
+                    passed.put(line.substring(0, separator),
+                            Long.parseLong(line.substring(separator + 1)));
+                } catch (IndexOutOfBoundsException | NumberFormatException e) {
+                    Log.w(LOG_TAG, String.format("Ignoring corrupted entry %1$s", file));
+                    passed.clear();
+                    return passed;
+                }
+            }
+        }
+        // mark the entry as recently used
+        file.setLastModified(System.currentTimeMillis());
+        return passed;
+    }
+
+    private void writeEntry(String key, Map<String, Long> passed) throws IOException {
+        if (!mCacheDir.isDirectory() && !mCacheDir.mkdirs()) {
+            throw new IOException("Unable to create cache directory " + mCacheDir);
+        }
+        // Write to a temporary file first, so that readers never see a partial entry.
+        File temp = File.createTempFile(key, ".tmp", mCacheDir);
+        try {
+            try (BufferedWriter writer =
+                    Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Long> entry : passed.entrySet()) {
+                    writer.write(entry.getKey());
+                    writer.write(DURATION_SEPARATOR);
+                    writer.write(Long.toString(entry.getValue()));
+                    writer.newLine();
+                }
+            }
+            Files.move(temp.toPath(), new File(mCacheDir, key + ENTRY_SUFFIX).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temp.delete();
+        }
+        evict();
+    }
+
+    /** Deletes the least recently used entries beyond the maximum number of entries. */
+    private void evict() {
+        File[] files = mCacheDir.listFiles((dir, name) -> name.endsWith(ENTRY_SUFFIX));
+        if (files == null || files.length <= mMaxEntries) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified).reversed());
+        for (int i = mMaxEntries; i < files.length; i++) {
+            Log.d(LOG_TAG, String.format("Evicting %1$s", files[i]));
+            files[i].delete();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import java.util.Map;
+import org.jspecify.annotations.NonNull;
+
+/**
+ * An event of a test run, as reported to an {@link ITestRunListener}.
+ *
+ * <p>Only the fields of the type of the event are set, the others are null or 0.
+ */
+public class TestRunEvent {
+
+    /** The {@link ITestRunListener} method reporting an event. */
+    public enum Type {
+        RUN_STARTED,
+        TEST_STARTED,
+        TEST_FAILED,
+        TEST_ASSUMPTION_FAILURE,
+        TEST_IGNORED,
+        TEST_ENDED,
+        RUN_FAILED,
+        RUN_STOPPED,
+        RUN_ENDED,
+    }
+
+    private final Type mType;
+    private final String mRunName;
+    private final int mTestCount;
+    private final TestIdentifier mTest;
+    private final String mMessage;
+    private final long mElapsedTime;
+    private final Map<String, String> mMetrics;
+
+    private TestRunEvent(Type type, String runName, int testCount, TestIdentifier test,
+            String message, long elapsedTime, Map<String, String> metrics) {
+        mType = type;
+        mRunName = runName;
+        mTestCount = testCount;
+        mTest = test;
+        mMessage = message;
+        mElapsedTime = elapsedTime;
+        mMetrics = metrics;
+    }
+
+    static TestRunEvent runStarted(String runName, int testCount) {
+        return new TestRunEvent(Type.RUN_STARTED, runName, testCount, null, null, 0, null);
+    }
+
+    static TestRunEvent testEvent(Type type, TestIdentifier test, String trace) {
+        return new TestRunEvent(type, null, 0, test, trace, 0, null);
+    }
+
+    static TestRunEvent testEnded(TestIdentifier test, Map<String, String> testMetrics) {
+        return new TestRunEvent(Type.TEST_ENDED, null, 0, test, null, 0, testMetrics);
+    }
+
+    static TestRunEvent runFailed(String errorMessage) {
+        return new TestRunEvent(Type.RUN_FAILED, null, 0, null, errorMessage, 0, null);
+    }
+
+    static TestRunEvent runStopped(long elapsedTime) {
+        return new TestRunEvent(Type.RUN_STOPPED, null, 0, null, null, elapsedTime, null);
+    }
+
+    static TestRunEvent runEnded(long elapsedTime, Map<String, String> runMetrics) {
+        return new TestRunEvent(Type.RUN_ENDED, null, 0, null, null, elapsedTime, runMetrics);
+    }
+
+    @NonNull
+    public Type getType() {
+        return mType;
+    }
+
+    /** Returns the name of the run, for {@link Type#RUN_STARTED}. */
+    public String getRunName() {
+        return mRunName;
+    }
+
+    /** Returns the expected number of tests, for {@link Type#RUN_STARTED}. */
+    public int getTestCount() {
+        return mTestCount;
+    }
+
+    /** Returns the test, for the test events. */
+    public TestIdentifier getTest() {
+        return mTest;
+    }
+
+    /** Returns the stack trace of a test failure, or the error message of a run failure. */
+    public String getMessage() {
+        return mMessage;
+    }
+
+    /** Returns the elapsed time, for {@link Type#RUN_STOPPED} and {@link Type#RUN_ENDED}. */
+    public long getElapsedTime() {
+        return mElapsedTime;
+    }
+
+    /** Returns the test metrics of {@link Type#TEST_ENDED}, or the run metrics of a run end. */
+    public Map<String, String> getMetrics() {
+        return mMetrics;
+    }
+
+    /** Reports this event to the given listener. */
+    public void sendTo(@NonNull ITestRunListener listener) {
+        switch (mType) {
+            case RUN_STARTED:
+                listener.testRunStarted(mRunName, mTestCount);
+                break;
+            case TEST_STARTED:
+                listener.testStarted(mTest);
+                break;
+            case TEST_FAILED:
+                listener.testFailed(mTest, mMessage);
+                break;
+            case TEST_ASSUMPTION_FAILURE:
+                listener.testAssumptionFailure(mTest, mMessage);
+                break;
+            case TEST_IGNORED:
+                listener.testIgnored(mTest);
+                break;
+            case TEST_ENDED:
+                listener.testEnded(mTest, mMetrics);
+                break;
+            case RUN_FAILED:
+                listener.testRunFailed(mMessage);
+                break;
+            case RUN_STOPPED:
+                listener.testRunStopped(mElapsedTime);
+                break;
+            case RUN_ENDED:
+                listener.testRunEnded(mElapsedTime, mMetrics);
+                break;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mTest != null ? mType + " " + mTest : mType.toString();
+    }
+}
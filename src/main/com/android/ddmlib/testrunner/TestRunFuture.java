@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.testrunner.TestResult.TestStatus;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import org.jspecify.annotations.NonNull;
+
+/**
+ * The result of a test run started with {@link IRemoteAndroidTestRunner#runAsync}, which completes
+ * with the {@link TestRunResult} of the run once it has ended.
+ *
+ * <p>The events of the run can be followed live by {@link #subscribe subscribing} listeners, at
+ * any time: a listener subscribing to a run in progress first receives the events it missed.
+ * The events are only kept until the run ends, a listener subscribing later receives the events
+ * of the {@link TestRunResult} of the run.
+ *
+ * <p>Cancelling the future cancels the run, which stops the command on the device. The listeners
+ * are still informed of the end of the run, which is reported as failed. A run cancelled before
+ * the executor started it is not run at all, and its listeners receive no events.
+ *
+ * <p>The future completes exceptionally with the exception thrown by the run, if any, in which
+ * case the results received so far are available with {@link #getPartialResult()}.
+ */
+public class TestRunFuture extends CompletableFuture<TestRunResult> {
+
+    private final IRemoteAndroidTestRunner mRunner;
+    private final TestRunResult mResult = new TestRunResult();
+    private final List<Consumer<ITestRunListener>> mEvents = new ArrayList<>();
+    private final List<ITestRunListener> mSubscribers = new ArrayList<>();
+    /** Whether the run has ended, after which the events are replayed from {@link #mResult}. */
+    private boolean mEnded = false;
+
+    /** Listener recording the events of the run and forwarding them to the subscribers. */
+    private final ITestRunListener mListener = new ITestRunListener() {
+        @Override
+        public void testRunStarted(String runName, int testCount) {
+            dispatch(listener -> listener.testRunStarted(runName, testCount));
+        }
+
+        @Override
+        public void testStarted(TestIdentifier test) {
+            dispatch(listener -> listener.testStarted(test));
+        }
+
+        @Override
+        public void testFailed(TestIdentifier test, String trace) {
+            dispatch(listener -> listener.testFailed(test, trace));
+        }
+
+        @Override
+        public void testAssumptionFailure(TestIdentifier test, String trace) {
+            dispatch(listener -> listener.testAssumptionFailure(test, trace));
+        }
+
+        @Override
+        public void testIgnored(TestIdentifier test) {
+            dispatch(listener -> listener.testIgnored(test));
+        }
+
+        @Override
+        public void testEnded(TestIdentifier test, Map<String, String> testMetrics) {
+            dispatch(listener -> listener.testEnded(test, testMetrics));
+        }
+
+        @Override
+        public void testRunFailed(String errorMessage) {
+            dispatch(listener -> listener.testRunFailed(errorMessage));
+        }
+
+        @Override
+        public void testRunStopped(long elapsedTime) {
+            dispatch(listener -> listener.testRunStopped(elapsedTime));
+        }
+
+        @Override
+        public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+            dispatch(listener -> listener.testRunEnded(elapsedTime, runMetrics));
+        }
+    };
+
+    private TestRunFuture(IRemoteAndroidTestRunner runner) {
+        mRunner = runner;
+    }
+
+    /**
+     * Starts the run of the given runner on the executor.
+     *
+     * @param listeners listeners subscribed before the run starts
+     */
+    static TestRunFuture start(IRemoteAndroidTestRunner runner, Executor executor,
+            Collection<ITestRunListener> listeners) {
+        TestRunFuture future = new TestRunFuture(runner);
+        listeners.forEach(future::subscribe);
+        executor.execute(() -> {
+            if (future.isDone()) {
+                // cancelled before it started
+                return;
+            }
+            try {
+                runner.run(future.mListener);
+                future.end();
+                future.complete(future.mResult);
+            } catch (Exception e) {
+                future.end();
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Subscribes a listener to the events of the run. The events received so far are replayed
+     * to the listener first.
+     */
+    public synchronized void subscribe(@NonNull ITestRunListener listener) {
+        if (mEnded) {
+            replayResult(listener);
+            return;
+        }
+        for (Consumer<ITestRunListener> event : mEvents) {
+            event.accept(listener);
+        }
+        mSubscribers.add(listener);
+    }
+
+    /** Stops forwarding the events of the run to the given listener. */
+    public synchronized void unsubscribe(@NonNull ITestRunListener listener) {
+        mSubscribers.remove(listener);
+    }
+
+    /**
+     * Returns a snapshot of the results received so far, or the result of the run once it has
+     * ended, which must not be modified.
+     */
+    @NonNull
+    public synchronized TestRunResult getPartialResult() {
+        if (mEnded) {
+            return mResult;
+        }
+        TestRunResult snapshot = new TestRunResult();
+        for (Consumer<ITestRunListener> event : mEvents) {
+            event.accept(snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Cancels the run, if it has not completed yet. The run ends once the command on the device
+     * is stopped.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) {
+            mRunner.cancel();
+        }
+        return cancelled;
+    }
+
+    /** Drops the events of the run, which has ended. */
+    private synchronized void end() {
+        mEnded = true;
+        mEvents.clear();
+        mSubscribers.clear();
+    }
+
+    /** Reports the events of the ended run to the given listener, from its result. */
+    private void replayResult(ITestRunListener listener) {
+        listener.testRunStarted(mResult.getName(), mResult.getNumTests());
+        for (Map.Entry<TestIdentifier, TestResult> entry : mResult.getTestResults().entrySet()) {
+            TestIdentifier test = entry.getKey();
+            TestResult result = entry.getValue();
+            listener.testStarted(test);
+            if (result.getStatus() == TestStatus.FAILURE) {
+                listener.testFailed(test, result.getStackTrace());
+            } else if (result.getStatus() == TestStatus.ASSUMPTION_FAILURE) {
+                listener.testAssumptionFailure(test, result.getStackTrace());
+            } else if (result.getStatus() == TestStatus.IGNORED) {
+                listener.testIgnored(test);
+            } else if (result.getStatus() == TestStatus.INCOMPLETE) {
+                continue;
+            }
+            // each listener gets its own copy, which it may modify
+            listener.testEnded(test, result.getMetrics() != null
+                    ? new HashMap<>(result.getMetrics()) : new HashMap<>());
+        }
+        if (mResult.isRunFailure()) {
+            listener.testRunFailed(mResult.getRunFailureMessage());
+        }
+        if (mResult.isRunComplete()) {
+            listener.testRunEnded(
+                    mResult.getElapsedTime(), new HashMap<>(mResult.getRunMetrics()));
+        }
+    }
+
+    private synchronized void dispatch(Consumer<ITestRunListener> event) {
+        mEvents.add(event);
+        event.accept(mResult);
+        for (ITestRunListener subscriber : mSubscribers) {
+            event.accept(subscriber);
+        }
+    }
+}
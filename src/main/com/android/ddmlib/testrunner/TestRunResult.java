@@ -57,6 +57,20 @@ public class TestRunResult implements ITestRunListener {
         mTestRunName = "not started";
     }
 
+    /**
+     * Clears the results, as if this had just been created, so it can record another run. The maps
+     * returned by {@link #getTestResults()} and {@link #getRunMetrics()} are cleared as well.
+     */
+    public void reset() {
+        mTestRunName = "not started";
+        mTestResults.clear();
+        mRunMetrics.clear();
+        mIsRunComplete = false;
+        mElapsedTime = 0;
+        mIsCountDirty = true;
+        mRunFailureError = null;
+    }
+
     public void setAggregateMetrics(boolean metricAggregation) {
         mAggregateMetrics = metricAggregation;
     }
@@ -182,8 +196,15 @@ public class TestRunResult implements ITestRunListener {
         testStarted(test, System.currentTimeMillis());
     }
 
-    //@VisibleForTesting
-    void testStarted(TestIdentifier test, long startTime) {
+    /**
+     * Reports the start of a test at the given time, replacing any previous result of the test.
+     * Used to record results which were not received live, such as the results of a report or of
+     * a rerun.
+     *
+     * @param test identifies the test
+     * @param startTime the start time of the test, in milliseconds since the epoch
+     */
+    public void testStarted(TestIdentifier test, long startTime) {
         TestResult res = new TestResult();
         res.setStartTime(startTime);
         addTestResult(test, res);
@@ -225,8 +246,15 @@ public class TestRunResult implements ITestRunListener {
         testEnded(test, System.currentTimeMillis(), testMetrics);
     }
 
-    //@VisibleForTesting
-    void testEnded(TestIdentifier test, long endTime, Map<String, String> testMetrics) {
+    /**
+     * Reports the end of a test at the given time. Used to record results which were not received
+     * live, such as the results of a report or of a rerun.
+     *
+     * @param test identifies the test
+     * @param endTime the end time of the test, in milliseconds since the epoch
+     * @param testMetrics the metrics of the test
+     */
+    public void testEnded(TestIdentifier test, long endTime, Map<String, String> testMetrics) {
         TestResult result = mTestResults.get(test);
         if (result == null) {
             result = new TestResult();
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.Log;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import org.jspecify.annotations.NonNull;
+
+/**
+ * A hashed timer wheel, running many coarse timers on a single thread.
+ *
+ * <p>Timers are kept in a ring of buckets, one per tick. Scheduling and cancelling a timer take
+ * constant time, whatever the number of timers, and the thread only wakes up once per tick. Timers
+ * fire up to one tick late. Tasks run on the wheel thread, so they must be short.
+ */
+public class TimerWheel {
+
+    private static final String LOG_TAG = "TimerWheel";
+
+    private static final long DEFAULT_TICK_MS = 50;
+    private static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private static TimerWheel sDefault = null;
+
+    /** A scheduled task, which can be cancelled. */
+    public static class Timeout {
+        private final Runnable mTask;
+        private final long mDeadlineTick;
+        private volatile boolean mIsCancelled = false;
+
+        private Timeout(Runnable task, long deadlineTick) {
+            mTask = task;
+            mDeadlineTick = deadlineTick;
+        }
+
+        /** Prevents the task from running, if it has not run yet. */
+        public void cancel() {
+            mIsCancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return mIsCancelled;
+        }
+    }
+
+    private final long mTickNanos;
+    private final List<List<Timeout>> mBuckets;
+    private final Queue<Timeout> mPending = new ConcurrentLinkedQueue<>();
+    private final long mStartNanos = System.nanoTime();
+
+    private Thread mThread = null;
+    private volatile boolean mIsShutdown = false;
+
+    /**
+     * Creates a timer wheel.
+     *
+     * @param tickMs the resolution of the timers, in milliseconds
+     * @param wheelSize the number of buckets. Timers further than {@code tickMs * wheelSize} stay
+     *     in their bucket for several turns of the wheel
+     */
+    public TimerWheel(long tickMs, int wheelSize) {
+        if (tickMs < 1 || wheelSize < 1) {
+            throw new IllegalArgumentException("tick and wheel size must be positive");
+        }
+        mTickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        mBuckets = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            mBuckets.add(new ArrayList<>());
+        }
+    }
+
+    /** Returns the timer wheel shared by default, with a 50 ms resolution. */
+    @NonNull
+    public static synchronized TimerWheel getDefault() {
+        if (sDefault == null) {
+            sDefault = new TimerWheel(DEFAULT_TICK_MS, DEFAULT_WHEEL_SIZE);
+        }
+        return sDefault;
+    }
+
+    /**
+     * Runs the task on the wheel thread after the given delay.
+     *
+     * @return the timeout, which can be used to cancel the task
+     */
+    @NonNull
+    public Timeout schedule(@NonNull Runnable task, long delay, @NonNull TimeUnit unit) {
+        if (mIsShutdown) {
+            throw new IllegalStateException("timer wheel has been shut down");
+        }
+        long deadline = System.nanoTime() - mStartNanos + unit.toNanos(Math.max(0, delay));
+        // Round up, so that a timer never fires early.
+        Timeout timeout = new Timeout(task, (deadline + mTickNanos - 1) / mTickNanos);
+        mPending.add(timeout);
+        startThread();
+        return timeout;
+    }
+
+    /** Stops the wheel thread. Timers which did not fire yet never will. */
+    public void shutdown() {
+        mIsShutdown = true;
+        synchronized (this) {
+            if (mThread != null) {
+                mThread.interrupt();
+            }
+        }
+    }
+
+    private synchronized void startThread() {
+        if (mThread == null) {
+            mThread = new Thread(this::runWheel, "timer-wheel");
+            mThread.setDaemon(true);
+            mThread.start();
+        }
+    }
+
+    private void runWheel() {
+        long tick = 0;
+        while (!mIsShutdown) {
+            long sleepNanos = mStartNanos + tick * mTickNanos - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            Timeout timeout;
+            while ((timeout = mPending.poll()) != null) {
+                if (!timeout.mIsCancelled) {
+                    long deadlineTick = Math.max(tick, timeout.mDeadlineTick);
+                    mBuckets.get((int) (deadlineTick % mBuckets.size())).add(timeout);
+                }
+            }
+            Iterator<Timeout> bucket = mBuckets.get((int) (tick % mBuckets.size())).iterator();
+            while (bucket.hasNext()) {
+                timeout = bucket.next();
+                if (timeout.mIsCancelled) {
+                    bucket.remove();
+                } else if (timeout.mDeadlineTick <= tick) {
+                    bucket.remove();
+                    try {
+                        timeout.mTask.run();
+                    } catch (RuntimeException e) {
+                        Log.e(LOG_TAG, e);
+                    }
+                }
+            }
+            tick++;
+        }
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.AdbCommandRejectedException;
+import com.android.ddmlib.IShellEnabledDevice;
+import com.android.ddmlib.Log;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.TimeoutException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.jspecify.annotations.NonNull;
+
+/**
+ * Distributes tests dynamically over a pool of devices.
+ *
+ * <p>The tests are split into batches kept in a shared queue. Every device takes the next batch
+ * from the queue as soon as its previous instrumentation finished, so fast devices run more
+ * batches than slow ones and all devices finish at about the same time. Each batch is run with a
+ * new {@link RemoteAndroidTestRunner} restricted to the tests of the batch, and all the
+ * invocations are merged with a {@link MergingTestRunListener} into a single test run.
+ *
+ * <p>Tests are given as {@code class} instrumentation argument entries, that is either a fully
+ * qualified class name or {@code className#methodName}.
+ *
+ * <p>When a device fails with an exception it takes no further batches. The tests of its batch
+ * which did not report are given back to the other devices; a class entry is given back only if
+ * none of its tests reported. Batches that could not be run because every device failed are
+ * reported as a run failure.
+ */
+public class WorkStealingTestScheduler {
+
+    private static final String LOG_TAG = "WorkStealingScheduler";
+
+    private static final char METHOD_SEPARATOR = '#';
+
+    private final List<IShellEnabledDevice> mDevices;
+    private final Function<IShellEnabledDevice, RemoteAndroidTestRunner> mRunnerFactory;
+
+    private String mRunName = null;
+    private ExecutorService mExecutor = null;
+    private int mBatchSize = 1;
+    private int mExpectedTestCount = -1;
+
+    private volatile boolean mIsCancelled = false;
+    /** The runner currently used by each device, used for cancellation. */
+    private final Map<IShellEnabledDevice, RemoteAndroidTestRunner> mActiveRunners =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Creates the scheduler.
+     *
+     * @param devices the devices to run the tests on
+     * @param runnerFactory creates the runner for a batch on the given device. The runner must not
+     *     be restricted to a class or method, the scheduler does that for each batch
+     */
+    public WorkStealingTestScheduler(
+            @NonNull List<? extends IShellEnabledDevice> devices,
+            @NonNull Function<IShellEnabledDevice, RemoteAndroidTestRunner> runnerFactory) {
+        if (devices.isEmpty()) {
+            throw new IllegalArgumentException("at least one device is required");
+        }
+        mDevices = new ArrayList<>(devices);
+        mRunnerFactory = runnerFactory;
+    }
+
+    /**
+     * Set a custom run name to be reported to the {@link ITestRunListener} on {@link #run}.
+     *
+     * <p>If unspecified, will use the package name of the first runner.
+     */
+    public void setRunName(String runName) {
+        mRunName = runName;
+    }
+
+    /**
+     * Sets the executor used to drive the devices. If unspecified, a thread is started for each
+     * device. The executor is not shut down by this scheduler.
+     */
+    public void setExecutor(ExecutorService executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * Sets the number of tests run by a single instrumentation, used by {@link #run(List,
+     * Collection)}. Defaults to 1.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
+        mBatchSize = batchSize;
+    }
+
+    /**
+     * Sets the test count reported to {@link ITestRunListener#testRunStarted}. If unspecified,
+     * the number of given tests is reported when they are all methods, and 0 otherwise.
+     */
+    public void setExpectedTestCount(int expectedTestCount) {
+        mExpectedTestCount = expectedTestCount;
+    }
+
+    /**
+     * Runs the given tests, split into batches of {@link #setBatchSize(int)} tests.
+     *
+     * @see #runBatches(List, Collection)
+     */
+    public void run(@NonNull List<String> tests, @NonNull Collection<ITestRunListener> listeners)
+            throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
+                    IOException {
+        List<List<String>> batches = new ArrayList<>();
+        for (int i = 0; i < tests.size(); i += mBatchSize) {
+            batches.add(tests.subList(i, Math.min(tests.size(), i + mBatchSize)));
+        }
+        runBatches(batches, listeners);
+    }
+
+    /**
+     * Runs the given batches, in order, on whichever device is available, and waits for all of
+     * them to finish.
+     *
+     * <p>The listeners are always informed of the end of the run, even when some devices fail. If
+     * several devices fail with an exception, the first one is thrown with the others suppressed.
+     *
+     * @param batches the tests run by each instrumentation
+     * @param listeners collection of listeners for the merged test results
+     * @throws TimeoutException in case of a timeout on the connection to a device.
+     * @throws AdbCommandRejectedException if adb rejects the command on a device
+     * @throws ShellCommandUnresponsiveException if a device did not output any test result for a
+     *     period longer than the max time to output.
+     * @throws IOException if connection to a device was lost.
+     */
+    public void runBatches(
+            @NonNull List<? extends List<String>> batches,
+            @NonNull Collection<ITestRunListener> listeners)
+            throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
+                    IOException {
+        mIsCancelled = false;
+        Queue<List<String>> queue = new ConcurrentLinkedQueue<>();
+        for (List<String> batch : batches) {
+            // an empty selection would run all the tests
+            if (!batch.isEmpty()) {
+                queue.add(batch);
+            }
+        }
+        String runName = mRunName;
+        if (runName == null) {
+            runName = mRunnerFactory.apply(mDevices.get(0)).getPackageName();
+        }
+        MergingTestRunListener merger = new MergingTestRunListener(runName, listeners);
+        merger.startRun(mExpectedTestCount >= 0 ? mExpectedTestCount : countTests(batches));
+
+        ExecutorService executor =
+                mExecutor != null ? mExecutor : Executors.newFixedThreadPool(mDevices.size());
+        AtomicInteger batchNumber = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>(mDevices.size());
+        try {
+            for (IShellEnabledDevice device : mDevices) {
+                futures.add(executor.submit(() -> {
+                    runQueue(device, queue, batchNumber, merger);
+                    return null;
+                }));
+            }
+            Exception failure = null;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Exception cause =
+                            e.getCause() instanceof Exception
+                                    ? (Exception) e.getCause()
+                                    : new IOException(e.getCause());
+                    if (failure == null) {
+                        failure = cause;
+                    } else {
+                        failure.addSuppressed(cause);
+                    }
+                }
+            }
+            reportRemainingBatches(queue, merger);
+            merger.endRun();
+            if (failure != null) {
+                ShardedRemoteAndroidTestRunner.rethrow(failure);
+            }
+        } catch (InterruptedException e) {
+            Log.w(LOG_TAG, "Interrupted while waiting for devices running " + runName);
+            cancel();
+            Thread.currentThread().interrupt();
+            merger.endRun();
+            throw new InterruptedIOException("Interrupted while waiting for devices");
+        } finally {
+            if (executor != mExecutor) {
+                executor.shutdown();
+            }
+        }
+    }
+
+    /** Runs batches from the queue on the given device until the queue is empty. */
+    private void runQueue(
+            IShellEnabledDevice device,
+            Queue<List<String>> queue,
+            AtomicInteger batchNumber,
+            MergingTestRunListener merger)
+            throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
+                    IOException {
+        List<String> batch;
+        while (!mIsCancelled && (batch = queue.poll()) != null) {
+            RemoteAndroidTestRunner runner = mRunnerFactory.apply(device);
+            selectTests(runner, batch);
+            mActiveRunners.put(device, runner);
+            try {
+                if (mIsCancelled) {
+                    // cancelled before the runner could be cancelled, it is reported as not run
+                    queue.add(batch);
+                    return;
+                }
+                ITestRunListener listener = merger.createChildListener(
+                        String.format("Batch %1$d on %2$s", batchNumber.getAndIncrement(),
+                                device.getName()));
+                TestRunResult batchResult = new TestRunResult();
+                try {
+                    runner.run(listener, batchResult);
+                } catch (TimeoutException
+                        | AdbCommandRejectedException
+                        | ShellCommandUnresponsiveException
+                        | IOException
+                        | RuntimeException e) {
+                    // give the rest of the batch to the other devices, or have it reported as
+                    // not run
+                    List<String> unreported = getUnreportedTests(batch, batchResult);
+                    if (!unreported.isEmpty()) {
+                        queue.add(unreported);
+                    }
+                    throw e;
+                }
+            } finally {
+                mActiveRunners.remove(device);
+            }
+        }
+    }
+
+    /**
+     * Returns the entries of the batch which tests did not report in the given result. A class
+     * entry is returned only if none of its tests reported.
+     */
+    private static List<String> getUnreportedTests(List<String> batch, TestRunResult result) {
+        Set<String> reported = new HashSet<>();
+        for (TestIdentifier test : result.getTestResults().keySet()) {
+            reported.add(test.getClassName());
+            reported.add(test.getClassName() + METHOD_SEPARATOR + test.getTestName());
+        }
+        List<String> unreported = new ArrayList<>();
+        for (String test : batch) {
+            if (!reported.contains(test)) {
+                unreported.add(test);
+            }
+        }
+        return unreported;
+    }
+
+    /** Restricts the runner to the tests of the given batch. */
+    static void selectTests(RemoteAndroidTestRunner runner, List<String> batch) {
+        if (batch.isEmpty()) {
+            // the runner would be given an empty class argument
+            throw new IllegalArgumentException("No tests to select");
+        }
+        if (batch.size() == 1 && batch.get(0).indexOf(METHOD_SEPARATOR) > 0) {
+            String test = batch.get(0);
+            int separator = test.indexOf(METHOD_SEPARATOR);
+            runner.setMethodName(test.substring(0, separator), test.substring(separator + 1));
+        } else {
+            runner.setClassNames(batch.toArray(new String[0]));
+        }
+    }
+
+    private static int countTests(List<? extends List<String>> batches) {
+        int count = 0;
+        for (List<String> batch : batches) {
+            for (String test : batch) {
+                if (test.indexOf(METHOD_SEPARATOR) <= 0) {
+                    return 0;
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void reportRemainingBatches(
+            Queue<List<String>> queue, MergingTestRunListener merger) {
+        if (queue.isEmpty()) {
+            return;
+        }
+        List<String> remaining = new ArrayList<>();
+        for (List<String> batch : queue) {
+            remaining.addAll(batch);
+        }
+        ITestRunListener listener = merger.createChildListener("Scheduler");
+        listener.testRunFailed(String.format("%1$d tests were not run: %2$s",
+                remaining.size(), String.join(", ", remaining)));
+        listener.testRunEnded(0, Collections.emptyMap());
+    }
+
+    /**
+     * Requests cancellation of this test run. Running instrumentations are cancelled and no
+     * further batches are started.
+     */
+    public void cancel() {
+        mIsCancelled = true;
+        for (RemoteAndroidTestRunner runner : mActiveRunners.values()) {
+            runner.cancel();
+        }
+    }
+}
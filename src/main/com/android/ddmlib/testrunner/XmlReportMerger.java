@@ -0,0 +1,437 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.Log;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.jspecify.annotations.NonNull;
+import org.kxml2.io.KXmlParser;
+import org.kxml2.io.KXmlSerializer;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Merges several JUnit XML reports, such as the ones written by {@link XmlTestRunListener} for
+ * each shard of a sharded run, into a single report with one {@code testsuite} element.
+ *
+ * <p>The test, failure, error and skipped counts and the time of the merged suite are the sums of
+ * the input suites. Properties are merged, the first value seen for a name wins, and the
+ * {@code system-err} contents are concatenated.
+ *
+ * <p>Input reports are read concurrently with a pull parser. Their {@code testcase} elements are
+ * streamed into temporary spool files rather than kept in memory, and the spool files are copied
+ * into the output in input order once the merged counts are known.
+ */
+public class XmlReportMerger {
+
+    private static final String LOG_TAG = "XmlReportMerger";
+
+    private static final String TESTSUITE = "testsuite";
+    private static final String TESTCASE = "testcase";
+    private static final String PROPERTY = "property";
+    private static final String PROPERTIES = "properties";
+    private static final String SYSTEM_ERR = "system-err";
+    private static final String ATTR_NAME = "name";
+    private static final String ATTR_VALUE = "value";
+    private static final String ATTR_TIME = "time";
+    private static final String ATTR_ERRORS = "errors";
+    private static final String ATTR_FAILURES = "failures";
+    private static final String ATTR_SKIPPED = "skipped";
+    private static final String ATTR_TESTS = "tests";
+    private static final String TIMESTAMP = "timestamp";
+    private static final String HOSTNAME = "hostname";
+
+    private static final String INDENT_FEATURE =
+            "http://xmlpull.org/v1/doc/features.html#indent-output";
+
+    /** the XML namespace */
+    private static final String ns = null;
+
+    private String mSuiteName = null;
+
+    private String mHostName = "localhost";
+
+    private int mParallelism = Runtime.getRuntime().availableProcessors();
+
+    /** The merged data of a single input report. */
+    private static class ShardReport {
+        private String mName = null;
+        private int mTests = 0;
+        private int mFailures = 0;
+        private int mErrors = 0;
+        private int mSkipped = 0;
+        private double mTime = 0;
+        private final Map<String, String> mProperties = new LinkedHashMap<>();
+        private final StringBuilder mSystemError = new StringBuilder();
+        private File mSpoolFile = null;
+        /** The range of the spool file holding the test cases, without the enclosing suite. */
+        private long mSpoolStart = 0;
+        private long mSpoolEnd = 0;
+    }
+
+    /**
+     * Sets the name of the merged suite. If unset, the name of the first input suite is used.
+     */
+    public void setSuiteName(String suiteName) {
+        mSuiteName = suiteName;
+    }
+
+    public void setHostName(String hostName) {
+        mHostName = hostName;
+    }
+
+    /** Sets the maximum number of input reports read at the same time. */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        mParallelism = parallelism;
+    }
+
+    /**
+     * Merges the given reports into {@code outputFile}.
+     *
+     * @param reports the JUnit XML reports to merge
+     * @param outputFile the file where the merged report will be written
+     * @throws IOException if a report cannot be read or parsed, or the output cannot be written
+     */
+    public void merge(@NonNull List<File> reports, @NonNull File outputFile) throws IOException {
+        try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(outputFile))) {
+            merge(reports, stream);
+        }
+        Log.i(LOG_TAG, String.format("Merged %d reports into %s", reports.size(),
+                outputFile.getAbsolutePath()));
+    }
+
+    /**
+     * Merges the given reports into {@code stream}. The stream is not closed.
+     *
+     * @param reports the JUnit XML reports to merge
+     * @param stream the stream where the merged report will be written
+     * @throws IOException if a report cannot be read or parsed, or the output cannot be written
+     */
+    public void merge(@NonNull List<File> reports, @NonNull OutputStream stream)
+            throws IOException {
+        List<ShardReport> shards = readReports(reports);
+        try {
+            writeMergedReport(shards, stream);
+        } finally {
+            for (ShardReport shard : shards) {
+                if (shard.mSpoolFile != null) {
+                    Files.deleteIfExists(shard.mSpoolFile.toPath());
+                }
+            }
+        }
+    }
+
+    private List<ShardReport> readReports(List<File> reports) throws IOException {
+        int threads = Math.max(1, Math.min(mParallelism, reports.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<ShardReport>> futures = new ArrayList<>(reports.size());
+        List<ShardReport> shards = new ArrayList<>(reports.size());
+        try {
+            for (File report : reports) {
+                futures.add(executor.submit(() -> readReport(report)));
+            }
+            for (Future<ShardReport> future : futures) {
+                shards.add(future.get());
+            }
+            return shards;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading reports");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            for (Runnable dropped : executor.shutdownNow()) {
+                // the reads that never started won't run, cancel them so they aren't waited for
+                ((Future<?>) dropped).cancel(false);
+            }
+            if (shards.size() < reports.size()) {
+                // Reading failed, clean up whatever the completed tasks spooled.
+                awaitTermination(executor);
+                for (Future<ShardReport> future : futures) {
+                    deleteSpoolFile(future);
+                }
+            }
+        }
+    }
+
+    /** Waits for the reads in progress to end, so that their spool files can be deleted. */
+    private static void awaitTermination(ExecutorService executor) {
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void deleteSpoolFile(Future<ShardReport> future) {
+        if (!future.isDone() || future.isCancelled()) {
+            return;
+        }
+        try {
+            ShardReport shard = future.get();
+            if (shard.mSpoolFile != null) {
+                Files.deleteIfExists(shard.mSpoolFile.toPath());
+            }
+        } catch (InterruptedException
+                | ExecutionException
+                | CancellationException
+                | IOException ignored) {
+            // nothing was spooled, or the file cannot be removed anyway
+        }
+    }
+
+    /** Reads a single report, spooling its test cases to a temporary file. */
+    private static ShardReport readReport(File report) throws IOException {
+        ShardReport shard = new ShardReport();
+        shard.mSpoolFile = File.createTempFile("merge_", ".xml");
+        try (InputStream in = new BufferedInputStream(new FileInputStream(report));
+                FileOutputStream spoolFile = new FileOutputStream(shard.mSpoolFile);
+                OutputStream spool = new BufferedOutputStream(spoolFile)) {
+            KXmlParser parser = new KXmlParser();
+            parser.setInput(in, null);
+            KXmlSerializer serializer = new KXmlSerializer();
+            serializer.setOutput(spool, StandardCharsets.UTF_8.name());
+            serializer.setFeature(INDENT_FEATURE, true);
+            // the test cases are spooled inside a suite, so that they are indented as in the
+            // merged report, and only the range holding them is copied
+            serializer.startTag(ns, TESTSUITE);
+            serializer.flush();
+            spool.flush();
+            shard.mSpoolStart = spoolFile.getChannel().position();
+
+            int eventType = parser.getEventType();
+            while (eventType != XmlPullParser.END_DOCUMENT) {
+                if (eventType == XmlPullParser.START_TAG) {
+                    String tag = parser.getName();
+                    if (TESTSUITE.equals(tag)) {
+                        readSuiteAttributes(parser, shard);
+                    } else if (TESTCASE.equals(tag)) {
+                        copyElement(parser, serializer);
+                    } else if (PROPERTY.equals(tag)) {
+                        String name = parser.getAttributeValue(ns, ATTR_NAME);
+                        if (name != null) {
+                            shard.mProperties.putIfAbsent(
+                                    name, parser.getAttributeValue(ns, ATTR_VALUE));
+                        }
+                    } else if (SYSTEM_ERR.equals(tag)) {
+                        shard.mSystemError.append(parser.nextText());
+                    }
+                }
+                eventType = parser.next();
+            }
+            serializer.flush();
+            spool.flush();
+            shard.mSpoolEnd = spoolFile.getChannel().position();
+        } catch (XmlPullParserException e) {
+            Files.deleteIfExists(shard.mSpoolFile.toPath());
+            throw new IOException(String.format("Failed to parse report %s", report), e);
+        } catch (IOException e) {
+            Files.deleteIfExists(shard.mSpoolFile.toPath());
+            throw e;
+        }
+        return shard;
+    }
+
+    private static void readSuiteAttributes(XmlPullParser parser, ShardReport shard) {
+        if (shard.mName == null) {
+            shard.mName = parser.getAttributeValue(ns, ATTR_NAME);
+        }
+        shard.mTests += parseInt(parser.getAttributeValue(ns, ATTR_TESTS));
+        shard.mFailures += parseInt(parser.getAttributeValue(ns, ATTR_FAILURES));
+        shard.mErrors += parseInt(parser.getAttributeValue(ns, ATTR_ERRORS));
+        shard.mSkipped += parseInt(parser.getAttributeValue(ns, ATTR_SKIPPED));
+        String time = parser.getAttributeValue(ns, ATTR_TIME);
+        if (time != null) {
+            try {
+                shard.mTime += Double.parseDouble(time);
+            } catch (NumberFormatException e) {
+                Log.w(LOG_TAG, "Unexpected suite time " + time);
+            }
+        }
+    }
+
+    private static int parseInt(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            Log.w(LOG_TAG, "Unexpected integer count " + value);
+            return 0;
+        }
+    }
+
+    /**
+     * Copies the element the parser is positioned on, including its children, to the serializer.
+     * Whitespace only text between tags is dropped, the serializer takes care of the indentation.
+     */
+    private static void copyElement(XmlPullParser parser, KXmlSerializer serializer)
+            throws XmlPullParserException, IOException {
+        StringBuilder text = new StringBuilder();
+        int depth = 0;
+        int eventType = parser.getEventType();
+        do {
+            switch (eventType) {
+                case XmlPullParser.START_TAG:
+                    flushText(text, serializer);
+                    depth++;
+                    serializer.startTag(ns, parser.getName());
+                    for (int i = 0; i < parser.getAttributeCount(); i++) {
+                        serializer.attribute(
+                                ns, parser.getAttributeName(i), parser.getAttributeValue(i));
+                    }
+                    break;
+                case XmlPullParser.END_TAG:
+                    flushText(text, serializer);
+                    depth--;
+                    serializer.endTag(ns, parser.getName());
+                    break;
+                case XmlPullParser.TEXT:
+                    text.append(parser.getText());
+                    break;
+                default:
+                    break;
+            }
+            if (depth > 0) {
+                eventType = parser.next();
+            }
+        } while (depth > 0);
+    }
+
+    private static void flushText(StringBuilder text, KXmlSerializer serializer)
+            throws IOException {
+        if (!text.toString().trim().isEmpty()) {
+            serializer.text(text.toString());
+        }
+        text.setLength(0);
+    }
+
+    private void writeMergedReport(List<ShardReport> shards, OutputStream stream)
+            throws IOException {
+        ShardReport merged = new ShardReport();
+        merged.mName = mSuiteName;
+        for (ShardReport shard : shards) {
+            if (merged.mName == null) {
+                merged.mName = shard.mName;
+            }
+            merged.mTests += shard.mTests;
+            merged.mFailures += shard.mFailures;
+            merged.mErrors += shard.mErrors;
+            merged.mSkipped += shard.mSkipped;
+            merged.mTime += shard.mTime;
+            for (Map.Entry<String, String> property : shard.mProperties.entrySet()) {
+                merged.mProperties.putIfAbsent(property.getKey(), property.getValue());
+            }
+            merged.mSystemError.append(shard.mSystemError);
+        }
+
+        KXmlSerializer serializer = new KXmlSerializer();
+        serializer.setOutput(stream, StandardCharsets.UTF_8.name());
+        serializer.startDocument(StandardCharsets.UTF_8.name(), null);
+        serializer.setFeature(INDENT_FEATURE, true);
+        serializer.startTag(ns, TESTSUITE);
+        if (merged.mName != null) {
+            serializer.attribute(ns, ATTR_NAME, merged.mName);
+        }
+        serializer.attribute(ns, ATTR_TESTS, Integer.toString(merged.mTests));
+        serializer.attribute(ns, ATTR_FAILURES, Integer.toString(merged.mFailures));
+        serializer.attribute(ns, ATTR_ERRORS, Integer.toString(merged.mErrors));
+        serializer.attribute(ns, ATTR_SKIPPED, Integer.toString(merged.mSkipped));
+        serializer.attribute(ns, ATTR_TIME, Double.toString(merged.mTime));
+        serializer.attribute(ns, TIMESTAMP, getTimestamp());
+        serializer.attribute(ns, HOSTNAME, mHostName);
+
+        serializer.startTag(ns, PROPERTIES);
+        for (Map.Entry<String, String> entry : merged.mProperties.entrySet()) {
+            serializer.startTag(ns, PROPERTY);
+            serializer.attribute(ns, ATTR_NAME, entry.getKey());
+            if (entry.getValue() != null) {
+                serializer.attribute(ns, ATTR_VALUE, entry.getValue());
+            }
+            serializer.endTag(ns, PROPERTY);
+        }
+        serializer.endTag(ns, PROPERTIES);
+        // Write out everything so far, the test cases are copied directly to the stream.
+        serializer.flush();
+
+        byte[] buffer = new byte[64 * 1024];
+        for (ShardReport shard : shards) {
+            try (FileInputStream in = new FileInputStream(shard.mSpoolFile)) {
+                in.getChannel().position(shard.mSpoolStart);
+                long remaining = shard.mSpoolEnd - shard.mSpoolStart;
+                int read;
+                while (remaining > 0
+                        && (read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining)))
+                                != -1) {
+                    stream.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            }
+        }
+
+        if (merged.mSystemError.length() > 0) {
+            serializer.startTag(ns, SYSTEM_ERR);
+            serializer.text(merged.mSystemError.toString());
+            serializer.endTag(ns, SYSTEM_ERR);
+        }
+        serializer.endTag(ns, TESTSUITE);
+        serializer.endDocument();
+        stream.flush();
+    }
+
+    /**
+     * Return the current timestamp as a {@link String}.
+     */
+    String getTimestamp() {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss",
+                Locale.getDefault());
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        dateFormat.setLenient(true);
+        return dateFormat.format(new Date());
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.Log;
+import com.android.ddmlib.testrunner.TestResult.TestStatus;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.jspecify.annotations.NonNull;
+import org.kxml2.io.KXmlParser;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Reads JUnit XML reports, as written by {@link XmlTestRunListener}, back into a {@link
+ * TestRunResult}.
+ *
+ * <p>The report is read with a pull parser and replayed into the {@link TestRunResult} one test
+ * case at a time, so only the result itself is kept in memory. When {@link
+ * #setFailuresOnly(boolean)} is enabled only failed tests are kept, which bounds memory by the
+ * number of failures, e.g. when planning a rerun of the failed tests.
+ *
+ * <p>The mapping of the report elements is the inverse of the one used by {@link
+ * XmlTestRunListener}:
+ *
+ * <ul>
+ *   <li>a test case with a {@code failure} or {@code error} element is {@link
+ *       TestStatus#FAILURE}
+ *   <li>a test case with a non-empty {@code skipped} element is {@link
+ *       TestStatus#ASSUMPTION_FAILURE}
+ *   <li>a test case with an empty {@code skipped} element is {@link TestStatus#IGNORED}
+ *   <li>any other test case is {@link TestStatus#PASSED}
+ * </ul>
+ *
+ * <p>Reports only store the duration of a test, so the start time of every read test is 0 and
+ * its end time is the duration in milliseconds. The suite properties are reported as run metrics.
+ */
+public class XmlTestRunReader {
+
+    private static final String LOG_TAG = "XmlTestRunReader";
+
+    private static final String TESTSUITE = "testsuite";
+    private static final String TESTCASE = "testcase";
+    private static final String ERROR = "error";
+    private static final String FAILURE = "failure";
+    private static final String SKIPPED_TAG = "skipped";
+    private static final String PROPERTY = "property";
+    private static final String ATTR_NAME = "name";
+    private static final String ATTR_VALUE = "value";
+    private static final String ATTR_TIME = "time";
+    private static final String ATTR_TESTS = "tests";
+    private static final String ATTR_CLASSNAME = "classname";
+
+    /** the XML namespace */
+    private static final String ns = null;
+
+    private boolean mFailuresOnly = false;
+
+    /**
+     * Sets whether only failed tests should be added to the returned {@link TestRunResult}.
+     */
+    public void setFailuresOnly(boolean failuresOnly) {
+        mFailuresOnly = failuresOnly;
+    }
+
+    /**
+     * Reads the given report file.
+     *
+     * @throws IOException if the report cannot be read or is not well formed
+     */
+    @NonNull
+    public TestRunResult read(@NonNull File report) throws IOException {
+        try (InputStream stream = new BufferedInputStream(new FileInputStream(report))) {
+            return read(stream);
+        }
+    }
+
+    /**
+     * Reads a report from the given stream. The stream is not closed.
+     *
+     * @throws IOException if the report cannot be read or is not well formed
+     */
+    @NonNull
+    public TestRunResult read(@NonNull InputStream stream) throws IOException {
+        TestRunResult runResult = new TestRunResult();
+        Map<String, String> properties = new LinkedHashMap<>();
+        long elapsedTime = 0;
+        boolean runStarted = false;
+        try {
+            KXmlParser parser = new KXmlParser();
+            parser.setInput(stream, null);
+            int eventType = parser.getEventType();
+            while (eventType != XmlPullParser.END_DOCUMENT) {
+                if (eventType == XmlPullParser.START_TAG) {
+                    String tag = parser.getName();
+                    if (TESTSUITE.equals(tag)) {
+                        if (!runStarted) {
+                            runResult.testRunStarted(parser.getAttributeValue(ns, ATTR_NAME),
+                                    parseInt(parser.getAttributeValue(ns, ATTR_TESTS)));
+                            runStarted = true;
+                        }
+                        elapsedTime += parseTime(parser.getAttributeValue(ns, ATTR_TIME));
+                    } else if (TESTCASE.equals(tag)) {
+                        readTestCase(parser, runResult);
+                    } else if (PROPERTY.equals(tag)) {
+                        String name = parser.getAttributeValue(ns, ATTR_NAME);
+                        String value = parser.getAttributeValue(ns, ATTR_VALUE);
+                        if (name != null && value != null) {
+                            properties.put(name, value);
+                        }
+                    }
+                }
+                eventType = parser.next();
+            }
+        } catch (XmlPullParserException e) {
+            throw new IOException("Failed to parse test report", e);
+        }
+        if (!runStarted) {
+            throw new IOException("Test report does not contain a testsuite element");
+        }
+        runResult.testRunEnded(elapsedTime, properties);
+        return runResult;
+    }
+
+    /** Reads the test case the parser is positioned on, and reports it to the result. */
+    private void readTestCase(XmlPullParser parser, TestRunResult runResult)
+            throws XmlPullParserException, IOException {
+        String className = parser.getAttributeValue(ns, ATTR_CLASSNAME);
+        String testName = parser.getAttributeValue(ns, ATTR_NAME);
+        long elapsedTime = parseTime(parser.getAttributeValue(ns, ATTR_TIME));
+
+        TestStatus status = TestStatus.PASSED;
+        String trace = null;
+        int depth = 1;
+        while (depth > 0) {
+            int eventType = parser.next();
+            if (eventType == XmlPullParser.START_TAG) {
+                String tag = parser.getName();
+                if (depth == 1 && (FAILURE.equals(tag) || ERROR.equals(tag))) {
+                    status = TestStatus.FAILURE;
+                    trace = parser.nextText();
+                } else if (depth == 1 && SKIPPED_TAG.equals(tag)) {
+                    trace = parser.nextText();
+                    if (trace.isEmpty()) {
+                        status = TestStatus.IGNORED;
+                        trace = null;
+                    } else {
+                        status = TestStatus.ASSUMPTION_FAILURE;
+                    }
+                } else {
+                    depth++;
+                }
+            } else if (eventType == XmlPullParser.END_TAG) {
+                depth--;
+            } else if (eventType == XmlPullParser.END_DOCUMENT) {
+                throw new IOException("Unexpected end of test report");
+            }
+        }
+
+        if (className == null || testName == null) {
+            Log.w(LOG_TAG, "Ignoring test case without class name or name");
+            return;
+        }
+        if (mFailuresOnly && status != TestStatus.FAILURE) {
+            return;
+        }
+        TestIdentifier testId = new TestIdentifier(className, testName);
+        runResult.testStarted(testId, 0);
+        switch (status) {
+            case FAILURE:
+                runResult.testFailed(testId, trace);
+                break;
+            case ASSUMPTION_FAILURE:
+                runResult.testAssumptionFailure(testId, trace);
+                break;
+            case IGNORED:
+                runResult.testIgnored(testId);
+                break;
+            default:
+                break;
+        }
+        runResult.testEnded(testId, elapsedTime, Collections.emptyMap());
+    }
+
+    private static int parseInt(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            Log.w(LOG_TAG, "Unexpected integer count " + value);
+            return 0;
+        }
+    }
+
+    /** Parses a time in seconds, as written in reports, into milliseconds. */
+    private static long parseTime(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Math.round(Double.parseDouble(value) * 1000);
+        } catch (NumberFormatException e) {
+            Log.w(LOG_TAG, "Unexpected time " + value);
+            return 0;
+        }
+    }
+}
@@ -1,293 +1,396 @@
 package org.example;
 
-import com.android.ddmlib.AdbCommandRejectedException;
-import com.android.ddmlib.IShellEnabledDevice;
-import com.android.ddmlib.IShellOutputReceiver;
-import com.android.ddmlib.ShellCommandUnresponsiveException;
-import com.android.ddmlib.TimeoutException;
+import com.android.ddmlib.ByteBufferPool;
+import com.android.ddmlib.Log;
+import com.android.ddmlib.Log.LogLevel;
+import com.android.ddmlib.testrunner.ITestRunListener;
 import com.android.ddmlib.testrunner.InstrumentationResultParser;
-import com.android.ddmlib.testrunner.RemoteAndroidTestRunner;
+import com.android.ddmlib.testrunner.InstrumentationStreamServer;
+import com.android.ddmlib.testrunner.JsonLinesTestRunListener;
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.android.ddmlib.testrunner.TestResult;
+import com.android.ddmlib.testrunner.TestResult.TestStatus;
+import com.android.ddmlib.testrunner.TestRunResult;
 import com.android.ddmlib.testrunner.XmlTestRunListener;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Function;
 import org.jspecify.annotations.NonNull;
 
+/**
+ * Parses the output of {@code adb shell am instrument -r} read from stdin, a file or a named pipe,
+ * and reports the results as they arrive.
+ *
+ * <pre>
+ * adb shell am instrument -r -w com.example.test/androidx.test.runner.AndroidJUnitRunner \
+ *     | Main --format=summary --xml-dir=out
+ * </pre>
+ *
+ * <p>The input is read through a channel into a direct buffer and handed to the parser as soon as
+ * a read returns, so results are written while the instrumentation is still running. The summary
+ * and JSON Lines outputs are flushed after each test. Logs are written to stderr.
+ *
+ * <p>The exit code is {@link #EXIT_PASSED} if all tests passed, {@link #EXIT_TESTS_FAILED} if a
+ * test failed, {@link #EXIT_RUN_FAILED} if the run did not complete, e.g. the instrumentation
+ * crashed or the input ended early, and {@link #EXIT_USAGE} for invalid arguments.
+ *
+ * <p>With {@code --listen}, the tool runs as a daemon receiving the output of many devices at once
+ * through an {@link InstrumentationStreamServer}, one run per connection, which saves starting and
+ * warming up a JVM per run.
+ */
 public class Main {
 
-  private static class FakeShellRunnerDevice implements IShellEnabledDevice {
+  static final int EXIT_PASSED = 0;
+  static final int EXIT_TESTS_FAILED = 1;
+  static final int EXIT_RUN_FAILED = 2;
+  static final int EXIT_USAGE = 3;
 
-    private final List<String> adbCmd;
+  private static final String DEFAULT_RUN_NAME = "instrumentation";
 
-    private FakeShellRunnerDevice(List<String> adbCmd) {
-      this.adbCmd = adbCmd;
+  private static final String USAGE =
+      "Usage: Main [options] [input]\n"
+          + "Parses the output of 'adb shell am instrument -r' read from input, a file or a named\n"
+          + "pipe, or from stdin if input is missing or '-'.\n"
+          + "\n"
+          + "Options:\n"
+          + "  --format=summary  print a line per test and a summary to stdout (default)\n"
+          + "  --format=jsonl    print a JSON record per test to stdout\n"
+          + "  --format=events   print a JSON record per listener event to stdout\n"
+          + "  --format=none     print nothing to stdout\n"
+          + "  --xml-dir=DIR     write a JUnit XML report to DIR when the run ends\n"
+          + "  --run-name=NAME   name of the run in the reports (default: instrumentation)\n"
+          + "  --listen=ADDRESS  instead of reading input, parse the runs streamed to ADDRESS,\n"
+          + "                    one per connection, until stopped. ADDRESS is unix:PATH,\n"
+          + "                    HOST:PORT, or a port of the loopback interface. A client may\n"
+          + "                    name its run with a first line 'RUN_NAME: <name>'\n"
+          + "  --threads=N       threads parsing the connections of --listen (default: 2)\n"
+          + "  --verbose         log the parser to stderr\n"
+          + "\n"
+          + "Exit codes: 0 all tests passed, 1 a test failed, 2 the run did not complete,\n"
+          + "3 invalid arguments.\n";
+
+  public static void main(String[] args) {
+    Log.addLogger(new Log.ILogOutput() {
+      @Override
+      public void printLog(LogLevel logLevel, String tag, String message) {
+        System.err.print(Log.getLogFormatString(logLevel, tag, message));
+      }
+
+      @Override
+      public void printAndPromptLog(LogLevel logLevel, String tag, String message) {
+        printLog(logLevel, tag, message);
+      }
+    });
+    FileChannel stdin = new FileInputStream(FileDescriptor.in).getChannel();
+    OutputStream stdout = new FileOutputStream(FileDescriptor.out);
+    System.exit(run(args, stdin, stdout, System.err));
+  }
+
+  /**
+   * Runs the command line tool.
+   *
+   * @param args the command line arguments
+   * @param stdin the input read when no input file is given
+   * @param stdout the output of the results
+   * @param stderr the output of errors
+   * @return the exit code
+   */
+  static int run(String[] args, ReadableByteChannel stdin, OutputStream stdout,
+      PrintStream stderr) {
+    String format = "summary";
+    String runName = DEFAULT_RUN_NAME;
+    File xmlDir = null;
+    String input = null;
+    String listen = null;
+    int threadCount = 2;
+    for (String arg : args) {
+      if (arg.startsWith("--format=")) {
+        format = arg.substring("--format=".length());
+      } else if (arg.startsWith("--xml-dir=")) {
+        xmlDir = new File(arg.substring("--xml-dir=".length()));
+      } else if (arg.startsWith("--run-name=")) {
+        runName = arg.substring("--run-name=".length());
+      } else if (arg.startsWith("--listen=")) {
+        listen = arg.substring("--listen=".length());
+      } else if (arg.startsWith("--threads=")) {
+        try {
+          threadCount = Integer.parseInt(arg.substring("--threads=".length()));
+        } catch (NumberFormatException e) {
+          threadCount = 0;
+        }
+        if (threadCount < 1) {
+          stderr.print("Invalid thread count: " + arg + "\n" + USAGE);
+          return EXIT_USAGE;
+        }
+      } else if (arg.equals("--verbose")) {
+        Log.setLevel(LogLevel.DEBUG);
+      } else if (arg.equals("--help")) {
+        stderr.print(USAGE);
+        return EXIT_PASSED;
+      } else if ((arg.startsWith("-") && !arg.equals("-")) || input != null || listen != null) {
+        stderr.print("Unexpected argument: " + arg + "\n" + USAGE);
+        return EXIT_USAGE;
+      } else {
+        input = arg;
+      }
     }
 
-    @Override
-    public String getName() {
-      return "FakeShellRunnerDevice";
+    if (!Arrays.asList("summary", "jsonl", "events", "none").contains(format)) {
+      stderr.print("Unknown format: " + format + "\n" + USAGE);
+      return EXIT_USAGE;
+    }
+    if (listen != null && !format.equals("summary") && !format.equals("none")) {
+      // The records of concurrent runs would be interleaved.
+      stderr.print("--listen only supports --format=summary or none\n" + USAGE);
+      return EXIT_USAGE;
+    }
+    if (xmlDir != null && !xmlDir.isDirectory() && !xmlDir.mkdirs()) {
+      stderr.println("Unable to create directory " + xmlDir);
+      return EXIT_USAGE;
+    }
+    String outputFormat = format;
+    File reportDir = xmlDir;
+    boolean isServer = listen != null;
+    Function<String, Collection<ITestRunListener>> listenerFactory = name -> {
+      List<ITestRunListener> listeners = new ArrayList<>();
+      switch (outputFormat) {
+        case "summary":
+          listeners.add(new SummaryListener(stdout, isServer ? "[" + name + "] " : ""));
+          break;
+        case "jsonl":
+          listeners.add(new JsonLinesTestRunListener(stdout));
+          break;
+        case "events":
+          JsonLinesTestRunListener events = new JsonLinesTestRunListener(stdout);
+          events.setReportEvents(true);
+          listeners.add(events);
+          break;
+        default:
+          break;
+      }
+      if (reportDir != null) {
+        XmlTestRunListener xml = new XmlTestRunListener();
+        xml.setReportDir(reportDir);
+        listeners.add(xml);
+      }
+      return listeners;
+    };
+
+    if (listen != null) {
+      return listen(listen, threadCount, listenerFactory, stderr);
     }
 
-    @Override
-    public void executeShellCommand(String command, IShellOutputReceiver receiver,
-        long maxTimeToOutputResponse, TimeUnit maxTimeUnits) {
-      executeShellCommand(command, receiver);
-      System.out.println("executeShellCommand, command: " + command + ", receiver: " + receiver
-          + ", maxTimeToOutputResponse: " + maxTimeToOutputResponse);
+    List<ITestRunListener> listeners = new ArrayList<>();
+    TestRunResult result = new TestRunResult();
+    listeners.add(result);
+    listeners.addAll(listenerFactory.apply(runName));
+    InstrumentationResultParser parser = new InstrumentationResultParser(runName, listeners);
+    if (input == null || input.equals("-")) {
+      parse(stdin, parser, stderr);
+    } else {
+      // FileChannel also reads named pipes, blocking until the writer sends data.
+      try (FileChannel channel = FileChannel.open(Paths.get(input), StandardOpenOption.READ)) {
+        parse(channel, parser, stderr);
+      } catch (IOException e) {
+        stderr.println("Unable to read " + input + ": " + e.getMessage());
+        return EXIT_USAGE;
+      }
     }
 
-    @Override
-    public void executeShellCommand(String command, IShellOutputReceiver receiver, long maxTimeout,
-        long maxTimeToOutputResponse, TimeUnit maxTimeUnits) {
-      executeShellCommand(command, receiver);
+    if (result.isRunFailure()) {
+      return EXIT_RUN_FAILED;
     }
+    return result.hasFailedTests() ? EXIT_TESTS_FAILED : EXIT_PASSED;
+  }
 
-    private void executeShellCommand(String command, IShellOutputReceiver receiver) {
-      System.out.println("executeShellCommand, command: " + command + ", receiver: " + receiver);
-      List<String> cmdList = Arrays.stream(command.split(" ")).filter(s -> !s.isBlank()).toList();
-      ArrayList<String> combinedCmdList = new ArrayList<>();
-      combinedCmdList.addAll(adbCmd);
-      combinedCmdList.addAll(cmdList);
-      System.out.println("Final cmd: '" + String.join(" ", combinedCmdList) + "'");
-      try {
-        byte[] output = executeShellCommandAndReadOutput(combinedCmdList);
-        String outputString = new String(output, StandardCharsets.UTF_8);
-        System.out.println("output:\n" + outputString + "\n==========");
-        receiver.addOutput(output, 0, outputString.length());
-        receiver.flush();
-      } catch (IOException | InterruptedException e) {
-        throw new RuntimeException(e);
+  /**
+   * Parses the connections of an {@link InstrumentationStreamServer}, until the process is
+   * stopped.
+   */
+  private static int listen(String address, int threadCount,
+      Function<String, Collection<ITestRunListener>> listenerFactory, PrintStream stderr) {
+    SocketAddress socketAddress;
+    try {
+      socketAddress = parseAddress(address);
+    } catch (IllegalArgumentException e) {
+      stderr.print("Invalid address: " + address + "\n" + USAGE);
+      return EXIT_USAGE;
+    }
+    InstrumentationStreamServer server =
+        new InstrumentationStreamServer(socketAddress, listenerFactory);
+    server.setThreadCount(threadCount);
+    try {
+      server.start();
+      stderr.println("Listening on " + server.getLocalAddress());
+    } catch (IOException e) {
+      stderr.println("Unable to listen on " + address + ": " + e.getMessage());
+      return EXIT_USAGE;
+    }
+    // Closing the server on exit fails the runs in progress, so their reports are written.
+    Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+    try {
+      new CountDownLatch(1).await();
+    } catch (InterruptedException e) {
+      server.close();
+    }
+    return EXIT_PASSED;
+  }
+
+  /**
+   * Parses the address of {@code --listen}: {@code unix:PATH}, {@code HOST:PORT}, or a port on
+   * the loopback interface.
+   */
+  static SocketAddress parseAddress(String address) {
+    if (address.startsWith("unix:")) {
+      return UnixDomainSocketAddress.of(address.substring("unix:".length()));
+    }
+    int separator = address.lastIndexOf(':');
+    try {
+      if (separator < 0) {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(address));
       }
+      return new InetSocketAddress(address.substring(0, separator),
+          Integer.parseInt(address.substring(separator + 1)));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(address, e);
     }
   }
 
-  public static byte[] executeShellCommandAndReadOutput(List<String> command)
-      throws IOException, InterruptedException {
-    ProcessBuilder pb = new ProcessBuilder(command);
-    pb.redirectErrorStream(true);
-    Process p = pb.start();
-    p.waitFor();
-    return p.getInputStream().readAllBytes();
+  /** Passes everything read from the channel to the parser, until the end of the input. */
+  private static void parse(ReadableByteChannel channel, InstrumentationResultParser parser,
+      PrintStream stderr) {
+    ByteBufferPool pool = ByteBufferPool.getDefault();
+    ByteBuffer buffer = pool.acquire();
+    try {
+      // read() returns as soon as some output is available, so each line is parsed when the
+      // instrumentation prints it rather than when the buffer is full.
+      while (channel.read(buffer) >= 0) {
+        buffer.flip();
+        parser.addOutput(buffer);
+        buffer.clear();
+      }
+      parser.flush();
+    } catch (IOException e) {
+      stderr.println("Failed to read the input: " + e.getMessage());
+      parser.handleTestRunFailed("Failed to read the input: " + e.getMessage());
+    } finally {
+      pool.release(buffer);
+    }
   }
 
-  final static String BENCHMARK_OUTPUT_WITH_ERROR =
-      "INSTRUMENTATION_STATUS: class=com.simple.SimpleBenchmark\n" +
-      "INSTRUMENTATION_STATUS: current=1\n" +
-      "INSTRUMENTATION_STATUS: id=AndroidJUnitRunner\n" +
-      "INSTRUMENTATION_STATUS: numtests=1\n" +
-      "INSTRUMENTATION_STATUS: stream=\n" +
-      "com.simple.SimpleBenchmark:\n" +
-      "INSTRUMENTATION_STATUS: test=runBenchmark\n" +
-      "INSTRUMENTATION_STATUS_CODE: 1\n" +
-      "INSTRUMENTATION_STATUS: additionalTestOutputFile_SimpleBenchmark_runBenchmark_2025-04-24-13-40-14.perfetto-trace=/storage/emulated/0/Android/media/com.simple/SimpleBenchmark_runBenchmark_2025-04-24-13-40-14.perfetto-trace\n"
-      +
-      "INSTRUMENTATION_STATUS_CODE: 2\n" +
-      "INSTRUMENTATION_STATUS: class=com.simple.SimpleBenchmark\n" +
-      "INSTRUMENTATION_STATUS: current=1\n" +
-      "INSTRUMENTATION_STATUS: id=AndroidJUnitRunner\n" +
-      "INSTRUMENTATION_STATUS: numtests=1\n" +
-      "INSTRUMENTATION_STATUS: stack=java.lang.AssertionError: ERRORS (not suppressed): EMULATOR\n"
-      +
-      "(Suppressed errors: ACTIVITY-MISSING LOW-BATTERY UNLOCKED)\n" +
-      "\n" +
-      "WARNING: Running on Emulator\n" +
-      "    Benchmark is running on an emulator, which is not representative of\n" +
-      "    real user devices. Use a physical device to benchmark. Emulator\n" +
-      "    benchmark improvements might not carry over to a real user's\n" +
-      "    experience (or even regress real device performance). \n" +
-      "\n" +
-      "While you can suppress these errors (turning them into warnings)\n" +
-      "PLEASE NOTE THAT EACH SUPPRESSED ERROR COMPROMISES ACCURACY\n" +
-      "\n" +
-      "// Sample suppression, in a benchmark module's build.gradle:\n" +
-      "android {\n" +
-      "    defaultConfig {\n" +
-      "        // Enable measuring on an emulator, or devices with low battery\n" +
-      "        testInstrumentationRunnerArguments[\"androidx.benchmark.suppressErrors\"] = \"EMULATOR,LOW-BATTERY\"\n"
-      +
-      "    }\n" +
-      "}\n" +
-      "	at androidx.benchmark.Errors.throwIfError(Errors.kt:283)\n" +
-      "	at androidx.benchmark.BenchmarkState.beforeBenchmark(BenchmarkState.kt:471)\n" +
-      "	at androidx.benchmark.BenchmarkState.keepRunningInternal(BenchmarkState.kt:459)\n" +
-      "	at androidx.benchmark.BenchmarkState.keepRunning(BenchmarkState.kt:405)\n" +
-      "	at com.simple.SimpleBenchmark.runBenchmark(SimpleBenchmark.java:19)\n" +
-      "\n" +
-      "INSTRUMENTATION_STATUS: stream=\n" +
-      "Error in runBenchmark(com.simple.SimpleBenchmark):\n" +
-      "java.lang.AssertionError: ERRORS (not suppressed): EMULATOR\n" +
-      "(Suppressed errors: ACTIVITY-MISSING LOW-BATTERY UNLOCKED)\n" +
-      "\n" +
-      "WARNING: Running on Emulator\n" +
-      "    Benchmark is running on an emulator, which is not representative of\n" +
-      "    real user devices. Use a physical device to benchmark. Emulator\n" +
-      "    benchmark improvements might not carry over to a real user's\n" +
-      "    experience (or even regress real device performance). \n" +
-      "\n" +
-      "While you can suppress these errors (turning them into warnings)\n" +
-      "PLEASE NOTE THAT EACH SUPPRESSED ERROR COMPROMISES ACCURACY\n" +
-      "\n" +
-      "// Sample suppression, in a benchmark module's build.gradle:\n" +
-      "android {\n" +
-      "    defaultConfig {\n" +
-      "        // Enable measuring on an emulator, or devices with low battery\n" +
-      "        testInstrumentationRunnerArguments[\"androidx.benchmark.suppressErrors\"] = \"EMULATOR,LOW-BATTERY\"\n"
-      +
-      "    }\n" +
-      "}\n" +
-      "	at androidx.benchmark.Errors.throwIfError(Errors.kt:283)\n" +
-      "	at androidx.benchmark.BenchmarkState.beforeBenchmark(BenchmarkState.kt:471)\n" +
-      "	at androidx.benchmark.BenchmarkState.keepRunningInternal(BenchmarkState.kt:459)\n" +
-      "	at androidx.benchmark.BenchmarkState.keepRunning(BenchmarkState.kt:405)\n" +
-      "	at com.simple.SimpleBenchmark.runBenchmark(SimpleBenchmark.java:19)\n" +
-      "\n" +
-      "INSTRUMENTATION_STATUS: test=runBenchmark\n" +
-      "INSTRUMENTATION_STATUS_CODE: -2\n" +
-      "INSTRUMENTATION_RESULT: stream=\n" +
-      "\n" +
-      "Time: 4.898\n" +
-      "There was 1 failure:\n" +
-      "1) runBenchmark(com.simple.SimpleBenchmark)\n" +
-      "java.lang.AssertionError: ERRORS (not suppressed): EMULATOR\n" +
-      "(Suppressed errors: ACTIVITY-MISSING LOW-BATTERY UNLOCKED)\n" +
-      "\n" +
-      "WARNING: Running on Emulator\n" +
-      "    Benchmark is running on an emulator, which is not representative of\n" +
-      "    real user devices. Use a physical device to benchmark. Emulator\n" +
-      "    benchmark improvements might not carry over to a real user's\n" +
-      "    experience (or even regress real device performance). \n" +
-      "\n" +
-      "While you can suppress these errors (turning them into warnings)\n" +
-      "PLEASE NOTE THAT EACH SUPPRESSED ERROR COMPROMISES ACCURACY\n" +
-      "\n" +
-      "// Sample suppression, in a benchmark module's build.gradle:\n" +
-      "android {\n" +
-      "    defaultConfig {\n" +
-      "        // Enable measuring on an emulator, or devices with low battery\n" +
-      "        testInstrumentationRunnerArguments[\"androidx.benchmark.suppressErrors\"] = \"EMULATOR,LOW-BATTERY\"\n"
-      +
-      "    }\n" +
-      "}\n" +
-      "	at androidx.benchmark.Errors.throwIfError(Errors.kt:283)\n" +
-      "	at androidx.benchmark.BenchmarkState.beforeBenchmark(BenchmarkState.kt:471)\n" +
-      "	at androidx.benchmark.BenchmarkState.keepRunningInternal(BenchmarkState.kt:459)\n" +
-      "	at androidx.benchmark.BenchmarkState.keepRunning(BenchmarkState.kt:405)\n" +
-      "	at com.simple.SimpleBenchmark.runBenchmark(SimpleBenchmark.java:19)\n" +
-      "\n" +
-      "FAILURES!!!\n" +
-      "Tests run: 1,  Failures: 1\n" +
-      "\n" +
-      "\n" +
-      "INSTRUMENTATION_CODE: -1\n";
-  final static String BENCHMARK_OUTPUT_WITH_WARNING =
-      "INSTRUMENTATION_STATUS: class=com.simple.SimpleBenchmark\n" +
-      "INSTRUMENTATION_STATUS: current=1\n" +
-      "INSTRUMENTATION_STATUS: id=AndroidJUnitRunner\n" +
-      "INSTRUMENTATION_STATUS: numtests=1\n" +
-      "INSTRUMENTATION_STATUS: stream=\n" +
-      "com.simple.SimpleBenchmark:\n" +
-      "INSTRUMENTATION_STATUS: test=runBenchmark\n" +
-      "INSTRUMENTATION_STATUS_CODE: 1\n" +
-      "INSTRUMENTATION_STATUS: additionalTestOutputFile_profiling_trace=/storage/emulated/0/Android/media/com.simple/SimpleBenchmark_runBenchmark-methodTracing-2025-04-24-12-43-51.trace\n"
-      +
-      "INSTRUMENTATION_STATUS_CODE: 2\n" +
-      "INSTRUMENTATION_STATUS: additionalTestOutputFile_SimpleBenchmark_runBenchmark_2025-04-24-12-43-52.perfetto-trace=/storage/emulated/0/Android/media/com.simple/SimpleBenchmark_runBenchmark_2025-04-24-12-43-52.perfetto-trace\n"
-      +
-      "INSTRUMENTATION_STATUS_CODE: 2\n" +
-      "INSTRUMENTATION_STATUS: EMULATOR_allocation_count_median=0.0\n" +
-      "INSTRUMENTATION_STATUS: EMULATOR_allocation_count_min=0.0\n" +
-      "INSTRUMENTATION_STATUS: EMULATOR_allocation_count_stddev=0.0\n" +
-      "INSTRUMENTATION_STATUS: EMULATOR_time_nanos_median=5721.055404130412\n" +
-      "INSTRUMENTATION_STATUS: EMULATOR_time_nanos_min=5412.270992766537\n" +
-      "INSTRUMENTATION_STATUS: EMULATOR_time_nanos_stddev=647.6251180138073\n" +
-      "INSTRUMENTATION_STATUS: android.studio.display.benchmark=\n" +
-      "WARNING: Running on Emulator\n" +
-      "    Benchmark is running on an emulator, which is not representative of\n" +
-      "    real user devices. Use a physical device to benchmark. Emulator\n" +
-      "    benchmark improvements might not carry over to a real user's\n" +
-      "    experience (or even regress real device performance). \n" +
-      "\n" +
-      "        5,412   ns           0 allocs    EMULATOR_SimpleBenchmark.runBenchmark\n" +
-      "INSTRUMENTATION_STATUS: android.studio.v2display.benchmark=\n" +
-      "WARNING: Running on Emulator\n" +
-      "    Benchmark is running on an emulator, which is not representative of\n" +
-      "    real user devices. Use a physical device to benchmark. Emulator\n" +
-      "    benchmark improvements might not carry over to a real user's\n" +
-      "    experience (or even regress real device performance). \n" +
-      "\n" +
-      "        5,412   ns           0 allocs    [Trace](file://SimpleBenchmark_runBenchmark_2025-04-24-12-43-52.perfetto-trace)    [Method Trace](file://SimpleBenchmark_runBenchmark-methodTracing-2025-04-24-12-43-51.trace)    EMULATOR_SimpleBenchmark.runBenchmark\n"
-      +
-      "INSTRUMENTATION_STATUS: android.studio.v2display.benchmark.outputDirPath=/storage/emulated/0/Android/media/com.simple\n"
-      +
-      "INSTRUMENTATION_STATUS_CODE: 2\n" +
-      "INSTRUMENTATION_STATUS: class=com.simple.SimpleBenchmark\n" +
-      "INSTRUMENTATION_STATUS: current=1\n" +
-      "INSTRUMENTATION_STATUS: id=AndroidJUnitRunner\n" +
-      "INSTRUMENTATION_STATUS: numtests=1\n" +
-      "INSTRUMENTATION_STATUS: stream=.\n" +
-      "INSTRUMENTATION_STATUS: test=runBenchmark\n" +
-      "INSTRUMENTATION_STATUS_CODE: 0\n" +
-      "INSTRUMENTATION_RESULT: stream=\n" +
-      "\n" +
-      "Time: 11.487\n" +
-      "\n" +
-      "OK (1 test)\n" +
-      "\n" +
-      "\n" +
-      "INSTRUMENTATION_CODE: -1\n";
+  /**
+   * Prints a line per finished test, and the summary of the run when it ends. The lines of the
+   * listeners sharing a stream are not mixed up.
+   */
+  private static class SummaryListener implements ITestRunListener {
 
-  public static void main(String[] args)
-      throws ShellCommandUnresponsiveException, AdbCommandRejectedException, IOException, TimeoutException, InterruptedException {
+    private final OutputStream mStream;
+    private final String mPrefix;
+    private final Writer mWriter;
+    private final TestRunResult mResult = new TestRunResult();
 
-    File tmpDir1 = createTmpDir();
-    System.out.println("tempDir1: " + tmpDir1);
+    /**
+     * @param stream the stream the lines are written to
+     * @param prefix the prefix of every line, telling runs apart
+     */
+    SummaryListener(OutputStream stream, String prefix) {
+      mStream = stream;
+      mPrefix = prefix;
+      mWriter = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+    }
 
-    XmlTestRunListener xmlTestRunListener = new XmlTestRunListener();
-    xmlTestRunListener.setReportDir(tmpDir1);
-    InstrumentationResultParser parser = new InstrumentationResultParser("MyFakeRun", xmlTestRunListener);
-    byte[] benchmarkOutputWithWarningBytes = BENCHMARK_OUTPUT_WITH_ERROR.getBytes(StandardCharsets.UTF_8); //BENCHMARK_OUTPUT_WITH_WARNING.getBytes(StandardCharsets.UTF_8);
-    parser.addOutput(benchmarkOutputWithWarningBytes, 0, benchmarkOutputWithWarningBytes.length);
-    parser.flush();
+    @Override
+    public void testRunStarted(String runName, int testCount) {
+      mResult.testRunStarted(runName, testCount);
+      print(String.format("Running %1$d tests of %2$s", testCount, runName));
+    }
 
-    xmlTestRunListener.getRunResult().getTestResults().forEach((test, result) -> {
-      System.out.println("test: " + test);
-      System.out.println("result: " + result);
-    });
+    @Override
+    public void testStarted(TestIdentifier test) {
+      mResult.testStarted(test);
+    }
+
+    @Override
+    public void testFailed(TestIdentifier test, String trace) {
+      mResult.testFailed(test, trace);
+    }
+
+    @Override
+    public void testAssumptionFailure(TestIdentifier test, String trace) {
+      mResult.testAssumptionFailure(test, trace);
+    }
 
-    System.exit(0);
+    @Override
+    public void testIgnored(TestIdentifier test) {
+      mResult.testIgnored(test);
+    }
 
-    String adbPath = "/usr/local/google/home/ktimofeev/Android/Sdk/platform-tools/adb";
+    @Override
+    public void testEnded(TestIdentifier test, Map<String, String> testMetrics) {
+      mResult.testEnded(test, testMetrics);
+      TestResult result = mResult.getTestResults().get(test);
+      StringBuilder line = new StringBuilder();
+      line.append(String.format("%1$s %2$s#%3$s (%4$d ms)", result.getStatus(),
+          test.getClassName(), test.getTestName(), result.getEndTime() - result.getStartTime()));
+      if (result.getStatus() == TestStatus.FAILURE && result.getStackTrace() != null) {
+        line.append('\n').append(result.getStackTrace().trim());
+      }
+      print(line.toString());
+    }
 
-    String output = new String(executeShellCommandAndReadOutput(List.of(adbPath, "devices")),
-        StandardCharsets.UTF_8);
-    System.out.println("adb devices output:\n" + output + "\n==========");
+    @Override
+    public void testRunFailed(String errorMessage) {
+      mResult.testRunFailed(errorMessage);
+      print("Test run failed: " + errorMessage);
+    }
 
-    List<String> cmd = List.of(adbPath, "-s", "emulator-5554", "shell");
+    @Override
+    public void testRunStopped(long elapsedTime) {
+      mResult.testRunStopped(elapsedTime);
+    }
 
-    FakeShellRunnerDevice remoteDevice = new FakeShellRunnerDevice(cmd);
-    RemoteAndroidTestRunner testRunner = new RemoteAndroidTestRunner("dev.perfetto.sdk.test",
-        "androidx.test.runner.AndroidJUnitRunner",
-        remoteDevice);
-    XmlTestRunListener listener = new XmlTestRunListener();
-    File tmpDir = createTmpDir();
-    listener.setReportDir(tmpDir);
-    System.out.println("tempDir: " + tmpDir);
-    testRunner.run(listener);
-    listener.getRunResult().getCompletedTests().forEach(System.out::println);
-  }
+    @Override
+    public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+      mResult.testRunEnded(elapsedTime, runMetrics);
+      print(String.format("%1$sin %2$d ms", mResult.getTextSummary(), elapsedTime));
+    }
 
-  private static File createTmpDir() throws IOException {
-    // create a temp file with unique name, then make it a directory
-    File tmpDir = File.createTempFile("foo", "dir");
-    tmpDir.delete();
-    if (!tmpDir.mkdirs()) {
-      throw new IOException("unable to create directory");
+    private void print(String line) {
+      synchronized (mStream) {
+        try {
+          mWriter.write(mPrefix);
+          mWriter.write(line);
+          mWriter.write('\n');
+          mWriter.flush();
+        } catch (IOException e) {
+          Log.e("Main", "Failed to write the summary");
+        }
+      }
     }
-    return tmpDir;
   }
 
   public static int constant4() {
@@ -298,4 +401,4 @@ public class Main {
     return "foo" + arg;
   }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib;
+
+import com.android.ddmlib.testrunner.RemoteAndroidTestRunner;
+import com.android.ddmlib.testrunner.TestRunResult;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link LocalProcessShellDevice}.
+ */
+public class LocalProcessShellDeviceTest extends TestCase {
+
+    /** Receiver collecting the output, which cancels once {@code mCancelAfter} bytes arrived. */
+    private static class CollectingReceiver implements IShellOutputReceiver {
+        private final ByteArrayOutputStream mOutput = new ByteArrayOutputStream();
+        private final int mCancelAfter;
+        private boolean mFlushed = false;
+
+        CollectingReceiver(int cancelAfter) {
+            mCancelAfter = cancelAfter;
+        }
+
+        @Override
+        public synchronized void addOutput(byte[] data, int offset, int length) {
+            mOutput.write(data, offset, length);
+        }
+
+        @Override
+        public void flush() {
+            mFlushed = true;
+        }
+
+        @Override
+        public synchronized boolean isCancelled() {
+            return mCancelAfter >= 0 && mOutput.size() >= mCancelAfter;
+        }
+
+        String getOutput() {
+            return new String(mOutput.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private final LocalProcessShellDevice mDevice =
+            new LocalProcessShellDevice("local", Arrays.asList("sh", "-c"));
+
+    /**
+     * Test that the whole output is received, including multi-byte characters and output larger
+     * than the pipe buffer.
+     */
+    public void testExecuteShellCommand() throws Exception {
+        CollectingReceiver receiver = new CollectingReceiver(-1);
+        mDevice.executeShellCommand(
+                "printf 'h\\303\\251llo\\n'; head -c 200000 /dev/zero | tr '\\0' x",
+                receiver, 10, TimeUnit.SECONDS);
+        String output = receiver.getOutput();
+        assertTrue(output.startsWith("h\u00e9llo\n"));
+        assertEquals("h\u00e9llo\n".length() + 200000, output.length());
+        assertTrue(receiver.mFlushed);
+    }
+
+    /**
+     * Test that a command without output for too long is killed.
+     */
+    public void testExecuteShellCommand_unresponsive() throws Exception {
+        long start = System.nanoTime();
+        try {
+            mDevice.executeShellCommand("echo start; sleep 10", new CollectingReceiver(-1),
+                    200, TimeUnit.MILLISECONDS);
+            fail("ShellCommandUnresponsiveException not thrown");
+        } catch (ShellCommandUnresponsiveException e) {
+            // expected
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    /**
+     * Test that a run which times out is only reported as ended once, by the runner, the receiver
+     * not being flushed.
+     */
+    public void testExecuteShellCommand_unresponsiveRun() throws Exception {
+        // the shell command is appended as $0 of the script, which ignores it
+        LocalProcessShellDevice device = new LocalProcessShellDevice("local", Arrays.asList(
+                "sh", "-c",
+                "printf 'INSTRUMENTATION_STATUS: class=com.foo.FooTest\\n"
+                        + "INSTRUMENTATION_STATUS: test=testFoo\\n"
+                        + "INSTRUMENTATION_STATUS: numtests=2\\n"
+                        + "INSTRUMENTATION_STATUS_CODE: 1\\n'; sleep 10"));
+        RemoteAndroidTestRunner runner =
+                new RemoteAndroidTestRunner("com.foo", "androidx.test.runner.AndroidJUnitRunner",
+                        device);
+        runner.setMaxTimeToOutputResponse(200, TimeUnit.MILLISECONDS);
+        List<String> runEvents = new ArrayList<>();
+        TestRunResult result = new TestRunResult() {
+            @Override
+            public void testRunFailed(String errorMessage) {
+                runEvents.add("failed");
+                super.testRunFailed(errorMessage);
+            }
+
+            @Override
+            public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+                runEvents.add("ended");
+                super.testRunEnded(elapsedTime, runMetrics);
+            }
+        };
+        try {
+            runner.run(result);
+            fail("ShellCommandUnresponsiveException not thrown");
+        } catch (ShellCommandUnresponsiveException e) {
+            // expected
+        }
+        assertEquals(Arrays.asList("failed", "ended"), runEvents);
+        assertEquals(1, result.getNumTests());
+    }
+
+    /**
+     * Test that a command running for too long is killed, even while it outputs.
+     */
+    public void testExecuteShellCommand_timeout() throws Exception {
+        CollectingReceiver receiver = new CollectingReceiver(-1);
+        try {
+            mDevice.executeShellCommand("while true; do echo tick; sleep 0.05; done",
+                    receiver, 300, 0, TimeUnit.MILLISECONDS);
+            fail("TimeoutException not thrown");
+        } catch (TimeoutException e) {
+            // expected
+        }
+        assertFalse(receiver.mFlushed);
+    }
+
+    /**
+     * Test that a cancelled receiver stops the command without an exception.
+     */
+    public void testExecuteShellCommand_cancelled() throws Exception {
+        CollectingReceiver receiver = new CollectingReceiver(1);
+        long start = System.nanoTime();
+        mDevice.executeShellCommand("echo start; sleep 10", receiver, 0, TimeUnit.SECONDS);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertEquals("start\n", receiver.getOutput());
+        assertFalse(receiver.mFlushed);
+    }
+}
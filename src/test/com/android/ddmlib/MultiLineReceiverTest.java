@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link MultiLineReceiver}.
+ */
+public class MultiLineReceiverTest extends TestCase {
+
+    /** Receiver recording the lines. */
+    private static class LineRecorder extends MultiLineReceiver {
+        final List<String> mLines = new ArrayList<>();
+
+        @Override
+        public void processNewLines(String[] lines) {
+            mLines.addAll(Arrays.asList(lines));
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    }
+
+    private final ByteBufferPool mPool = new ByteBufferPool(8, 2);
+
+    /** Writes the bytes to the receiver through direct buffers of the pool. */
+    private void addDirect(IShellOutputReceiver receiver, byte[] bytes) {
+        for (int offset = 0; offset < bytes.length; offset += mPool.getBufferSize()) {
+            ByteBuffer buffer = mPool.acquire();
+            assertTrue(buffer.isDirect());
+            buffer.put(bytes, offset, Math.min(buffer.capacity(), bytes.length - offset));
+            buffer.flip();
+            receiver.addOutput(buffer);
+            assertFalse(buffer.hasRemaining());
+            mPool.release(buffer);
+        }
+    }
+
+    /**
+     * Test that lines are split the same way from direct buffers and arrays.
+     */
+    public void testAddOutput_direct() {
+        byte[] bytes = "first line\r\n  second\n\nhéllo wörld\nunfinished"
+                .getBytes(StandardCharsets.UTF_8);
+        LineRecorder direct = new LineRecorder();
+        addDirect(direct, bytes);
+        direct.flush();
+
+        LineRecorder array = new LineRecorder();
+        array.addOutput(bytes, 0, bytes.length);
+        array.flush();
+
+        List<String> expected = Arrays.asList(
+                "first line", "second", "", "héllo wörld", "unfinished");
+        assertEquals(expected, direct.mLines);
+        assertEquals(expected, array.mLines);
+        assertEquals(1, mPool.getPooledCount());
+    }
+
+    /**
+     * Test that a character cut between two packets is decoded.
+     */
+    public void testAddOutput_splitCharacter() {
+        byte[] bytes = "é\n".getBytes(StandardCharsets.UTF_8);
+        LineRecorder receiver = new LineRecorder();
+        receiver.addOutput(bytes, 0, 1);
+        receiver.addOutput(ByteBuffer.wrap(bytes, 1, 2));
+        assertEquals(Arrays.asList("é"), receiver.mLines);
+    }
+
+    /**
+     * Test that a reset receiver forgets the unfinished line.
+     */
+    public void testReset() {
+        LineRecorder receiver = new LineRecorder();
+        byte[] bytes = "first\nunfinished".getBytes(StandardCharsets.UTF_8);
+        receiver.addOutput(bytes, 0, bytes.length);
+        receiver.reset();
+        bytes = "second\n".getBytes(StandardCharsets.UTF_8);
+        receiver.addOutput(bytes, 0, bytes.length);
+        receiver.flush();
+        assertEquals(Arrays.asList("first", "second", ""), receiver.mLines);
+    }
+
+    /**
+     * Test the bridge of receivers only accepting arrays.
+     */
+    public void testAddOutput_defaultBridge() {
+        StringBuilder received = new StringBuilder();
+        IShellOutputReceiver receiver = new IShellOutputReceiver() {
+            @Override
+            public void addOutput(byte[] data, int offset, int length) {
+                received.append(new String(data, offset, length, StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public void flush() {}
+
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+        };
+        addDirect(receiver, "0123456789abc".getBytes(StandardCharsets.UTF_8));
+        ByteBuffer heap = ByteBuffer.wrap("xxdefxx".getBytes(StandardCharsets.UTF_8), 2, 3);
+        receiver.addOutput(heap);
+        assertEquals("0123456789abcdef", received.toString());
+        assertEquals(5, heap.position());
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.testrunner.TestResult.TestStatus;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link AbortPolicy}.
+ */
+public class AbortPolicyTest extends TestCase {
+
+    private static final String TEST_PACKAGE = "com.test";
+    private static final String TEST_RUNNER = "androidx.test.runner.AndroidJUnitRunner";
+
+    private SimulatedInstrumentationDevice mDevice;
+    private RemoteAndroidTestRunner mRunner;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        List<String> tests = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            tests.add("com.test.FooTest#test" + i);
+        }
+        mDevice = new SimulatedInstrumentationDevice("device0");
+        mDevice.setTests(tests);
+        // Output every test in its own chunk.
+        mDevice.setTestRate(200);
+        mRunner = new RemoteAndroidTestRunner(TEST_PACKAGE, TEST_RUNNER, mDevice);
+    }
+
+    /**
+     * Test that the run is aborted after the maximum number of failures.
+     */
+    public void testMaxFailures() throws Exception {
+        mDevice.addFailingTest("com.test.FooTest#test1");
+        mDevice.addFailingTest("com.test.FooTest#test3");
+        mDevice.addFailingTest("com.test.FooTest#test5");
+        AbortPolicy policy = AbortPolicy.maxFailures(2);
+        mRunner.addAbortPolicy(policy);
+        TestRunResult result = new TestRunResult();
+        mRunner.run(result);
+
+        assertEquals("2 tests failed", policy.getAbortReason());
+        assertTrue(result.isRunFailure());
+        assertEquals("Test run aborted: 2 tests failed", result.getRunFailureMessage());
+        assertTrue(result.getNumTests() < 10);
+        assertEquals(TestStatus.FAILURE, result.getTestResults()
+                .get(new TestIdentifier("com.test.FooTest", "test3")).getStatus());
+        assertNull(result.getTestResults().get(new TestIdentifier("com.test.FooTest", "test9")));
+
+        // The next run is failed without being launched.
+        TestRunResult nextResult = new TestRunResult();
+        mRunner.run(nextResult);
+        assertTrue(nextResult.isRunFailure());
+        assertEquals(0, nextResult.getNumTests());
+        assertEquals(1, mDevice.getCommands().size());
+    }
+
+    /**
+     * Test that the failure rate is computed on a sliding window.
+     */
+    public void testMaxFailureRate() {
+        AbortPolicy policy = AbortPolicy.maxFailureRate(50, 4);
+        TestIdentifier test = new TestIdentifier("com.test.FooTest", "test0");
+        boolean[] failures = {true, true, false, false, true, false, true};
+        for (boolean failed : failures) {
+            policy.testStarted(test);
+            if (failed) {
+                policy.testFailed(test, "trace");
+            }
+            policy.testEnded(test, Collections.emptyMap());
+            assertNull(policy.getAbortReason());
+        }
+        policy.testStarted(test);
+        policy.testFailed(test, "trace");
+        policy.testEnded(test, Collections.emptyMap());
+        assertEquals("3 of the last 4 tests failed", policy.getAbortReason());
+    }
+
+    /**
+     * Test that a policy tripped by a device stops a device which is silent.
+     */
+    public void testMaxFailures_stopsSilentDevice() throws Exception {
+        AbortPolicy policy = AbortPolicy.maxFailures(1);
+        mDevice.setStall(1, -1);
+        mRunner.addAbortPolicy(policy);
+        TestRunResult silentResult = new TestRunResult();
+        Thread silentRun = new Thread(() -> {
+            try {
+                mRunner.run(silentResult);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        silentRun.start();
+        // wait for the silent device to stall
+        while (mDevice.getCommands().isEmpty()) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+
+        SimulatedInstrumentationDevice failingDevice =
+                new SimulatedInstrumentationDevice("device1");
+        failingDevice.setTests(Collections.singletonList("com.test.FooTest#test0"));
+        failingDevice.addFailingTest("com.test.FooTest#test0");
+        RemoteAndroidTestRunner failingRunner =
+                new RemoteAndroidTestRunner(TEST_PACKAGE, TEST_RUNNER, failingDevice);
+        failingRunner.addAbortPolicy(policy);
+        failingRunner.run(new TestRunResult());
+
+        silentRun.join(10000);
+        assertFalse(silentRun.isAlive());
+        assertTrue(silentResult.isRunComplete());
+        assertTrue(silentResult.getRunFailureMessage().startsWith("Test run aborted: "));
+    }
+
+    /**
+     * Test that a cancelled run with policies reports its end without launching the command.
+     */
+    public void testCancel_beforeRun() throws Exception {
+        mRunner.addAbortPolicy(AbortPolicy.maxFailures(1));
+        mRunner.cancel();
+        TestRunResult result = new TestRunResult();
+        mRunner.run(result);
+
+        assertTrue(result.isRunComplete());
+        assertEquals(RemoteAndroidTestRunner.CANCELLED_MSG, result.getRunFailureMessage());
+        assertTrue(mDevice.getCommands().isEmpty());
+    }
+
+    /**
+     * Test that consecutive crashes with the same failure abort the runs.
+     */
+    public void testMaxConsecutiveCrashes() throws Exception {
+        mDevice.setCrashAfter(0);
+        AbortPolicy policy = AbortPolicy.maxConsecutiveCrashes(2);
+        mRunner.addAbortPolicy(policy);
+        for (int i = 0; i < 3; i++) {
+            TestRunResult result = new TestRunResult();
+            mRunner.run(result);
+            assertTrue(result.isRunFailure());
+        }
+        assertNotNull(policy.getAbortReason());
+        assertTrue(policy.getAbortReason().startsWith("2 consecutive runs failed with: "));
+        assertEquals(2, mDevice.getCommands().size());
+    }
+
+    /**
+     * Test that a passing test resets the consecutive crashes.
+     */
+    public void testMaxConsecutiveCrashes_reset() throws Exception {
+        mDevice.setCrashAfter(3);
+        AbortPolicy policy = AbortPolicy.maxConsecutiveCrashes(2);
+        mRunner.addAbortPolicy(policy);
+        for (int i = 0; i < 3; i++) {
+            mRunner.run(new TestRunResult());
+        }
+        assertNull(policy.getAbortReason());
+        assertEquals(3, mDevice.getCommands().size());
+    }
+
+    /**
+     * Test that the failures reported when the runs are aborted are not counted as crashes.
+     */
+    public void testMaxConsecutiveCrashes_ignoresAborts() {
+        AbortPolicy policy = AbortPolicy.maxConsecutiveCrashes(2);
+        for (int i = 0; i < 3; i++) {
+            policy.testRunFailed(String.format(AbortPolicy.ABORT_MSG, "3 tests failed"));
+        }
+        assertNull(policy.getAbortReason());
+    }
+}
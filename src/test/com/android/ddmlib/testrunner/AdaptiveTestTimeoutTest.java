@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.testrunner.TestResult.TestStatus;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link AdaptiveTestTimeout}.
+ */
+public class AdaptiveTestTimeoutTest extends TestCase {
+
+    private static final String TEST_PACKAGE = "com.test";
+    private static final String TEST_RUNNER = "androidx.test.runner.AndroidJUnitRunner";
+
+    private TimerWheel mTimerWheel;
+    private AdaptiveTestTimeout mTimeout;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTimerWheel = new TimerWheel(10, 64);
+        mTimeout = new AdaptiveTestTimeout();
+        mTimeout.setTimerWheel(mTimerWheel);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mTimerWheel.shutdown();
+        super.tearDown();
+    }
+
+    /**
+     * Test that the timeout is the 99th percentile of the durations times the safety factor.
+     */
+    public void testGetTimeout() {
+        TestIdentifier test = new TestIdentifier("com.test.FooTest", "test0");
+        assertEquals(0, mTimeout.getTimeout(test));
+        mTimeout.setDefaultTimeout(5000);
+        assertEquals(5000, mTimeout.getTimeout(test));
+
+        mTimeout.setMinTimeout(0);
+        mTimeout.setSafetyFactor(2);
+        for (int i = 1; i <= 200; i++) {
+            mTimeout.addDuration("com.test.FooTest#test0", i);
+        }
+        // Only the 100 most recent durations are kept: 101 to 200.
+        assertEquals(2 * 199, mTimeout.getTimeout(test));
+
+        mTimeout.setMinTimeout(1000);
+        assertEquals(1000, mTimeout.getTimeout(test));
+    }
+
+    /**
+     * Test that a test running past its timeout fails, and cancels the run.
+     */
+    public void testRun_timeout() throws Exception {
+        List<String> tests = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            tests.add("com.test.FooTest#test" + i);
+            // The third test used to be much faster than the 100 ms every test now takes.
+            mTimeout.addDuration("com.test.FooTest#test" + i, i == 2 ? 10 : 1000);
+        }
+        mTimeout.setMinTimeout(50);
+        SimulatedInstrumentationDevice device = new SimulatedInstrumentationDevice("device0");
+        device.setTests(tests);
+        device.setTestRate(10);
+        RemoteAndroidTestRunner runner =
+                new RemoteAndroidTestRunner(TEST_PACKAGE, TEST_RUNNER, device);
+        runner.setAdaptiveTestTimeout(mTimeout);
+        Thread runThread = Thread.currentThread();
+        List<Thread> failureThreads = new ArrayList<>();
+        TestRunResult result =
+                new TestRunResult() {
+                    @Override
+                    public void testRunFailed(String errorMessage) {
+                        failureThreads.add(Thread.currentThread());
+                        super.testRunFailed(errorMessage);
+                    }
+                };
+        runner.run(result);
+
+        assertTrue(result.isRunFailure());
+        // the timeout is reported on the thread of the device, not the one of the timers
+        assertEquals(Collections.singletonList(runThread), failureThreads);
+        assertEquals(2, result.getNumTestsInState(TestStatus.PASSED));
+        TestResult timedOut = result.getTestResults()
+                .get(new TestIdentifier("com.test.FooTest", "test2"));
+        assertEquals(TestStatus.FAILURE, timedOut.getStatus());
+        assertTrue(timedOut.getStackTrace().contains("Test timed out after 50 ms"));
+    }
+
+    /**
+     * Test that the durations of the passed tests are recorded.
+     */
+    public void testRun_recordsDurations() throws Exception {
+        SimulatedInstrumentationDevice device = new SimulatedInstrumentationDevice("device0");
+        List<String> tests = new ArrayList<>();
+        tests.add("com.test.FooTest#test0");
+        tests.add("com.test.FooTest#test1");
+        device.setTests(tests);
+        device.addFailingTest("com.test.FooTest#test1");
+        RemoteAndroidTestRunner runner =
+                new RemoteAndroidTestRunner(TEST_PACKAGE, TEST_RUNNER, device);
+        runner.setAdaptiveTestTimeout(mTimeout);
+        mTimeout.setMinTimeout(1234);
+        runner.run(new TestRunResult());
+
+        assertEquals(1234, mTimeout.getTimeout(new TestIdentifier("com.test.FooTest", "test0")));
+        assertEquals(0, mTimeout.getTimeout(new TestIdentifier("com.test.FooTest", "test1")));
+    }
+
+    /**
+     * Test that cancelled timers do not fire.
+     */
+    public void testTimerWheel_cancel() throws Exception {
+        CountDownLatch fired = new CountDownLatch(1);
+        TimerWheel.Timeout cancelled = mTimerWheel.schedule(
+                () -> fail("cancelled timer fired"), 20, TimeUnit.MILLISECONDS);
+        cancelled.cancel();
+        mTimerWheel.schedule(fired::countDown, 40, TimeUnit.MILLISECONDS);
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        assertTrue(cancelled.isCancelled());
+    }
+}
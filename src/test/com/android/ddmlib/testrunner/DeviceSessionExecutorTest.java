@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib.testrunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.android.ddmlib.IShellEnabledDevice;
+import com.android.ddmlib.IShellOutputReceiver;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/** Unit tests for {@link DeviceSessionExecutor} */
+public class DeviceSessionExecutorTest {
+
+    /** Fake device which outputs a single passing test. */
+    private static class FakeDevice implements IShellEnabledDevice {
+        private final String mName;
+
+        FakeDevice(String name) {
+            mName = name;
+        }
+
+        @Override
+        public String getName() {
+            return mName;
+        }
+
+        @Override
+        public void executeShellCommand(String command, IShellOutputReceiver receiver,
+                long maxTimeToOutputResponse, TimeUnit maxTimeUnits) {
+            executeShellCommand(command, receiver, 0, maxTimeToOutputResponse, maxTimeUnits);
+        }
+
+        @Override
+        public void executeShellCommand(String command, IShellOutputReceiver receiver,
+                long maxTimeout, long maxTimeToOutputResponse, TimeUnit maxTimeUnits) {
+            StringBuilder output = new StringBuilder();
+            for (int code : new int[] {1, 0}) {
+                output.append("INSTRUMENTATION_STATUS: class=FooTest\n");
+                output.append("INSTRUMENTATION_STATUS: test=testBar\n");
+                output.append("INSTRUMENTATION_STATUS: numtests=1\n");
+                output.append("INSTRUMENTATION_STATUS_CODE: ").append(code).append('\n');
+            }
+            output.append("Time: 1\nINSTRUMENTATION_CODE: -1\n");
+            byte[] bytes = output.toString().getBytes(StandardCharsets.UTF_8);
+            receiver.addOutput(bytes, 0, bytes.length);
+            receiver.flush();
+        }
+    }
+
+    /** Test that sessions of the same device run one at a time, in order. */
+    @Test
+    public void testSubmit_sameDevice() throws Exception {
+        IShellEnabledDevice device = new FakeDevice("device0");
+        AtomicInteger running = new AtomicInteger();
+        List<Integer> order = new ArrayList<>();
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        try (DeviceSessionExecutor executor = new DeviceSessionExecutor(10)) {
+            for (int i = 0; i < 5; i++) {
+                int index = i;
+                futures.add(executor.submit(device, d -> {
+                    assertEquals(1, running.incrementAndGet());
+                    Thread.sleep(5);
+                    synchronized (order) {
+                        order.add(index);
+                    }
+                    running.decrementAndGet();
+                    return index;
+                }));
+            }
+            for (int i = 0; i < 5; i++) {
+                assertEquals(i, (int) futures.get(i).get(10, TimeUnit.SECONDS));
+            }
+        }
+        assertEquals(List.of(0, 1, 2, 3, 4), order);
+    }
+
+    /** Test that no more than the maximum number of sessions run at the same time. */
+    @Test
+    public void testSubmit_concurrencyLimit() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(20);
+        try (DeviceSessionExecutor executor = new DeviceSessionExecutor(3)) {
+            for (int i = 0; i < 20; i++) {
+                executor.submit(new FakeDevice("device" + i), d -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    Thread.sleep(10);
+                    running.decrementAndGet();
+                    done.countDown();
+                    return null;
+                });
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        }
+        assertTrue(maxRunning.get() <= 3);
+    }
+
+    /** Test that a failing session completes its future exceptionally. */
+    @Test
+    public void testSubmit_failure() throws Exception {
+        try (DeviceSessionExecutor executor = new DeviceSessionExecutor(1)) {
+            CompletableFuture<Object> future = executor.submit(new FakeDevice("device0"), d -> {
+                throw new IOException("device offline");
+            });
+            try {
+                future.get(10, TimeUnit.SECONDS);
+                fail("ExecutionException not thrown");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+        }
+    }
+
+    /** Test that a test run is returned as a {@link TestRunResult}. */
+    @Test
+    public void testSubmitRun() throws Exception {
+        try (DeviceSessionExecutor executor = new DeviceSessionExecutor(2)) {
+            TestRunResult result = executor.submitRun(new FakeDevice("device0"),
+                    device -> new RemoteAndroidTestRunner("com.test", "runner", device))
+                    .get(10, TimeUnit.SECONDS);
+            assertTrue(result.isRunComplete());
+            assertFalse(result.isRunFailure());
+            assertEquals(1, result.getNumTests());
+        }
+    }
+}
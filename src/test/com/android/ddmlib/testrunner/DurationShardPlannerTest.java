@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib.testrunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+/** Unit tests for {@link DurationShardPlanner} */
+public class DurationShardPlannerTest {
+
+    @Test
+    public void testPlan() {
+        DurationShardPlanner planner = new DurationShardPlanner();
+        planner.addDuration("FooTest#test1", 700);
+        planner.addDuration("FooTest#test2", 500);
+        planner.addDuration("FooTest#test3", 400);
+        planner.addDuration("FooTest#test4", 300);
+        planner.addDuration("FooTest#test5", 100);
+
+        List<List<String>> shards = planner.plan(Arrays.asList(
+                "FooTest#test5", "FooTest#test4", "FooTest#test3", "FooTest#test2",
+                "FooTest#test1"), 2);
+
+        assertEquals(Arrays.asList("FooTest#test1", "FooTest#test4"), shards.get(0));
+        assertEquals(Arrays.asList("FooTest#test2", "FooTest#test3", "FooTest#test5"),
+                shards.get(1));
+    }
+
+    /** Test that no shard is empty when there are fewer tests than shards. */
+    @Test
+    public void testPlan_fewerTestsThanShards() {
+        DurationShardPlanner planner = new DurationShardPlanner();
+
+        List<List<String>> shards =
+                planner.plan(Arrays.asList("FooTest#test1", "FooTest#test2"), 4);
+
+        assertEquals(2, shards.size());
+        assertEquals(Collections.singletonList("FooTest#test1"), shards.get(0));
+        assertEquals(Collections.singletonList("FooTest#test2"), shards.get(1));
+        assertTrue(planner.plan(Collections.emptyList(), 4).isEmpty());
+    }
+
+    /** Test that an empty selection is rejected rather than running all the tests. */
+    @Test
+    public void testSelectTests_empty() {
+        RemoteAndroidTestRunner runner = new RemoteAndroidTestRunner("com.foo",
+                "androidx.test.runner.AndroidJUnitRunner", new SimulatedInstrumentationDevice("d"));
+        try {
+            DurationShardPlanner.selectTests(runner, Collections.emptyList());
+            fail("IllegalArgumentException not thrown");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /** Test that class durations are the sum of the method durations. */
+    @Test
+    public void testEstimate_class() {
+        DurationShardPlanner planner = new DurationShardPlanner();
+        planner.addDuration("FooTest#test1", 100);
+        planner.addDuration("FooTest#test2", 200);
+        planner.addDuration("BarTest", 50);
+
+        assertEquals(300, planner.estimate("FooTest"));
+        assertEquals(50, planner.estimate("BarTest"));
+    }
+
+    /** Test the estimate of tests without history. */
+    @Test
+    public void testEstimate_unknown() {
+        DurationShardPlanner planner = new DurationShardPlanner();
+        planner.addDuration("FooTest#test1", 100);
+        planner.addDuration("FooTest#test2", 300);
+        assertEquals(200, planner.estimate("FooTest#test3"));
+        planner.setDefaultDuration(1000);
+        assertEquals(1000, planner.estimate("FooTest#test3"));
+    }
+
+    /** Test that durations are read from a previous run. */
+    @Test
+    public void testAddHistory() {
+        TestIdentifier test = new TestIdentifier("FooTest", "testBar");
+        TestRunResult result = new TestRunResult();
+        result.testStarted(test, 5l);
+        result.testEnded(test, 25l, Collections.emptyMap());
+
+        DurationShardPlanner planner = new DurationShardPlanner();
+        planner.addHistory(result);
+        assertEquals(20, planner.estimate("FooTest#testBar"));
+    }
+}
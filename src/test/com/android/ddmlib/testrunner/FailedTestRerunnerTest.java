@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.testrunner.TestResult.TestStatus;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link FailedTestRerunner}.
+ */
+public class FailedTestRerunnerTest extends TestCase {
+
+    private static final String TEST_PACKAGE = "com.test";
+    private static final String TEST_RUNNER = "androidx.test.runner.AndroidJUnitRunner";
+
+    private static final TestIdentifier TEST1 = new TestIdentifier("com.test.FooTest", "test1");
+    private static final TestIdentifier TEST2 = new TestIdentifier("com.test.FooTest", "test2");
+    private static final TestIdentifier TEST3 = new TestIdentifier("com.test.BarTest", "test3");
+
+    private SimulatedInstrumentationDevice mDevice0;
+    private SimulatedInstrumentationDevice mDevice1;
+    private FailedTestRerunner mRerunner;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        List<String> tests = Arrays.asList(
+                "com.test.FooTest#test1", "com.test.FooTest#test2", "com.test.BarTest#test3");
+        mDevice0 = new SimulatedInstrumentationDevice("device0");
+        mDevice0.setTests(tests);
+        mDevice1 = new SimulatedInstrumentationDevice("device1");
+        mDevice1.setTests(tests);
+        mRerunner = new FailedTestRerunner(Arrays.asList(mDevice0, mDevice1),
+                device -> new RemoteAndroidTestRunner(TEST_PACKAGE, TEST_RUNNER, device));
+    }
+
+    /** Returns a run where test1 passed, test2 failed and test3 never ended. */
+    private static TestRunResult createRunResult() {
+        TestRunResult runResult = new TestRunResult();
+        runResult.testRunStarted("run", 3);
+        runResult.testStarted(TEST1, 1);
+        runResult.testEnded(TEST1, 2, Collections.emptyMap());
+        runResult.testStarted(TEST2, 3);
+        runResult.testFailed(TEST2, "trace");
+        runResult.testEnded(TEST2, 4, Collections.emptyMap());
+        runResult.testStarted(TEST3, 5);
+        runResult.testRunFailed("crash");
+        runResult.testRunEnded(10, Collections.emptyMap());
+        return runResult;
+    }
+
+    /**
+     * Test that failed and incomplete tests are rerun and their results replaced.
+     */
+    public void testRerun() throws Exception {
+        TestRunResult runResult = createRunResult();
+        Map<TestIdentifier, List<TestResult>> attempts = mRerunner.rerun(runResult);
+
+        assertEquals(2, attempts.size());
+        assertEquals(2, attempts.get(TEST2).size());
+        assertEquals(TestStatus.FAILURE, attempts.get(TEST2).get(0).getStatus());
+        assertEquals(TestStatus.PASSED, attempts.get(TEST3).get(1).getStatus());
+        assertEquals(3, runResult.getNumTestsInState(TestStatus.PASSED));
+        assertEquals("1", runResult.getTestResults().get(TEST2).getMetrics()
+                .get(FailedTestRerunner.ATTEMPT_METRIC));
+        assertNull(runResult.getTestResults().get(TEST1).getMetrics()
+                .get(FailedTestRerunner.ATTEMPT_METRIC));
+        assertEquals(1, mDevice0.getCommands().size() + mDevice1.getCommands().size());
+    }
+
+    /**
+     * Test that a test failing consistently is rerun the maximum number of times.
+     */
+    public void testRerun_maxAttempts() throws Exception {
+        mDevice0.addFailingTest("com.test.FooTest#test2");
+        mRerunner.setParallel(false);
+        mRerunner.setMaxAttempts(3);
+        TestRunResult runResult = createRunResult();
+        Map<TestIdentifier, List<TestResult>> attempts = mRerunner.rerun(runResult);
+
+        assertEquals(4, attempts.get(TEST2).size());
+        assertEquals(2, attempts.get(TEST3).size());
+        assertEquals(TestStatus.FAILURE, runResult.getTestResults().get(TEST2).getStatus());
+        assertEquals("3", runResult.getTestResults().get(TEST2).getMetrics()
+                .get(FailedTestRerunner.ATTEMPT_METRIC));
+        assertEquals(3, mDevice0.getCommands().size());
+        assertEquals(0, mDevice1.getCommands().size());
+    }
+
+    /**
+     * Test that a test which doesn't end in its rerun stays incomplete, with its attempt recorded.
+     */
+    public void testMerge_incomplete() {
+        TestRunResult runResult = createRunResult();
+        TestResult rerun = new TestResult();
+        rerun.setStartTime(20);
+        FailedTestRerunner.merge(runResult, TEST2, rerun, 1);
+
+        TestResult result = runResult.getTestResults().get(TEST2);
+        assertEquals(TestStatus.INCOMPLETE, result.getStatus());
+        assertEquals("1", result.getMetrics().get(FailedTestRerunner.ATTEMPT_METRIC));
+    }
+
+    /**
+     * Test that tests are packed under the command length limit.
+     */
+    public void testPackBatches() {
+        int baseLength = new RemoteAndroidTestRunner(TEST_PACKAGE, TEST_RUNNER, mDevice0)
+                .getAmInstrumentCommand().length() + " -e class ''".length();
+        mRerunner.setMaxCommandLength(baseLength + "a#1,b#2".length());
+        List<List<String>> batches = mRerunner.packBatches(
+                Arrays.asList("a#1", "b#2", "c#3", "long#test"));
+        assertEquals(Arrays.asList(Arrays.asList("a#1", "b#2"), Arrays.asList("c#3"),
+                Arrays.asList("long#test")), batches);
+    }
+}
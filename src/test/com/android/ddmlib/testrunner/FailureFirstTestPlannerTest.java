@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.testrunner.TestResult.TestStatus;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link FailureFirstTestPlanner}.
+ */
+public class FailureFirstTestPlannerTest extends TestCase {
+
+    private static final String TEST_PACKAGE = "com.test";
+    private static final String TEST_RUNNER = "androidx.test.runner.AndroidJUnitRunner";
+
+    private FailureFirstTestPlanner mPlanner;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPlanner = new FailureFirstTestPlanner();
+    }
+
+    /**
+     * Test that tests are ordered by failure probability per expected duration.
+     */
+    public void testOrder() {
+        for (int i = 0; i < 8; i++) {
+            mPlanner.addResult("com.test.FooTest#passing", false, 100);
+            // fails half the time but is slow
+            mPlanner.addResult("com.test.FooTest#slowFlaky", i % 2 == 0, 60000);
+            mPlanner.addResult("com.test.FooTest#failing", true, 100);
+        }
+        mPlanner.setDefaultDuration(5000);
+        List<String> ordered = mPlanner.order(Arrays.asList("com.test.FooTest#passing",
+                "com.test.FooTest#slowFlaky", "com.test.FooTest#new",
+                "com.test.FooTest#failing"));
+        assertEquals(Arrays.asList("com.test.FooTest#failing", "com.test.FooTest#passing",
+                "com.test.FooTest#new", "com.test.FooTest#slowFlaky"), ordered);
+    }
+
+    /**
+     * Test that the batches grow geometrically, in score order.
+     */
+    public void testPlanBatches() {
+        List<String> tests = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            tests.add("com.test.FooTest#test" + i);
+        }
+        mPlanner.addResult("com.test.FooTest#test17", true, 10);
+        mPlanner.setFirstBatchSize(2);
+        List<List<String>> batches = mPlanner.planBatches(tests,
+                new RemoteAndroidTestRunner(TEST_PACKAGE, TEST_RUNNER, null));
+
+        assertEquals(4, batches.size());
+        assertEquals(Arrays.asList("com.test.FooTest#test17", "com.test.FooTest#test0"),
+                batches.get(0));
+        assertEquals(4, batches.get(1).size());
+        assertEquals(8, batches.get(2).size());
+        assertEquals(6, batches.get(3).size());
+    }
+
+    /**
+     * Test that the likely failures are reported by the first instrumentation.
+     */
+    public void testRun_failuresFirst() throws Exception {
+        List<String> tests = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            tests.add("com.test.FooTest#test" + i);
+        }
+        SimulatedInstrumentationDevice device = new SimulatedInstrumentationDevice("device0");
+        device.setTests(tests);
+        device.addFailingTest("com.test.FooTest#test8");
+        TestRunResult previous = new TestRunResult();
+        new RemoteAndroidTestRunner(TEST_PACKAGE, TEST_RUNNER, device).run(previous);
+        mPlanner.addHistory(previous);
+
+        mPlanner.setFirstBatchSize(1);
+        WorkStealingTestScheduler scheduler = new WorkStealingTestScheduler(
+                Collections.singletonList(device),
+                d -> new RemoteAndroidTestRunner(TEST_PACKAGE, TEST_RUNNER, d));
+        List<String> failures = new ArrayList<>();
+        TestRunResult result = new TestRunResult() {
+            @Override
+            public void testFailed(TestIdentifier test, String trace) {
+                super.testFailed(test, trace);
+                failures.add(test.getTestName() + "@" + getNumTests());
+            }
+        };
+        scheduler.runBatches(mPlanner.planBatches(tests,
+                new RemoteAndroidTestRunner(TEST_PACKAGE, TEST_RUNNER, device)),
+                Collections.singletonList(result));
+
+        assertEquals(Collections.singletonList("test8@1"), failures);
+        assertEquals(10, result.getNumTests());
+        assertEquals(9, result.getNumTestsInState(TestStatus.PASSED));
+        String firstCommand = device.getCommands().get(1);
+        assertTrue(firstCommand.contains("com.test.FooTest#test8"));
+        assertFalse(firstCommand.contains("com.test.FooTest#test0"));
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.testrunner.TestResult.TestStatus;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link InstrumentationResultParserPool}.
+ */
+public class InstrumentationResultParserPoolTest extends TestCase {
+
+    private static final String TEST_PACKAGE = "com.test";
+    private static final String TEST_RUNNER = "androidx.test.runner.AndroidJUnitRunner";
+
+    private final InstrumentationResultParserPool mPool = new InstrumentationResultParserPool(1);
+
+    /** Tests that a reused parser reports a run as a new parser would. */
+    public void testReuse() {
+        TestRunResult first = new TestRunResult();
+        InstrumentationResultParser parser =
+                mPool.acquire("first", Collections.singletonList(first));
+        // a failed run, ending in the middle of a line
+        addOutput(parser, "INSTRUMENTATION_STATUS: class=com.foo.FooTest\n"
+                + "INSTRUMENTATION_STATUS: test=testFoo\n"
+                + "INSTRUMENTATION_STATUS: numtests=2\n"
+                + "INSTRUMENTATION_STATUS_CODE: 1\n"
+                + "INSTRUMENTATION_RESULT: extra=value\n"
+                + "INSTRUMENTATION_RESULT: other=\n"
+                + "INSTRUMENTATION_STATUS: cla");
+        parser.handleTestRunFailed("crash");
+        assertTrue(first.isRunFailure());
+        mPool.release(parser);
+        assertEquals(1, mPool.getPooledCount());
+
+        TestRunResult second = new TestRunResult();
+        assertSame(parser, mPool.acquire("second", Collections.singletonList(second)));
+        assertEquals(0, mPool.getPooledCount());
+        addOutput(parser, "INSTRUMENTATION_STATUS: class=com.foo.FooTest\n"
+                + "INSTRUMENTATION_STATUS: test=testBar\n"
+                + "INSTRUMENTATION_STATUS: numtests=1\n"
+                + "INSTRUMENTATION_STATUS_CODE: 1\n"
+                + "INSTRUMENTATION_STATUS: class=com.foo.FooTest\n"
+                + "INSTRUMENTATION_STATUS: test=testBar\n"
+                + "INSTRUMENTATION_STATUS: numtests=1\n"
+                + "INSTRUMENTATION_STATUS_CODE: 0\n"
+                + "INSTRUMENTATION_CODE: -1\n");
+        parser.flush();
+
+        assertEquals("second", second.getName());
+        assertFalse(second.getRunFailureMessage(), second.isRunFailure());
+        assertEquals(1, second.getNumTestsInState(TestStatus.PASSED));
+        assertTrue(second.getRunMetrics().isEmpty());
+        // the first run is not reported to anymore
+        assertEquals(1, first.getNumTests());
+        assertEquals("value", first.getRunMetrics().get("extra"));
+    }
+
+    /** Tests that the pool keeps at most the given number of parsers. */
+    public void testMaxPooled() {
+        InstrumentationResultParser first = mPool.acquire("run", Collections.emptyList());
+        InstrumentationResultParser second = mPool.acquire("run", Collections.emptyList());
+        assertNotSame(first, second);
+        mPool.release(first);
+        mPool.release(second);
+        assertEquals(1, mPool.getPooledCount());
+    }
+
+    /** Tests that a runner with a pool reuses its parser. */
+    public void testRunner() throws Exception {
+        SimulatedInstrumentationDevice device = new SimulatedInstrumentationDevice("device0");
+        device.setTests(Arrays.asList("com.foo.FooTest#testFoo", "com.foo.FooTest#testBar"));
+        device.addFailingTest("com.foo.FooTest#testBar");
+        RemoteAndroidTestRunner runner =
+                new RemoteAndroidTestRunner(TEST_PACKAGE, TEST_RUNNER, device);
+        runner.setParserPool(mPool);
+        for (int i = 0; i < 3; i++) {
+            TestRunResult result = new TestRunResult();
+            runner.run(result);
+            assertEquals(1, result.getNumTestsInState(TestStatus.PASSED));
+            assertEquals(1, result.getNumTestsInState(TestStatus.FAILURE));
+            assertFalse(result.isRunFailure());
+            assertEquals(1, mPool.getPooledCount());
+        }
+    }
+
+    private static void addOutput(InstrumentationResultParser parser, String output) {
+        byte[] bytes = output.getBytes(StandardCharsets.UTF_8);
+        parser.addOutput(bytes, 0, bytes.length);
+    }
+}
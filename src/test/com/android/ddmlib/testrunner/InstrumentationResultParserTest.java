@@ -360,6 +360,39 @@ public class InstrumentationResultParserTest extends TestCase {
         assertEquals("3", captureMetrics.getValue().get("numiterations"));
     }
 
+    /**
+     * Tests that the class names and metric keys repeated by the tests of a run are shared.
+     */
+    public void testParse_internedNames() {
+        StringBuilder output = new StringBuilder();
+        for (String testName : new String[] {"testFoo", "testBar"}) {
+            addStatusKey(output, "class", CLASS_NAME);
+            addStatusKey(output, "test", testName);
+            addStatusKey(output, "numtests", "2");
+            addStartCode(output);
+            addStatusKey(output, "class", CLASS_NAME);
+            addStatusKey(output, "test", testName);
+            addStatusKey(output, "numtests", "2");
+            addStatusKey(output, "time_nanos_median", "42");
+            addSuccessCode(output);
+        }
+        addTimeStamp(output);
+        TestRunResult result = new TestRunResult();
+        mParser = new InstrumentationResultParser(RUN_NAME, result);
+
+        injectTestString(output.toString());
+
+        TestIdentifier[] tests = result.getTestResults().keySet().toArray(new TestIdentifier[0]);
+        assertEquals(2, tests.length);
+        assertSame(tests[0].getClassName(), tests[1].getClassName());
+        String firstKey = result.getTestResults().get(tests[0]).getMetrics().keySet().iterator()
+                .next();
+        String secondKey = result.getTestResults().get(tests[1]).getMetrics().keySet().iterator()
+                .next();
+        assertEquals("time_nanos_median", firstKey);
+        assertSame(firstKey, secondKey);
+    }
+
     /**
      * Test parsing output for a test failure.
      */
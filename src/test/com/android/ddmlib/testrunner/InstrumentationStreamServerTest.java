@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib.testrunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link InstrumentationStreamServer}.
+ */
+public class InstrumentationStreamServerTest extends TestCase {
+
+    private final Map<String, TestRunResult> mResults = new ConcurrentHashMap<>();
+    private CountDownLatch mRunsEnded;
+    private InstrumentationStreamServer mServer;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mServer != null) {
+            mServer.close();
+        }
+        super.tearDown();
+    }
+
+    /** Tests that concurrent connections are parsed as separate runs. */
+    public void testConcurrentConnections() throws Exception {
+        startServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 2);
+        try (SocketChannel first = SocketChannel.open(mServer.getLocalAddress());
+                SocketChannel second = SocketChannel.open(mServer.getLocalAddress())) {
+            // interleave the output of both runs
+            write(first, InstrumentationStreamServer.RUN_NAME_HEADER + "device1\n");
+            write(second, InstrumentationStreamServer.RUN_NAME_HEADER + "device2\n");
+            write(first, getTestOutput("testFoo", 1, 1));
+            write(second, getTestOutput("testBar", 1, 1));
+            write(second, getTestOutput("testBar", 1, -2));
+            write(first, getTestOutput("testFoo", 1, 0));
+            write(first, "INSTRUMENTATION_CODE: -1\n");
+            write(second, "INSTRUMENTATION_CODE: -1\n");
+        }
+        assertTrue(mRunsEnded.await(10, TimeUnit.SECONDS));
+
+        TestRunResult device1 = mResults.get("device1");
+        assertFalse(device1.isRunFailure());
+        assertEquals(1, device1.getNumTestsInState(TestResult.TestStatus.PASSED));
+        TestRunResult device2 = mResults.get("device2");
+        assertFalse(device2.isRunFailure());
+        assertEquals(1, device2.getNumTestsInState(TestResult.TestStatus.FAILURE));
+        waitForConnections(0);
+    }
+
+    /** Tests that a connection closed in the middle of a test is reported as incomplete. */
+    public void testUnixDomainSocket() throws Exception {
+        File socket = File.createTempFile("ingest", ".sock");
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(socket.toPath());
+        startServer(address, 1);
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(address);
+            write(channel, InstrumentationStreamServer.RUN_NAME_HEADER + "device1\n");
+            write(channel, getTestOutput("testFoo", 2, 1));
+        }
+        assertTrue(mRunsEnded.await(10, TimeUnit.SECONDS));
+
+        TestRunResult result = mResults.get("device1");
+        assertTrue(result.isRunFailure());
+        assertEquals(1, result.getNumTestsInState(TestResult.TestStatus.FAILURE));
+        mServer.close();
+        assertFalse(Files.exists(socket.toPath()));
+    }
+
+    /** Tests that the runs in progress fail when the server is closed. */
+    public void testClose() throws Exception {
+        startServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+        try (SocketChannel channel = SocketChannel.open(mServer.getLocalAddress())) {
+            write(channel, getTestOutput("testFoo", 1, 1));
+            waitForConnections(1);
+            mServer.close();
+        }
+        assertTrue(mRunsEnded.await(10, TimeUnit.SECONDS));
+
+        TestRunResult result = mResults.get("connection-1");
+        assertEquals(InstrumentationStreamServer.SERVER_STOPPED_MSG,
+                result.getRunFailureMessage());
+    }
+
+    /** Tests that the other listeners of a run are told that it failed when a listener throws. */
+    public void testListenerFailure() throws Exception {
+        mRunsEnded = new CountDownLatch(1);
+        TestRunResult result = new TestRunResult() {
+            @Override
+            public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+                super.testRunEnded(elapsedTime, runMetrics);
+                mRunsEnded.countDown();
+            }
+        };
+        ITestRunListener failing = new TestRunResult() {
+            @Override
+            public void testStarted(TestIdentifier test) {
+                throw new IllegalStateException("broken listener");
+            }
+        };
+        mServer = new InstrumentationStreamServer(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                runName -> Arrays.asList(failing, result));
+        mServer.start();
+        try (SocketChannel channel = SocketChannel.open(mServer.getLocalAddress())) {
+            write(channel, getTestOutput("testFoo", 1, 1));
+            assertTrue(mRunsEnded.await(10, TimeUnit.SECONDS));
+        }
+
+        assertTrue(result.isRunFailure());
+        assertTrue(result.getRunFailureMessage().contains("broken listener"));
+        waitForConnections(0);
+    }
+
+    private void startServer(SocketAddress address, int runCount) throws IOException {
+        mRunsEnded = new CountDownLatch(runCount);
+        mServer = new InstrumentationStreamServer(address, runName -> {
+            TestRunResult result = new TestRunResult() {
+                @Override
+                public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+                    super.testRunEnded(elapsedTime, runMetrics);
+                    mRunsEnded.countDown();
+                }
+            };
+            mResults.put(runName, result);
+            return Collections.singletonList(result);
+        });
+        mServer.start();
+    }
+
+    private void waitForConnections(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (mServer.getOpenConnectionCount() != count) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static void write(SocketChannel channel, String output) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(output.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static String getTestOutput(String testName, int numTests, int statusCode) {
+        return "INSTRUMENTATION_STATUS: class=com.foo.FooTest\n"
+                + "INSTRUMENTATION_STATUS: current=1\n"
+                + "INSTRUMENTATION_STATUS: numtests=" + numTests + "\n"
+                + "INSTRUMENTATION_STATUS: test=" + testName + "\n"
+                + "INSTRUMENTATION_STATUS_CODE: " + statusCode + "\n";
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib.testrunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Unit tests for {@link JsonLinesTestRunListener}. */
+public class JsonLinesTestRunListenerTest {
+
+    private ByteArrayOutputStream mOutputStream;
+    private JsonLinesTestRunListener mListener;
+
+    @Before
+    public void setUp() {
+        mOutputStream = new ByteArrayOutputStream();
+        mListener = new JsonLinesTestRunListener(mOutputStream);
+    }
+
+    @Test
+    public void testSingleFail() {
+        TestIdentifier testId = new TestIdentifier("FooTest", "testFoo");
+        Map<String, String> metrics = new LinkedHashMap<>();
+        metrics.put("key", "value");
+        mListener.testRunStarted("run", 1);
+        mListener.testStarted(testId);
+        mListener.testFailed(testId, "trace \"quoted\"\n\tat Foo");
+        mListener.testEnded(testId, metrics);
+        mListener.testRunEnded(3, Collections.emptyMap());
+
+        String[] lines = getOutput().split("\n");
+        assertEquals(3, lines.length);
+        assertEquals("{\"event\":\"testRunStarted\",\"runName\":\"run\",\"testCount\":1}", lines[0]);
+        assertTrue(lines[1].startsWith(
+                "{\"event\":\"test\",\"class\":\"FooTest\",\"test\":\"testFoo\","
+                        + "\"status\":\"FAILURE\",\"startTime\":"));
+        assertTrue(lines[1].endsWith(
+                ",\"trace\":\"trace \\\"quoted\\\"\\n\\tat Foo\",\"metrics\":{\"key\":\"value\"}}"));
+        assertEquals("{\"event\":\"testRunEnded\",\"elapsedTime\":3,\"metrics\":{}}", lines[2]);
+    }
+
+    /** Test that output is available before the run ends. */
+    @Test
+    public void testStreamsBeforeRunEnd() {
+        TestIdentifier testId = new TestIdentifier("FooTest", "testFoo");
+        mListener.testRunStarted("run", 2);
+        mListener.testStarted(testId);
+        mListener.testEnded(testId, Collections.emptyMap());
+
+        String[] lines = getOutput().split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[1].contains("\"status\":\"PASSED\""));
+    }
+
+    @Test
+    public void testReportEvents() {
+        TestIdentifier testId = new TestIdentifier("FooTest", "testFoo");
+        mListener.setReportEvents(true);
+        mListener.testRunStarted("run", 1);
+        mListener.testStarted(testId);
+        mListener.testIgnored(testId);
+        mListener.testEnded(testId, Collections.emptyMap());
+        mListener.testRunFailed("bad\u0001");
+        mListener.testRunEnded(3, Collections.emptyMap());
+
+        String[] lines = getOutput().split("\n");
+        assertEquals(6, lines.length);
+        assertTrue(lines[1].startsWith("{\"event\":\"testStarted\",\"class\":\"FooTest\""));
+        assertEquals(
+                "{\"event\":\"testIgnored\",\"class\":\"FooTest\",\"test\":\"testFoo\"}", lines[2]);
+        assertTrue(lines[3].startsWith("{\"event\":\"testEnded\""));
+        assertEquals("{\"event\":\"testRunFailed\",\"message\":\"bad\\u0001\"}", lines[4]);
+    }
+
+    private String getOutput() {
+        return new String(mOutputStream.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib.testrunner;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link MetricMap}.
+ */
+public class MetricMapTest extends TestCase {
+
+    private final MetricMap.Arena mArena = new MetricMap.Arena();
+
+    /** Tests that the metrics are kept in the order in which they were added. */
+    public void testAdd() {
+        MetricMap metrics = new MetricMap(mArena);
+        assertFalse(metrics.add("b", new StringBuilder("1")));
+        assertFalse(metrics.add("a", new StringBuilder("2")));
+        assertTrue(metrics.add("b", new StringBuilder("3")));
+
+        assertEquals(2, metrics.size());
+        assertEquals("3", metrics.get("b"));
+        assertEquals("2", metrics.get("a"));
+        assertNull(metrics.get("c"));
+        assertNull(metrics.get(null));
+        assertTrue(metrics.containsKey("a"));
+        assertEquals(Arrays.asList("b", "a"), Arrays.asList(metrics.keySet().toArray()));
+        assertEquals("{b=3, a=2}", metrics.toString());
+    }
+
+    /** Tests that a value is created once, when first read. */
+    public void testValueCached() {
+        MetricMap metrics = new MetricMap(mArena);
+        metrics.add("key", new StringBuilder("value"));
+        String value = metrics.get("key");
+        assertSame(value, metrics.get("key"));
+        assertSame(value, metrics.entrySet().iterator().next().getValue());
+    }
+
+    /** Tests that the values of a map aren't changed by the builder or the next maps. */
+    public void testArenaShared() {
+        StringBuilder builder = new StringBuilder();
+        MetricMap first = new MetricMap(mArena);
+        Map<String, String> expected = new HashMap<>();
+        for (int i = 0; i < 2000; i++) {
+            builder.setLength(0);
+            builder.append("value").append(i);
+            first.add("key" + i, builder);
+            expected.put("key" + i, "value" + i);
+        }
+        // a value larger than the chunks of the arena
+        char[] large = new char[10000];
+        Arrays.fill(large, 'x');
+        builder.setLength(0);
+        builder.append(large);
+        first.add("large", builder);
+        expected.put("large", builder.toString());
+
+        MetricMap second = new MetricMap(mArena);
+        builder.setLength(0);
+        builder.append("other");
+        second.add("key0", builder);
+
+        assertEquals(expected, first);
+        assertEquals(expected.hashCode(), first.hashCode());
+        assertEquals("other", second.get("key0"));
+    }
+
+    /** Tests that the map can be modified, without changing the metrics as reported. */
+    public void testModified() {
+        MetricMap metrics = new MetricMap(mArena);
+        metrics.add("a", new StringBuilder("1"));
+        metrics.add("b", new StringBuilder("2"));
+        metrics.add("c", new StringBuilder("3"));
+
+        assertEquals("1", metrics.entrySet().iterator().next().setValue("4"));
+        assertEquals("4", metrics.get("a"));
+        assertNull(metrics.put("d", "5"));
+        assertEquals("2", metrics.remove("b"));
+        Iterator<Map.Entry<String, String>> iterator = metrics.entrySet().iterator();
+        iterator.next();
+        iterator.remove();
+
+        assertEquals("{c=3, d=5}", metrics.toString());
+        assertEquals(2, metrics.size());
+        assertFalse(metrics.containsKey("a"));
+        assertNull(metrics.get("b"));
+        assertEquals(3, metrics.reportedSize());
+        assertEquals("a", metrics.keyAt(0));
+        assertEquals("2", metrics.getValue(metrics.indexOf("b")));
+
+        metrics.clear();
+        assertTrue(metrics.isEmpty());
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.testrunner.TestResult.TestStatus;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link ResumableTestRunner}.
+ */
+public class ResumableTestRunnerTest extends TestCase {
+
+    private static final String TEST_PACKAGE = "com.test";
+    private static final String TEST_RUNNER = "androidx.test.runner.AndroidJUnitRunner";
+
+    private SimulatedInstrumentationDevice mDevice;
+    private List<TestIdentifier> mTests;
+    private ResumableTestRunner mRunner;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTests = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            String className = i < 5 ? "com.test.FooTest" : "com.test.BarTest";
+            mTests.add(new TestIdentifier(className, "test" + i));
+            names.add(className + "#test" + i);
+        }
+        mDevice = new SimulatedInstrumentationDevice("device0");
+        mDevice.setTests(names);
+        mRunner = new ResumableTestRunner(mDevice,
+                device -> new RemoteAndroidTestRunner(TEST_PACKAGE, TEST_RUNNER, device));
+    }
+
+    /**
+     * Test that the remaining tests are run after each crash, in a single run.
+     */
+    public void testRun_crashes() throws Exception {
+        // Every instrumentation crashes in its fourth test.
+        mDevice.setCrashAfter(3);
+        TestRunResult result = new TestRunResult();
+        mRunner.run(mTests, result);
+
+        assertEquals(3, mRunner.getLaunchCount());
+        assertTrue(result.isRunComplete());
+        assertFalse(result.isRunFailure());
+        assertEquals(10, result.getNumTests());
+        assertEquals(8, result.getNumTestsInState(TestStatus.PASSED));
+        assertEquals(TestStatus.FAILURE, result.getTestResults()
+                .get(new TestIdentifier("com.test.FooTest", "test3")).getStatus());
+        assertEquals(TestStatus.FAILURE, result.getTestResults()
+                .get(new TestIdentifier("com.test.BarTest", "test7")).getStatus());
+
+        List<String> commands = mDevice.getCommands();
+        assertFalse(commands.get(0).contains("-e class"));
+        // BarTest has no test started, so it is selected as a whole.
+        assertTrue(commands.get(1).contains(
+                "-e class 'com.test.FooTest#test4,com.test.BarTest'"));
+        assertTrue(commands.get(2).contains(
+                "-e class 'com.test.BarTest#test8,com.test.BarTest#test9'"));
+    }
+
+    /**
+     * Test that a run without crash is launched once.
+     */
+    public void testRun_noCrash() throws Exception {
+        TestRunResult result = new TestRunResult();
+        mRunner.run(mTests, result);
+
+        assertEquals(1, mRunner.getLaunchCount());
+        assertFalse(result.isRunFailure());
+        assertEquals(10, result.getNumTestsInState(TestStatus.PASSED));
+    }
+
+    /**
+     * Test that the run fails with the tests not run when the relaunches are exhausted.
+     */
+    public void testRun_maxRelaunches() throws Exception {
+        mDevice.setCrashAfter(3);
+        mRunner.setMaxRelaunches(1);
+        TestRunResult result = new TestRunResult();
+        mRunner.run(mTests, result);
+
+        assertEquals(2, mRunner.getLaunchCount());
+        assertTrue(result.isRunFailure());
+        assertTrue(result.getRunFailureMessage().contains(
+                "2 tests were not run: com.test.BarTest#test8, com.test.BarTest#test9"));
+        assertEquals(10, result.getNumTests());
+        assertEquals(ResumableTestRunner.NOT_RUN_MSG, result.getTestResults()
+                .get(new TestIdentifier("com.test.BarTest", "test9")).getStackTrace());
+    }
+
+    /**
+     * Test that the tests a relaunched instrumentation ends without running are reported as
+     * failed.
+     */
+    public void testRun_unreportedTests() throws Exception {
+        mDevice.setCrashAfter(3);
+        // The device does not have this test, so no instrumentation runs it.
+        mTests.add(new TestIdentifier("com.test.BazTest", "test10"));
+        TestRunResult result = new TestRunResult();
+        mRunner.run(mTests, result);
+
+        assertEquals(3, mRunner.getLaunchCount());
+        assertTrue(result.isRunComplete());
+        assertTrue(result.getRunFailureMessage().contains(
+                "1 tests were not run: com.test.BazTest#test10"));
+        assertEquals(11, result.getNumTests());
+        assertEquals(8, result.getNumTestsInState(TestStatus.PASSED));
+        assertEquals(ResumableTestRunner.NOT_RUN_MSG, result.getTestResults()
+                .get(new TestIdentifier("com.test.BazTest", "test10")).getStackTrace());
+    }
+
+    /**
+     * Test that the tests not run are reported as failed when the runner throws.
+     */
+    public void testRun_unresponsive() throws Exception {
+        mDevice.setStall(5, -1);
+        mRunner = new ResumableTestRunner(mDevice, device -> {
+            RemoteAndroidTestRunner runner =
+                    new RemoteAndroidTestRunner(TEST_PACKAGE, TEST_RUNNER, device);
+            runner.setMaxTimeToOutputResponse(100, TimeUnit.MILLISECONDS);
+            return runner;
+        });
+        TestRunResult result = new TestRunResult();
+        try {
+            mRunner.run(mTests, result);
+            fail("ShellCommandUnresponsiveException not thrown");
+        } catch (ShellCommandUnresponsiveException e) {
+            // expected
+        }
+
+        assertEquals(1, mRunner.getLaunchCount());
+        assertTrue(result.isRunComplete());
+        assertTrue(result.getRunFailureMessage().contains("5 tests were not run"));
+        assertEquals(10, result.getNumTests());
+        assertEquals(5, result.getNumTestsInState(TestStatus.PASSED));
+        assertEquals(ResumableTestRunner.NOT_RUN_MSG, result.getTestResults()
+                .get(new TestIdentifier("com.test.BarTest", "test5")).getStackTrace());
+    }
+}
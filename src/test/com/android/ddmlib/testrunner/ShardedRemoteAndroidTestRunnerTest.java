@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.IShellEnabledDevice;
+import com.android.ddmlib.IShellOutputReceiver;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link ShardedRemoteAndroidTestRunner}.
+ */
+public class ShardedRemoteAndroidTestRunnerTest extends TestCase {
+
+    private static final String TEST_PACKAGE = "com.test";
+    private static final String TEST_RUNNER = "com.test.InstrumentationTestRunner";
+
+    /**
+     * Fake device which outputs a passing test named after the shard it was asked to run, or
+     * fails the command when {@code mFail} is set.
+     */
+    private static class FakeDevice implements IShellEnabledDevice {
+        private static final Pattern SHARD_INDEX = Pattern.compile("-e shardIndex (\\d+)");
+        private static final Pattern NUM_SHARDS = Pattern.compile("-e numShards (\\d+)");
+
+        private final String mName;
+        private final boolean mFail;
+
+        FakeDevice(String name, boolean fail) {
+            mName = name;
+            mFail = fail;
+        }
+
+        @Override
+        public String getName() {
+            return mName;
+        }
+
+        @Override
+        public void executeShellCommand(String command, IShellOutputReceiver receiver,
+                long maxTimeToOutputResponse, TimeUnit maxTimeUnits) throws IOException {
+            executeShellCommand(command, receiver, 0, maxTimeToOutputResponse, maxTimeUnits);
+        }
+
+        @Override
+        public void executeShellCommand(String command, IShellOutputReceiver receiver,
+                long maxTimeout, long maxTimeToOutputResponse, TimeUnit maxTimeUnits)
+                throws IOException {
+            if (mFail) {
+                throw new IOException("device offline");
+            }
+            Matcher index = SHARD_INDEX.matcher(command);
+            Matcher count = NUM_SHARDS.matcher(command);
+            assertTrue(index.find());
+            assertTrue(count.find());
+            String test = "testShard" + index.group(1);
+            String output =
+                    "INSTRUMENTATION_STATUS: class=FooTest\n"
+                            + "INSTRUMENTATION_STATUS: test=" + test + "\n"
+                            + "INSTRUMENTATION_STATUS: numtests=1\n"
+                            + "INSTRUMENTATION_STATUS_CODE: 1\n"
+                            + "INSTRUMENTATION_STATUS: class=FooTest\n"
+                            + "INSTRUMENTATION_STATUS: test=" + test + "\n"
+                            + "INSTRUMENTATION_STATUS: numtests=1\n"
+                            + "INSTRUMENTATION_STATUS_CODE: 0\n"
+                            + "Time: 1\n"
+                            + "INSTRUMENTATION_CODE: -1\n";
+            byte[] bytes = output.getBytes(StandardCharsets.UTF_8);
+            receiver.addOutput(bytes, 0, bytes.length);
+            receiver.flush();
+        }
+    }
+
+    /**
+     * Test that the results of all the shards are merged into a single run.
+     */
+    public void testRun() throws Exception {
+        List<FakeDevice> devices = Arrays.asList(
+                new FakeDevice("device0", false),
+                new FakeDevice("device1", false),
+                new FakeDevice("device2", false));
+        ShardedRemoteAndroidTestRunner runner = new ShardedRemoteAndroidTestRunner(devices,
+                device -> new RemoteAndroidTestRunner(TEST_PACKAGE, TEST_RUNNER, device));
+        TestRunResult result = new TestRunResult();
+        runner.run(result);
+
+        assertEquals(TEST_PACKAGE, result.getName());
+        assertTrue(result.isRunComplete());
+        assertFalse(result.isRunFailure());
+        assertEquals(3, result.getNumTests());
+        // the shards ran concurrently, so their times are not added
+        assertTrue(result.getElapsedTime() >= 1000);
+        assertTrue(result.getElapsedTime() < 3000);
+        for (int i = 0; i < 3; i++) {
+            TestRunResult shardResult = runner.getShardResults().get(i);
+            assertEquals(1, shardResult.getNumTests());
+            assertTrue(shardResult.getTestResults()
+                    .containsKey(new TestIdentifier("FooTest", "testShard" + i)));
+        }
+    }
+
+    /**
+     * Test that a failing shard is reported as a run failure, and its exception thrown after all
+     * the shards have finished.
+     */
+    public void testRun_shardFailure() throws Exception {
+        List<FakeDevice> devices = Arrays.asList(
+                new FakeDevice("device0", false),
+                new FakeDevice("device1", true));
+        ShardedRemoteAndroidTestRunner runner = new ShardedRemoteAndroidTestRunner(devices,
+                device -> new RemoteAndroidTestRunner(TEST_PACKAGE, TEST_RUNNER, device));
+        TestRunResult result = new TestRunResult();
+        try {
+            runner.run(result);
+            fail("IOException not thrown");
+        } catch (IOException e) {
+            // expected
+        }
+        assertTrue(result.isRunComplete());
+        assertTrue(result.isRunFailure());
+        assertTrue(result.getRunFailureMessage().startsWith("Shard 1 on device1: "));
+        assertEquals(1, result.getNumTests());
+    }
+}
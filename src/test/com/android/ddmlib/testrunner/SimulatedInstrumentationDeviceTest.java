@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.testrunner.TestResult.TestStatus;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link SimulatedInstrumentationDevice}.
+ */
+public class SimulatedInstrumentationDeviceTest extends TestCase {
+
+    private static final String TEST_PACKAGE = "com.test";
+    private static final String TEST_RUNNER = "androidx.test.runner.AndroidJUnitRunner";
+
+    private static List<String> createTests(int count) {
+        List<String> tests = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            tests.add("com.test.FooTest#test" + i);
+        }
+        return tests;
+    }
+
+    private static SimulatedInstrumentationDevice createDevice(String name) {
+        SimulatedInstrumentationDevice device = new SimulatedInstrumentationDevice(name);
+        device.setTests(createTests(10));
+        // Cut lines and characters everywhere to exercise the parser.
+        device.setMaxChunkSize(7);
+        return device;
+    }
+
+    /**
+     * Test a synthesized run with a failing test.
+     */
+    public void testRun() throws Exception {
+        SimulatedInstrumentationDevice device = createDevice("device0");
+        device.addFailingTest("com.test.FooTest#test3");
+        RemoteAndroidTestRunner runner =
+                new RemoteAndroidTestRunner(TEST_PACKAGE, TEST_RUNNER, device);
+        TestRunResult result = new TestRunResult();
+        runner.run(result);
+
+        assertTrue(result.isRunComplete());
+        assertFalse(result.isRunFailure());
+        assertEquals(10, result.getNumTests());
+        assertEquals(1, result.getNumAllFailedTests());
+        assertEquals(TestStatus.FAILURE, result.getTestResults()
+                .get(new TestIdentifier("com.test.FooTest", "test3")).getStatus());
+    }
+
+    /**
+     * Test that the class argument selects the tests to run.
+     */
+    public void testRun_classFilter() throws Exception {
+        SimulatedInstrumentationDevice device = createDevice("device0");
+        RemoteAndroidTestRunner runner =
+                new RemoteAndroidTestRunner(TEST_PACKAGE, TEST_RUNNER, device);
+        runner.setClassNames(new String[] {"com.test.FooTest#test1", "com.test.FooTest#test7"});
+        TestRunResult result = new TestRunResult();
+        runner.run(result);
+
+        assertEquals(2, result.getNumTests());
+        assertTrue(result.getTestResults()
+                .containsKey(new TestIdentifier("com.test.FooTest", "test7")));
+    }
+
+    /**
+     * Test that sharded runs on several simulated devices run each test once.
+     */
+    public void testRun_sharded() throws Exception {
+        List<SimulatedInstrumentationDevice> devices = Arrays.asList(
+                createDevice("device0"), createDevice("device1"), createDevice("device2"));
+        ShardedRemoteAndroidTestRunner runner = new ShardedRemoteAndroidTestRunner(devices,
+                device -> new RemoteAndroidTestRunner(TEST_PACKAGE, TEST_RUNNER, device));
+        TestRunResult result = new TestRunResult();
+        runner.run(result);
+
+        assertEquals(10, result.getNumTests());
+        assertEquals(10, result.getNumTestsInState(TestStatus.PASSED));
+        assertEquals(4, runner.getShardResults().get(0).getNumTests());
+        assertEquals(3, runner.getShardResults().get(2).getNumTests());
+    }
+
+    /**
+     * Test that a crash fails the run and the current test.
+     */
+    public void testRun_crash() throws Exception {
+        SimulatedInstrumentationDevice device = createDevice("device0");
+        device.setCrashAfter(4);
+        RemoteAndroidTestRunner runner =
+                new RemoteAndroidTestRunner(TEST_PACKAGE, TEST_RUNNER, device);
+        TestRunResult result = new TestRunResult();
+        runner.run(result);
+
+        assertTrue(result.isRunFailure());
+        assertEquals(4, result.getNumTestsInState(TestStatus.PASSED));
+        assertEquals(1, result.getNumAllFailedTests());
+    }
+
+    /**
+     * Test that a stall longer than the max time to output response fails the run, which is
+     * reported once, by the runner.
+     */
+    public void testRun_stall() throws Exception {
+        SimulatedInstrumentationDevice device = createDevice("device0");
+        device.setStall(5, -1);
+        RemoteAndroidTestRunner runner =
+                new RemoteAndroidTestRunner(TEST_PACKAGE, TEST_RUNNER, device);
+        runner.setMaxTimeToOutputResponse(100, TimeUnit.MILLISECONDS);
+        List<String> runEvents = new ArrayList<>();
+        TestRunResult result = new TestRunResult() {
+            @Override
+            public void testRunFailed(String errorMessage) {
+                runEvents.add("failed");
+                super.testRunFailed(errorMessage);
+            }
+
+            @Override
+            public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+                runEvents.add("ended");
+                super.testRunEnded(elapsedTime, runMetrics);
+            }
+        };
+        try {
+            runner.run(result);
+            fail("ShellCommandUnresponsiveException not thrown");
+        } catch (ShellCommandUnresponsiveException e) {
+            // expected
+        }
+        assertEquals(Arrays.asList("failed", "ended"), runEvents);
+        assertTrue(result.getRunFailureMessage().startsWith("Failed to receive adb shell test"));
+        assertEquals(5, result.getNumTests());
+    }
+
+    /**
+     * Test that a recorded run is replayed.
+     */
+    public void testRun_replay() throws Exception {
+        SimulatedInstrumentationDevice.Recording recording =
+                new SimulatedInstrumentationDevice.Recording();
+        SimulatedInstrumentationDevice source = createDevice("source");
+        source.setTestRate(1000);
+        TestRunResult sourceResult = new TestRunResult();
+        InstrumentationResultParser parser = new InstrumentationResultParser(
+                "run", Collections.singletonList(sourceResult));
+        source.executeShellCommand("am instrument -w -r " + TEST_PACKAGE + "/" + TEST_RUNNER,
+                recording.record(parser), 0, TimeUnit.SECONDS);
+
+        ByteArrayOutputStream saved = new ByteArrayOutputStream();
+        recording.write(saved);
+        SimulatedInstrumentationDevice device = new SimulatedInstrumentationDevice("device0");
+        device.setRecording(SimulatedInstrumentationDevice.Recording.read(
+                new ByteArrayInputStream(saved.toByteArray())));
+        device.setSpeed(10);
+        RemoteAndroidTestRunner runner =
+                new RemoteAndroidTestRunner(TEST_PACKAGE, TEST_RUNNER, device);
+        TestRunResult result = new TestRunResult();
+        runner.run(result);
+
+        assertEquals(10, sourceResult.getNumTests());
+        assertEquals(10, result.getNumTests());
+        assertTrue(result.isRunComplete());
+        assertFalse(result.isRunFailure());
+    }
+}
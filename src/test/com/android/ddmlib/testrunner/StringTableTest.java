@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib.testrunner;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link StringTable}.
+ */
+public class StringTableTest extends TestCase {
+
+    /** Tests that equal ranges of characters return the same instance. */
+    public void testIntern() {
+        StringTable table = new StringTable(10);
+        String foo = table.intern(new StringBuilder("  foo  "), 2, 5);
+        assertEquals("foo", foo);
+        assertSame(foo, table.intern("xfoo", 1, 4));
+        assertSame(foo, table.intern(new String("foo")));
+        assertEquals("", table.intern(""));
+        assertEquals(2, table.size());
+    }
+
+    /** Tests that strings are not added once the table is full. */
+    public void testMaxSize() {
+        StringTable table = new StringTable(1);
+        String foo = table.intern("foo");
+        String bar = table.intern(new String("bar"));
+        assertEquals("bar", bar);
+        assertNotSame(bar, table.intern(new String("bar")));
+        assertSame(foo, table.intern(new String("foo")));
+        assertEquals(1, table.size());
+    }
+
+    /** Tests that the table keeps its strings as it grows. */
+    public void testGrow() {
+        StringTable table = new StringTable(1000);
+        String[] strings = new String[500];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = table.intern("key" + i);
+        }
+        for (int i = 0; i < strings.length; i++) {
+            assertSame(strings[i], table.intern("key" + i));
+        }
+        assertEquals(strings.length, table.size());
+    }
+
+    /** Tests that a cleared table doesn't return its previous strings. */
+    public void testClear() {
+        StringTable table = new StringTable(10);
+        String foo = table.intern(new String("foo"));
+        table.clear();
+        assertEquals(0, table.size());
+        assertNotSame(foo, table.intern(new String("foo")));
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.IShellOutputReceiver;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.TimeoutException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link TestCollectionCache}.
+ */
+public class TestCollectionCacheTest extends TestCase {
+
+    private static final String TEST_PACKAGE = "com.test";
+    private static final String TEST_RUNNER = "androidx.test.runner.AndroidJUnitRunner";
+
+    /** Simulated device which takes some time to answer, to overlap concurrent collections. */
+    private static class SlowDevice extends SimulatedInstrumentationDevice {
+        SlowDevice() {
+            super("device0");
+            setTests(Arrays.asList("FooTest#test1", "FooTest#test2", "BarTest#test1"));
+        }
+
+        @Override
+        public void executeShellCommand(String command, IShellOutputReceiver receiver,
+                long maxTimeout, long maxTimeToOutputResponse, TimeUnit maxTimeUnits)
+                throws TimeoutException, ShellCommandUnresponsiveException, IOException {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            super.executeShellCommand(
+                    command, receiver, maxTimeout, maxTimeToOutputResponse, maxTimeUnits);
+        }
+    }
+
+    private File mCacheDir;
+    private File mApk;
+    private SlowDevice mDevice;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCacheDir = Files.createTempDirectory("collection").toFile();
+        mApk = new File(mCacheDir, "test.apk");
+        Files.write(mApk.toPath(), "apk v1".getBytes(StandardCharsets.UTF_8));
+        mDevice = new SlowDevice();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        new TestCollectionCache(mCacheDir).clear();
+        mApk.delete();
+        mCacheDir.delete();
+        super.tearDown();
+    }
+
+    private RemoteAndroidTestRunner createRunner() {
+        return new RemoteAndroidTestRunner(TEST_PACKAGE, TEST_RUNNER, mDevice);
+    }
+
+    /**
+     * Test that collected tests are reused, including by another cache on the same directory.
+     */
+    public void testGetTests() throws Exception {
+        List<TestIdentifier> tests = new TestCollectionCache(mCacheDir).getTests(mApk,
+                createRunner());
+        assertEquals(Arrays.asList(new TestIdentifier("FooTest", "test1"),
+                new TestIdentifier("FooTest", "test2"), new TestIdentifier("BarTest", "test1")),
+                tests);
+        assertEquals(tests, new TestCollectionCache(mCacheDir).getTests(mApk, createRunner()));
+        assertEquals(1, mDevice.getCommands().size());
+        assertTrue(mDevice.getCommands().get(0).contains("-e log true"));
+    }
+
+    /**
+     * Test that a runner is left as it was given, so that it can be reused for the next requests
+     * and the actual run.
+     */
+    public void testGetTests_sameRunner() throws Exception {
+        TestCollectionCache cache = new TestCollectionCache(mCacheDir);
+        RemoteAndroidTestRunner runner = createRunner();
+        runner.setClassName("FooTest");
+        runner.setMaxTimeToOutputResponse(5, TimeUnit.SECONDS);
+        String command = runner.getAmInstrumentCommand();
+
+        assertEquals(2, cache.getTests(mApk, runner).size());
+        assertEquals(command, runner.getAmInstrumentCommand());
+        assertEquals(5000, runner.getMaxTimeToOutputResponseMs());
+        assertEquals(2, cache.getTests(mApk, runner).size());
+        assertEquals(1, mDevice.getCommands().size());
+    }
+
+    /**
+     * Test that a change of the APK content or of the filters triggers a new collection.
+     */
+    public void testGetTests_changed() throws Exception {
+        TestCollectionCache cache = new TestCollectionCache(mCacheDir);
+        cache.getTests(mApk, createRunner());
+
+        RemoteAndroidTestRunner filtered = createRunner();
+        filtered.setClassName("FooTest");
+        assertEquals(2, cache.getTests(mApk, filtered).size());
+        assertEquals(2, mDevice.getCommands().size());
+
+        Files.write(mApk.toPath(), "apk v2 with more bytes".getBytes(StandardCharsets.UTF_8));
+        cache.getTests(mApk, createRunner());
+        assertEquals(3, mDevice.getCommands().size());
+    }
+
+    /**
+     * Test that concurrent requests for the same tests share a single collection.
+     */
+    public void testGetTests_concurrent() throws Exception {
+        TestCollectionCache cache = new TestCollectionCache(mCacheDir);
+        CompletableFuture<List<TestIdentifier>> other = CompletableFuture.supplyAsync(() -> {
+            try {
+                return cache.getTests(mApk, createRunner());
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        List<TestIdentifier> tests = cache.getTests(mApk, createRunner());
+        assertEquals(tests, other.get(10, TimeUnit.SECONDS));
+        assertEquals(1, mDevice.getCommands().size());
+    }
+}
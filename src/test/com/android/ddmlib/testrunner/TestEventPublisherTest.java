@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib.testrunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link TestEventPublisher}.
+ */
+public class TestEventPublisherTest extends TestCase {
+
+    private static final String TEST_PACKAGE = "com.test";
+    private static final String TEST_RUNNER = "androidx.test.runner.AndroidJUnitRunner";
+
+    /** Subscriber recording the events, which requests them explicitly. */
+    private static class RecordingSubscriber implements Flow.Subscriber<TestRunEvent> {
+        final List<TestRunEvent> mEvents = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch mCompleted = new CountDownLatch(1);
+        volatile Flow.Subscription mSubscription;
+        volatile Throwable mError;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            mSubscription = subscription;
+        }
+
+        @Override
+        public void onNext(TestRunEvent item) {
+            mEvents.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            mError = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            mCompleted.countDown();
+        }
+    }
+
+    private ExecutorService mExecutor;
+    private SimulatedInstrumentationDevice mDevice;
+    private RemoteAndroidTestRunner mRunner;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mExecutor = Executors.newCachedThreadPool();
+        List<String> tests = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            tests.add("com.test.FooTest#test" + i);
+        }
+        mDevice = new SimulatedInstrumentationDevice("device0");
+        mDevice.setTests(tests);
+        mDevice.addFailingTest("com.test.FooTest#test5");
+        mRunner = new RemoteAndroidTestRunner(TEST_PACKAGE, TEST_RUNNER, mDevice);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mExecutor.shutdownNow();
+        super.tearDown();
+    }
+
+    /**
+     * Test that the run is paused while the subscriber does not request events.
+     */
+    public void testBackpressure() throws Exception {
+        TestEventPublisher publisher = new TestEventPublisher(mRunner, 4);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        TestRunResult result = new TestRunResult();
+        TestRunFuture future = mRunner.runAsync(mExecutor, publisher, result);
+
+        Thread.sleep(200);
+        assertFalse(future.isDone());
+        // The 4 first events are buffered: run start, start and end of test0, start of test1.
+        assertEquals(1, result.getNumCompleteTests());
+        assertTrue(subscriber.mEvents.isEmpty());
+
+        subscriber.mSubscription.request(2);
+        Thread.sleep(100);
+        assertEquals(2, subscriber.mEvents.size());
+        assertEquals(TestRunEvent.Type.RUN_STARTED, subscriber.mEvents.get(0).getType());
+        assertFalse(future.isDone());
+
+        subscriber.mSubscription.request(Long.MAX_VALUE);
+        assertTrue(subscriber.mCompleted.await(10, TimeUnit.SECONDS));
+        future.get(10, TimeUnit.SECONDS);
+        // run start, 10 tests with a start and an end, a failure, run end
+        assertEquals(23, subscriber.mEvents.size());
+        assertEquals(TestRunEvent.Type.RUN_ENDED, subscriber.mEvents.get(22).getType());
+
+        TestRunResult replayed = new TestRunResult();
+        subscriber.mEvents.forEach(event -> event.sendTo(replayed));
+        assertEquals(10, replayed.getNumTests());
+        assertEquals(1, replayed.getNumAllFailedTests());
+        assertTrue(replayed.isRunComplete());
+    }
+
+    /**
+     * Test that cancelling the subscription cancels the run.
+     */
+    public void testCancel() throws Exception {
+        mDevice.setStall(5, -1);
+        TestEventPublisher publisher = new TestEventPublisher(mRunner);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.mSubscription.request(Long.MAX_VALUE);
+        TestRunFuture future = mRunner.runAsync(mExecutor, publisher);
+        while (subscriber.mEvents.size() < 11) {
+            Thread.sleep(10);
+        }
+        subscriber.mSubscription.cancel();
+
+        TestRunResult result = future.get(10, TimeUnit.SECONDS);
+        assertEquals(5, result.getNumTests());
+        assertEquals(11, subscriber.mEvents.size());
+        assertEquals(1, subscriber.mCompleted.getCount());
+    }
+
+    /**
+     * Test that interrupting the run while it waits for the subscriber cancels the run and signals
+     * the failure to the subscriber.
+     */
+    public void testInterrupted() throws Exception {
+        TestEventPublisher publisher = new TestEventPublisher(mRunner, 4);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        Thread run = new Thread(() -> {
+            try {
+                mRunner.run(publisher);
+            } catch (Exception e) {
+                // the run may fail when interrupted
+            }
+        });
+        run.start();
+        Thread.sleep(200);
+        run.interrupt();
+
+        run.join(10000);
+        assertFalse(run.isAlive());
+        assertTrue(subscriber.mError instanceof InterruptedException);
+        assertTrue(subscriber.mEvents.isEmpty());
+        assertEquals(1, subscriber.mCompleted.getCount());
+    }
+
+    /**
+     * Test that a non-positive request is signalled as an error.
+     */
+    public void testRequest_invalid() {
+        TestEventPublisher publisher = new TestEventPublisher(mRunner);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.mSubscription.request(0);
+        assertTrue(subscriber.mError instanceof IllegalArgumentException);
+    }
+
+    /**
+     * Test that a second subscriber is rejected.
+     */
+    public void testSubscribe_twice() {
+        TestEventPublisher publisher = new TestEventPublisher(mRunner);
+        publisher.subscribe(new RecordingSubscriber());
+        RecordingSubscriber second = new RecordingSubscriber();
+        publisher.subscribe(second);
+        assertTrue(second.mError instanceof IllegalStateException);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib.testrunner;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link TestMetrics}.
+ */
+public class TestMetricsTest extends TestCase {
+
+    /** Tests the parsing of the values of the metrics. */
+    public void testParse() {
+        TestMetrics metrics = createMetrics(
+                "int", "42",
+                "negative", " -7 ",
+                "median", "5721.05",
+                "fraction", ".5",
+                "negativeZero", "-0.0",
+                "exponent", "1.5e3",
+                "large", "12345678901234567",
+                "precise", "0.12345678901234567",
+                "nan", "NaN",
+                "text", "hello",
+                "version", "1.2.3",
+                "empty", "");
+
+        assertTrue(metrics.isLong(0));
+        assertEquals(42, metrics.getLong(0));
+        assertEquals(42.0, metrics.getDouble(0));
+        assertEquals(-7, metrics.getLong(1));
+        assertFalse(metrics.isLong(2));
+        assertTrue(metrics.isNumber(2));
+        assertEquals(5721.05, metrics.getDouble(2));
+        assertEquals(5721, metrics.getLong(2));
+        assertEquals(0.5, metrics.getDouble(3));
+        assertEquals(Double.doubleToLongBits(-0.0), Double.doubleToLongBits(metrics.getDouble(4)));
+        assertEquals(1500.0, metrics.getDouble(5));
+        assertTrue(metrics.isLong(6));
+        assertEquals(12345678901234567L, metrics.getLong(6));
+        assertEquals(0.12345678901234567, metrics.getDouble(7));
+        assertTrue(Double.isNaN(metrics.getDouble(8)));
+        assertTrue(metrics.isNumber(8));
+        for (int i = 9; i < 12; i++) {
+            assertFalse(metrics.isNumber(i));
+            assertTrue(Double.isNaN(metrics.getDouble(i)));
+        }
+        assertEquals("1.2.3", metrics.getString(10));
+    }
+
+    /** Tests the access to the metrics by key. */
+    public void testGetByKey() {
+        TestMetrics metrics = createMetrics("time_nanos_median", "5721.05", "text", "hello");
+        assertEquals(2, metrics.size());
+        assertEquals("time_nanos_median", metrics.getKey(0));
+        assertEquals(1, metrics.indexOf("text"));
+        assertEquals(-1, metrics.indexOf("other"));
+        assertEquals(5721.05, metrics.getDouble("time_nanos_median", -1));
+        assertEquals(5721, metrics.getLong("time_nanos_median", -1));
+        assertEquals(-1.0, metrics.getDouble("text", -1));
+        assertEquals(-1, metrics.getLong("other", -1));
+        assertEquals("hello", metrics.asMap().get("text"));
+        assertTrue(createMetrics().asMap().isEmpty());
+        assertEquals(0, createMetrics().size());
+    }
+
+    /** Tests that the parser reports the parsed metrics to the listeners which accept them. */
+    public void testParser() {
+        List<TestMetrics> typed = new ArrayList<>();
+        ITestMetricRunListener metricListener = new MetricListener() {
+            @Override
+            public void testEnded(TestIdentifier test, TestMetrics testMetrics) {
+                typed.add(testMetrics);
+                super.testEnded(test, testMetrics);
+            }
+        };
+        // only receives the metrics as strings, through the default adapter
+        MetricListener adaptedListener = new MetricListener();
+        TestRunResult result = new TestRunResult();
+        InstrumentationResultParser parser = new InstrumentationResultParser("run",
+                Arrays.asList(metricListener, adaptedListener, result));
+
+        byte[] output = ("INSTRUMENTATION_STATUS: class=com.foo.FooBenchmark\n"
+                + "INSTRUMENTATION_STATUS: test=testFoo\n"
+                + "INSTRUMENTATION_STATUS: numtests=1\n"
+                + "INSTRUMENTATION_STATUS_CODE: 1\n"
+                + "INSTRUMENTATION_STATUS: class=com.foo.FooBenchmark\n"
+                + "INSTRUMENTATION_STATUS: test=testFoo\n"
+                + "INSTRUMENTATION_STATUS: numtests=1\n"
+                + "INSTRUMENTATION_STATUS: EMULATOR_time_nanos_median=5721.05\n"
+                + "INSTRUMENTATION_STATUS: allocation_count=12\n"
+                + "INSTRUMENTATION_STATUS_CODE: 0\n"
+                + "INSTRUMENTATION_CODE: -1\n").getBytes(StandardCharsets.UTF_8);
+        parser.addOutput(output, 0, output.length);
+        parser.flush();
+
+        assertEquals(1, typed.size());
+        assertEquals(5721.05, typed.get(0).getDouble("EMULATOR_time_nanos_median", -1));
+        assertEquals(12, typed.get(0).getLong("allocation_count", -1));
+        assertEquals(2, adaptedListener.mMetrics.size());
+        assertEquals("12", adaptedListener.mMetrics.get("allocation_count"));
+        TestResult testResult = result.getTestResults().values().iterator().next();
+        assertEquals("5721.05", testResult.getMetrics().get("EMULATOR_time_nanos_median"));
+    }
+
+    /**
+     * Tests that the listeners can modify the metrics they are given, as with the maps the parser
+     * used to create, including for the tests without metrics.
+     */
+    public void testParser_modifiableMaps() {
+        TestRunResult modifying = new TestRunResult() {
+            @Override
+            public void testEnded(TestIdentifier test, Map<String, String> testMetrics) {
+                testMetrics.remove("allocation_count");
+                testMetrics.put("added", test.getTestName());
+                super.testEnded(test, testMetrics);
+            }
+        };
+        TestRunResult result = new TestRunResult();
+        InstrumentationResultParser parser = new InstrumentationResultParser("run",
+                Arrays.asList(modifying, result));
+
+        byte[] output = ("INSTRUMENTATION_STATUS: class=com.foo.FooBenchmark\n"
+                + "INSTRUMENTATION_STATUS: test=testFoo\n"
+                + "INSTRUMENTATION_STATUS: numtests=2\n"
+                + "INSTRUMENTATION_STATUS_CODE: 1\n"
+                + "INSTRUMENTATION_STATUS: class=com.foo.FooBenchmark\n"
+                + "INSTRUMENTATION_STATUS: test=testFoo\n"
+                + "INSTRUMENTATION_STATUS: numtests=2\n"
+                + "INSTRUMENTATION_STATUS: EMULATOR_time_nanos_median=5721.05\n"
+                + "INSTRUMENTATION_STATUS: allocation_count=12\n"
+                + "INSTRUMENTATION_STATUS_CODE: 0\n"
+                + "INSTRUMENTATION_STATUS: class=com.foo.FooBenchmark\n"
+                + "INSTRUMENTATION_STATUS: test=testBar\n"
+                + "INSTRUMENTATION_STATUS: numtests=2\n"
+                + "INSTRUMENTATION_STATUS_CODE: 1\n"
+                + "INSTRUMENTATION_STATUS: class=com.foo.FooBenchmark\n"
+                + "INSTRUMENTATION_STATUS: test=testBar\n"
+                + "INSTRUMENTATION_STATUS: numtests=2\n"
+                + "INSTRUMENTATION_STATUS_CODE: 0\n"
+                + "INSTRUMENTATION_CODE: -1\n").getBytes(StandardCharsets.UTF_8);
+        parser.addOutput(output, 0, output.length);
+        parser.flush();
+
+        Map<String, String> foo = result.getTestResults()
+                .get(new TestIdentifier("com.foo.FooBenchmark", "testFoo")).getMetrics();
+        assertEquals("{EMULATOR_time_nanos_median=5721.05, added=testFoo}", foo.toString());
+        Map<String, String> bar = result.getTestResults()
+                .get(new TestIdentifier("com.foo.FooBenchmark", "testBar")).getMetrics();
+        assertEquals("{added=testBar}", bar.toString());
+    }
+
+    private static TestMetrics createMetrics(String... keyValues) {
+        MetricMap metrics = new MetricMap(new MetricMap.Arena());
+        for (int i = 0; i < keyValues.length; i += 2) {
+            metrics.add(keyValues[i], new StringBuilder(keyValues[i + 1]));
+        }
+        return new TestMetrics(metrics);
+    }
+
+    private static class MetricListener extends TestRunResult implements ITestMetricRunListener {
+
+        private Map<String, String> mMetrics;
+
+        @Override
+        public void testEnded(TestIdentifier test, Map<String, String> testMetrics) {
+            mMetrics = testMetrics;
+            super.testEnded(test, testMetrics);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.testrunner.TestResult.TestStatus;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link TestResultCache}.
+ */
+public class TestResultCacheTest extends TestCase {
+
+    private static final String TEST_PACKAGE = "com.test";
+    private static final String TEST_RUNNER = "androidx.test.runner.AndroidJUnitRunner";
+
+    private File mCacheDir;
+    private File mTestApk;
+    private File mAppApk;
+    private SimulatedInstrumentationDevice mDevice;
+    private List<TestIdentifier> mTests;
+    private TestResultCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCacheDir = Files.createTempDirectory("results").toFile();
+        mTestApk = new File(mCacheDir, "test.apk");
+        Files.write(mTestApk.toPath(), "test apk v1".getBytes(StandardCharsets.UTF_8));
+        mAppApk = new File(mCacheDir, "app.apk");
+        Files.write(mAppApk.toPath(), "app apk v1".getBytes(StandardCharsets.UTF_8));
+        mTests = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            mTests.add(new TestIdentifier("com.test.FooTest", "test" + i));
+            names.add("com.test.FooTest#test" + i);
+        }
+        mDevice = new SimulatedInstrumentationDevice("device0");
+        mDevice.setTests(names);
+        mDevice.addFailingTest("com.test.FooTest#test4");
+        mCache = new TestResultCache(mCacheDir);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCache.clear();
+        mTestApk.delete();
+        mAppApk.delete();
+        mCacheDir.delete();
+        super.tearDown();
+    }
+
+    private TestRunResult run() throws Exception {
+        TestRunResult result = new TestRunResult();
+        mCache.run(Collections.singletonList(mDevice),
+                device -> new RemoteAndroidTestRunner(TEST_PACKAGE, TEST_RUNNER, device),
+                Arrays.asList(mTestApk, mAppApk), mTests, Collections.singletonList(result));
+        return result;
+    }
+
+    private static int countCached(TestRunResult result) {
+        int count = 0;
+        for (TestResult testResult : result.getTestResults().values()) {
+            if (testResult.getMetrics() != null
+                    && "true".equals(testResult.getMetrics().get(TestResultCache.CACHED_METRIC))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Test that only the tests which did not pass are run again.
+     */
+    public void testRun_cached() throws Exception {
+        TestRunResult first = run();
+        assertEquals(10, first.getNumTests());
+        assertEquals(0, countCached(first));
+
+        TestRunResult second = run();
+        assertEquals(2, mDevice.getCommands().size());
+        assertTrue(mDevice.getCommands().get(1).contains("com.test.FooTest#test4"));
+        assertFalse(mDevice.getCommands().get(1).contains("com.test.FooTest#test3"));
+        assertTrue(second.isRunComplete());
+        assertEquals(10, second.getNumTests());
+        assertEquals(9, second.getNumTestsInState(TestStatus.PASSED));
+        assertEquals(9, countCached(second));
+        assertEquals(TestStatus.FAILURE, second.getTestResults()
+                .get(new TestIdentifier("com.test.FooTest", "test4")).getStatus());
+    }
+
+    /**
+     * Test that all the tests run again when an APK changes.
+     */
+    public void testRun_apkChanged() throws Exception {
+        run();
+        Files.write(mAppApk.toPath(), "app apk v2".getBytes(StandardCharsets.UTF_8));
+        mAppApk.setLastModified(mAppApk.lastModified() + 2000);
+        TestRunResult result = run();
+
+        assertEquals(0, countCached(result));
+        assertEquals(10, result.getNumTests());
+        assertTrue(mDevice.getCommands().get(1).contains("com.test.FooTest#test3"));
+    }
+
+    /**
+     * Test that the least recently used entries are evicted.
+     */
+    public void testRun_evict() throws Exception {
+        mCache.setMaxEntries(1);
+        run();
+        Files.write(mTestApk.toPath(), "test apk v2".getBytes(StandardCharsets.UTF_8));
+        mTestApk.setLastModified(mTestApk.lastModified() + 2000);
+        run();
+
+        File[] entries = mCacheDir.listFiles((dir, name) -> name.endsWith(".results"));
+        assertEquals(1, entries.length);
+    }
+
+    /**
+     * Test that the tests are split into instrumentations under the command length limit.
+     */
+    public void testRun_maxCommandLength() throws Exception {
+        mCache.setMaxCommandLength(
+                new RemoteAndroidTestRunner(TEST_PACKAGE, TEST_RUNNER, mDevice)
+                                .getAmInstrumentCommand().length()
+                        + 100);
+        TestRunResult result = run();
+
+        assertEquals(10, result.getNumTests());
+        assertTrue(mDevice.getCommands().size() > 1);
+    }
+
+    /**
+     * Test that failing to write the cache entry does not fail the run.
+     */
+    public void testRun_unwritable() throws Exception {
+        File notADirectory = new File(mCacheDir, "file");
+        Files.write(notADirectory.toPath(), new byte[0]);
+        try {
+            mCache = new TestResultCache(notADirectory);
+            TestRunResult result = run();
+
+            assertTrue(result.isRunComplete());
+            assertEquals(10, result.getNumTests());
+        } finally {
+            notADirectory.delete();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.testrunner.TestResult.TestStatus;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link TestRunFuture}.
+ */
+public class TestRunFutureTest extends TestCase {
+
+    private static final String TEST_PACKAGE = "com.test";
+    private static final String TEST_RUNNER = "androidx.test.runner.AndroidJUnitRunner";
+
+    private ExecutorService mExecutor;
+    private SimulatedInstrumentationDevice mDevice;
+    private RemoteAndroidTestRunner mRunner;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mExecutor = Executors.newCachedThreadPool();
+        List<String> tests = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            tests.add("com.test.FooTest#test" + i);
+        }
+        mDevice = new SimulatedInstrumentationDevice("device0");
+        mDevice.setTests(tests);
+        mDevice.addFailingTest("com.test.FooTest#test2");
+        mRunner = new RemoteAndroidTestRunner(TEST_PACKAGE, TEST_RUNNER, mDevice);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mExecutor.shutdownNow();
+        super.tearDown();
+    }
+
+    /**
+     * Test that the future completes with the result of the run.
+     */
+    public void testRunAsync() throws Exception {
+        TestRunResult listener = new TestRunResult();
+        TestRunFuture future = mRunner.runAsync(mExecutor, listener);
+        TestRunResult result = future.get(10, TimeUnit.SECONDS);
+
+        assertTrue(result.isRunComplete());
+        assertEquals(10, result.getNumTests());
+        assertEquals(TestStatus.FAILURE, result.getTestResults()
+                .get(new TestIdentifier("com.test.FooTest", "test2")).getStatus());
+        assertEquals(10, listener.getNumTests());
+        assertEquals(1, listener.getNumAllFailedTests());
+    }
+
+    /**
+     * Test that a listener subscribing late receives the events it missed.
+     */
+    public void testSubscribe_replay() throws Exception {
+        mDevice.setTestRate(100);
+        TestRunFuture future = mRunner.runAsync(mExecutor);
+        Thread.sleep(30);
+        TestRunResult late = new TestRunResult();
+        future.subscribe(late);
+        future.get(10, TimeUnit.SECONDS);
+
+        assertTrue(late.isRunComplete());
+        assertEquals(10, late.getNumTests());
+        assertEquals(9, late.getNumTestsInState(TestStatus.PASSED));
+    }
+
+    /**
+     * Test that cancelling the future stops the run on the device, and that the listeners are
+     * informed once of the end of the run.
+     */
+    public void testCancel() throws Exception {
+        mDevice.setStall(3, -1);
+        CountDownLatch ended = new CountDownLatch(1);
+        AtomicInteger endCount = new AtomicInteger();
+        TestRunResult listener = new TestRunResult() {
+            @Override
+            public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+                super.testRunEnded(elapsedTime, runMetrics);
+                endCount.incrementAndGet();
+                ended.countDown();
+            }
+        };
+        TestRunFuture future = mRunner.runAsync(mExecutor, listener);
+        // wait for the stall
+        while (future.getPartialResult().getNumTests() < 3) {
+            Thread.sleep(10);
+        }
+        assertTrue(future.cancel(true));
+
+        assertTrue(ended.await(10, TimeUnit.SECONDS));
+        assertTrue(future.isCancelled());
+        assertEquals(3, listener.getNumTests());
+        assertEquals(RemoteAndroidTestRunner.CANCELLED_MSG, listener.getRunFailureMessage());
+        // let a second end of the run be reported, if any
+        Thread.sleep(100);
+        assertEquals(1, endCount.get());
+        try {
+            future.get();
+            fail("expected CancellationException");
+        } catch (CancellationException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Test that the future completes exceptionally when the run throws.
+     */
+    public void testRunAsync_exception() throws Exception {
+        mDevice.setStall(3, -1);
+        mRunner.setMaxTimeToOutputResponse(100, TimeUnit.MILLISECONDS);
+        TestRunFuture future = mRunner.runAsync(mExecutor);
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ShellCommandUnresponsiveException);
+        }
+        assertTrue(future.getPartialResult().isRunFailure());
+        assertEquals(3, future.getPartialResult().getNumTests());
+    }
+
+    /**
+     * Test that a listener subscribing after the run ended receives its result.
+     */
+    public void testSubscribe_afterEnd() throws Exception {
+        TestRunFuture future = mRunner.runAsync(mExecutor);
+        future.get(10, TimeUnit.SECONDS);
+        TestRunResult late = new TestRunResult();
+        future.subscribe(late);
+
+        assertTrue(late.isRunComplete());
+        assertEquals(10, late.getNumTests());
+        assertEquals(9, late.getNumTestsInState(TestStatus.PASSED));
+        assertEquals(TestStatus.FAILURE, late.getTestResults()
+                .get(new TestIdentifier("com.test.FooTest", "test2")).getStatus());
+    }
+
+    /**
+     * Test that the partial result is a snapshot, not updated by the later events of the run.
+     */
+    public void testGetPartialResult_snapshot() throws Exception {
+        mDevice.setStall(3, -1);
+        TestRunFuture future = mRunner.runAsync(mExecutor);
+        TestRunResult partial = future.getPartialResult();
+        while (partial.getNumTests() < 3) {
+            Thread.sleep(10);
+            partial = future.getPartialResult();
+        }
+        future.cancel(true);
+        while (!future.getPartialResult().isRunFailure()) {
+            Thread.sleep(10);
+        }
+
+        assertFalse(partial.isRunFailure());
+        assertFalse(partial.isRunComplete());
+    }
+
+    /**
+     * Test that a run cancelled before its parser is created does not run the tests.
+     */
+    public void testCancel_beforeRun() throws Exception {
+        mRunner.cancel();
+        TestRunResult result = new TestRunResult();
+        mRunner.run(result);
+        assertEquals(0, result.getNumTests());
+        assertEquals(RemoteAndroidTestRunner.CANCELLED_MSG, result.getRunFailureMessage());
+        assertTrue(result.isRunComplete());
+        result.reset();
+
+        // the cancellation only applies to one run
+        mRunner.run(result);
+        assertEquals(10, result.getNumTests());
+    }
+}
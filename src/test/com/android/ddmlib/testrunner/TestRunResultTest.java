@@ -47,4 +47,24 @@ public class TestRunResultTest {
         result.testEnded(test, 25l, Collections.EMPTY_MAP);
         assertEquals(25l, result.getTestResults().get(test).getEndTime());
     }
+
+    /** Test that a reset result can record another run. */
+    @Test
+    public void testReset() {
+        TestIdentifier test = new TestIdentifier("FooTest", "testBar");
+        TestRunResult result = new TestRunResult();
+        result.testRunStarted("run", 1);
+        result.testStarted(test);
+        result.testFailed(test, "trace");
+        result.testEnded(test, Collections.EMPTY_MAP);
+        result.testRunFailed("error");
+        result.testRunEnded(10, Collections.singletonMap("key", "value"));
+        result.reset();
+        assertEquals("not started", result.getName());
+        assertEquals(0, result.getNumTests());
+        assertEquals(0, result.getNumTestsInState(TestStatus.FAILURE));
+        assertTrue(result.getRunMetrics().isEmpty());
+        assertFalse(result.isRunFailure());
+        assertFalse(result.isRunComplete());
+    }
 }
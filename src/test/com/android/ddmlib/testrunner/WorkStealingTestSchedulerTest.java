@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.IShellEnabledDevice;
+import com.android.ddmlib.IShellOutputReceiver;
+import com.android.ddmlib.testrunner.TestResult.TestStatus;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link WorkStealingTestScheduler}.
+ */
+public class WorkStealingTestSchedulerTest extends TestCase {
+
+    private static final String TEST_PACKAGE = "com.test";
+    private static final String TEST_RUNNER = "com.test.InstrumentationTestRunner";
+
+    /**
+     * Fake device which passes every test method given in the class argument, after an optional
+     * delay, and fails the command after {@code mFailAfter} tests if not negative.
+     */
+    private static class FakeDevice implements IShellEnabledDevice {
+        private static final Pattern CLASS_ARG = Pattern.compile("-e class '([^']*)'");
+
+        private final String mName;
+        private final int mFailAfter;
+        private final long mDelayMs;
+        private final AtomicInteger mInvocations = new AtomicInteger();
+
+        FakeDevice(String name, boolean fail, long delayMs) {
+            this(name, fail ? 0 : -1, delayMs);
+        }
+
+        FakeDevice(String name, int failAfter, long delayMs) {
+            mName = name;
+            mFailAfter = failAfter;
+            mDelayMs = delayMs;
+        }
+
+        @Override
+        public String getName() {
+            return mName;
+        }
+
+        @Override
+        public void executeShellCommand(String command, IShellOutputReceiver receiver,
+                long maxTimeToOutputResponse, TimeUnit maxTimeUnits) throws IOException {
+            executeShellCommand(command, receiver, 0, maxTimeToOutputResponse, maxTimeUnits);
+        }
+
+        @Override
+        public void executeShellCommand(String command, IShellOutputReceiver receiver,
+                long maxTimeout, long maxTimeToOutputResponse, TimeUnit maxTimeUnits)
+                throws IOException {
+            mInvocations.incrementAndGet();
+            if (mFailAfter == 0) {
+                throw new IOException("device offline");
+            }
+            if (mDelayMs > 0) {
+                try {
+                    Thread.sleep(mDelayMs);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            Matcher matcher = CLASS_ARG.matcher(command);
+            assertTrue(matcher.find());
+            String[] tests = matcher.group(1).split(",");
+            StringBuilder output = new StringBuilder();
+            for (int i = 0; i < tests.length; i++) {
+                if (i == mFailAfter) {
+                    byte[] bytes = output.toString().getBytes(StandardCharsets.UTF_8);
+                    receiver.addOutput(bytes, 0, bytes.length);
+                    throw new IOException("device offline");
+                }
+                String[] parts = tests[i].split("#");
+                for (int code : new int[] {1, 0}) {
+                    output.append("INSTRUMENTATION_STATUS: class=").append(parts[0]).append('\n');
+                    output.append("INSTRUMENTATION_STATUS: test=").append(parts[1]).append('\n');
+                    output.append("INSTRUMENTATION_STATUS: numtests=").append(tests.length)
+                            .append('\n');
+                    output.append("INSTRUMENTATION_STATUS_CODE: ").append(code).append('\n');
+                }
+            }
+            output.append("Time: 1\nINSTRUMENTATION_CODE: -1\n");
+            byte[] bytes = output.toString().getBytes(StandardCharsets.UTF_8);
+            receiver.addOutput(bytes, 0, bytes.length);
+            receiver.flush();
+        }
+    }
+
+    private static final List<String> TESTS = Arrays.asList(
+            "FooTest#test1", "FooTest#test2", "FooTest#test3", "BarTest#test1", "BarTest#test2");
+
+    /**
+     * Test that all batches are run and merged into a single run.
+     */
+    public void testRun() throws Exception {
+        FakeDevice device0 = new FakeDevice("device0", false, 0);
+        FakeDevice device1 = new FakeDevice("device1", false, 0);
+        WorkStealingTestScheduler scheduler = new WorkStealingTestScheduler(
+                Arrays.asList(device0, device1),
+                device -> new RemoteAndroidTestRunner(TEST_PACKAGE, TEST_RUNNER, device));
+        scheduler.setBatchSize(2);
+        TestRunResult result = new TestRunResult();
+        scheduler.run(TESTS, Collections.singletonList(result));
+
+        assertTrue(result.isRunComplete());
+        assertFalse(result.isRunFailure());
+        assertEquals(5, result.getNumTests());
+        assertEquals(3, device0.mInvocations.get() + device1.mInvocations.get());
+    }
+
+    /**
+     * Test that the batches of a failing device are taken over by the remaining device.
+     */
+    public void testRun_deviceFailure() throws Exception {
+        FakeDevice device0 = new FakeDevice("device0", true, 0);
+        // Slow down the healthy device so that the failing one gets a batch.
+        FakeDevice device1 = new FakeDevice("device1", false, 50);
+        WorkStealingTestScheduler scheduler = new WorkStealingTestScheduler(
+                Arrays.asList(device0, device1),
+                device -> new RemoteAndroidTestRunner(TEST_PACKAGE, TEST_RUNNER, device));
+        TestRunResult result = new TestRunResult();
+        try {
+            scheduler.run(TESTS, Collections.singletonList(result));
+            fail("IOException not thrown");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(1, device0.mInvocations.get());
+        // the batch of the failing device is run by the other one
+        assertEquals(5, result.getNumTests());
+        assertEquals(5, device1.mInvocations.get());
+        assertTrue(result.isRunComplete());
+        assertTrue(result.isRunFailure());
+    }
+
+    /**
+     * Test that only the tests of a failing device which did not report are run again.
+     */
+    public void testRun_deviceFailureMidBatch() throws Exception {
+        FakeDevice device0 = new FakeDevice("device0", 1, 0);
+        FakeDevice device1 = new FakeDevice("device1", false, 50);
+        WorkStealingTestScheduler scheduler = new WorkStealingTestScheduler(
+                Arrays.asList(device0, device1),
+                device -> new RemoteAndroidTestRunner(TEST_PACKAGE, TEST_RUNNER, device));
+        scheduler.setBatchSize(3);
+        List<TestIdentifier> started = Collections.synchronizedList(new ArrayList<>());
+        TestRunResult result = new TestRunResult() {
+            @Override
+            public void testStarted(TestIdentifier test) {
+                started.add(test);
+                super.testStarted(test);
+            }
+        };
+        try {
+            scheduler.run(TESTS, Collections.singletonList(result));
+            fail("IOException not thrown");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(1, device0.mInvocations.get());
+        // every test is reported once
+        assertEquals(5, started.size());
+        assertEquals(5, result.getNumTests());
+        assertEquals(5, result.getNumTestsInState(TestStatus.PASSED));
+    }
+
+    /**
+     * Test that the batch of a failing device is reported as not run when no device is left.
+     */
+    public void testRun_allDevicesFailed() throws Exception {
+        FakeDevice device0 = new FakeDevice("device0", true, 0);
+        WorkStealingTestScheduler scheduler = new WorkStealingTestScheduler(
+                Collections.singletonList(device0),
+                device -> new RemoteAndroidTestRunner(TEST_PACKAGE, TEST_RUNNER, device));
+        TestRunResult result = new TestRunResult();
+        try {
+            scheduler.run(TESTS, Collections.singletonList(result));
+            fail("IOException not thrown");
+        } catch (IOException e) {
+            // expected
+        }
+        assertTrue(result.isRunFailure());
+        assertTrue(result.getRunFailureMessage(),
+                result.getRunFailureMessage().contains("5 tests were not run"));
+    }
+}
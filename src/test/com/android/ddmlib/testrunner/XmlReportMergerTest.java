@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib.testrunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathFactory;
+import junit.framework.TestCase;
+import org.xml.sax.InputSource;
+
+/**
+ * Unit tests for {@link XmlReportMerger}.
+ */
+public class XmlReportMergerTest extends TestCase {
+
+    private File mReportDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mReportDir = Files.createTempDirectory("merge").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = mReportDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mReportDir.delete();
+        super.tearDown();
+    }
+
+    /**
+     * Test that the merged report contains all test cases and the summed counts.
+     */
+    public void testMerge() throws Exception {
+        File first = writeReport("shard0", "FooTest", false);
+        File second = writeReport("shard1", "BarTest", true);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        XmlReportMerger merger = new XmlReportMerger();
+        merger.setSuiteName("merged");
+        merger.merge(Arrays.asList(first, second), output);
+        String xml = new String(output.toByteArray(), StandardCharsets.UTF_8);
+
+        assertEquals("merged", evaluate(xml, "/testsuite/@name"));
+        assertEquals("4", evaluate(xml, "/testsuite/@tests"));
+        assertEquals("1", evaluate(xml, "/testsuite/@failures"));
+        assertEquals("4", evaluate(xml, "count(/testsuite/testcase)"));
+        assertEquals("FooTest", evaluate(xml, "/testsuite/testcase[1]/@classname"));
+        assertEquals("BarTest", evaluate(xml, "/testsuite/testcase[3]/@classname"));
+        assertEquals("trace & <stack>",
+                evaluate(xml, "/testsuite/testcase[@classname='BarTest']/failure"));
+        // the test cases are indented as children of the suite
+        assertTrue(xml, xml.contains("\n  <testcase"));
+        assertFalse(xml, xml.contains("\n<testcase"));
+    }
+
+    /**
+     * Test that a malformed input report fails the merge.
+     */
+    public void testMerge_malformed() throws Exception {
+        File first = writeReport("shard0", "FooTest", false);
+        File broken = new File(mReportDir, "broken.xml");
+        Files.write(broken.toPath(), "<testsuite><testcase".getBytes(StandardCharsets.UTF_8));
+        try {
+            new XmlReportMerger().merge(Arrays.asList(first, broken), new ByteArrayOutputStream());
+            fail("IOException not thrown");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Test that a malformed input report fails the merge when other reports are still waiting to
+     * be read, and that no spool file is left behind.
+     */
+    public void testMerge_malformedWithPendingReports() throws Exception {
+        File broken = new File(mReportDir, "broken.xml");
+        Files.write(broken.toPath(), "<testsuite><testcase".getBytes(StandardCharsets.UTF_8));
+        File[] reports = {
+            broken,
+            writeReport("shard1", "FooTest", false),
+            writeReport("shard2", "BarTest", false),
+            writeReport("shard3", "BazTest", false),
+        };
+        File tempDir = new File(System.getProperty("java.io.tmpdir"));
+        int spoolFiles = countSpoolFiles(tempDir);
+        XmlReportMerger merger = new XmlReportMerger();
+        merger.setParallelism(1);
+        try {
+            merger.merge(Arrays.asList(reports), new ByteArrayOutputStream());
+            fail("IOException not thrown");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(spoolFiles, countSpoolFiles(tempDir));
+    }
+
+    private static int countSpoolFiles(File dir) {
+        String[] names = dir.list((parent, name) -> name.startsWith("merge_"));
+        return names == null ? 0 : names.length;
+    }
+
+    private File writeReport(String runName, String className, boolean fail) {
+        File report = new File(mReportDir, runName + ".xml");
+        XmlTestRunListener listener = new XmlTestRunListener() {
+            @Override
+            protected File getResultFile(File reportDir) {
+                return report;
+            }
+        };
+        listener.setReportDir(mReportDir);
+        Map<String, String> emptyMap = Collections.emptyMap();
+        TestIdentifier test1 = new TestIdentifier(className, "test1");
+        TestIdentifier test2 = new TestIdentifier(className, "test2");
+        listener.testRunStarted(runName, 2);
+        listener.testStarted(test1);
+        listener.testEnded(test1, emptyMap);
+        listener.testStarted(test2);
+        if (fail) {
+            listener.testFailed(test2, "trace & <stack>");
+        }
+        listener.testEnded(test2, emptyMap);
+        listener.testRunEnded(10, emptyMap);
+        return report;
+    }
+
+    private static String evaluate(String xml, String expression) throws Exception {
+        XPath xpath = XPathFactory.newInstance().newXPath();
+        return xpath.evaluate(expression, new InputSource(new StringReader(xml)));
+    }
+}
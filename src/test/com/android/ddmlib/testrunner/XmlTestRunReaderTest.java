@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.testrunner.TestResult.TestStatus;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Map;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link XmlTestRunReader}.
+ */
+public class XmlTestRunReaderTest extends TestCase {
+
+    private static final TestIdentifier PASSED = new TestIdentifier("FooTest", "testPassed");
+    private static final TestIdentifier FAILED = new TestIdentifier("FooTest", "testFailed");
+    private static final TestIdentifier IGNORED = new TestIdentifier("FooTest", "testIgnored");
+    private static final TestIdentifier ASSUMPTION =
+            new TestIdentifier("FooTest", "testAssumption");
+
+    private ByteArrayOutputStream mOutputStream;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mOutputStream = new ByteArrayOutputStream();
+        XmlTestRunListener writer = new XmlTestRunListener() {
+            @Override
+            OutputStream createOutputResultStream(File reportDir) throws IOException {
+                return mOutputStream;
+            }
+
+            @Override
+            protected Map<String, String> getPropertiesAttributes() {
+                return Map.of("device", "emulator-5554");
+            }
+        };
+        Map<String, String> emptyMap = Collections.emptyMap();
+        writer.testRunStarted("run", 4);
+        writer.testStarted(PASSED);
+        writer.testEnded(PASSED, emptyMap);
+        writer.testStarted(FAILED);
+        writer.testFailed(FAILED, "java.lang.AssertionError\n\tat FooTest");
+        writer.testEnded(FAILED, emptyMap);
+        writer.testStarted(IGNORED);
+        writer.testIgnored(IGNORED);
+        writer.testEnded(IGNORED, emptyMap);
+        writer.testStarted(ASSUMPTION);
+        writer.testAssumptionFailure(ASSUMPTION, "assumption");
+        writer.testEnded(ASSUMPTION, emptyMap);
+        writer.testRunEnded(2500, emptyMap);
+    }
+
+    /**
+     * Test that a report written by {@link XmlTestRunListener} is read back.
+     */
+    public void testRead() throws Exception {
+        TestRunResult result = new XmlTestRunReader().read(getReport());
+
+        assertEquals("run", result.getName());
+        assertTrue(result.isRunComplete());
+        assertEquals(2500, result.getElapsedTime());
+        assertEquals("emulator-5554", result.getRunMetrics().get("device"));
+        assertEquals(4, result.getNumTests());
+        Map<TestIdentifier, TestResult> tests = result.getTestResults();
+        assertEquals(TestStatus.PASSED, tests.get(PASSED).getStatus());
+        assertEquals(TestStatus.FAILURE, tests.get(FAILED).getStatus());
+        assertEquals("java.lang.AssertionError\n\tat FooTest", tests.get(FAILED).getStackTrace());
+        assertEquals(TestStatus.IGNORED, tests.get(IGNORED).getStatus());
+        assertEquals(TestStatus.ASSUMPTION_FAILURE, tests.get(ASSUMPTION).getStatus());
+        assertEquals("assumption", tests.get(ASSUMPTION).getStackTrace());
+    }
+
+    /**
+     * Test that only failures are kept when requested.
+     */
+    public void testRead_failuresOnly() throws Exception {
+        XmlTestRunReader reader = new XmlTestRunReader();
+        reader.setFailuresOnly(true);
+        TestRunResult result = reader.read(getReport());
+
+        assertEquals(1, result.getNumTests());
+        assertEquals(TestStatus.FAILURE, result.getTestResults().get(FAILED).getStatus());
+    }
+
+    /**
+     * Test that a truncated report is rejected.
+     */
+    public void testRead_truncated() throws Exception {
+        byte[] report = mOutputStream.toByteArray();
+        try {
+            new XmlTestRunReader().read(new ByteArrayInputStream(report, 0, report.length / 2));
+            fail("IOException not thrown");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private ByteArrayInputStream getReport() {
+        return new ByteArrayInputStream(mOutputStream.toByteArray());
+    }
+}
@@ -3,7 +3,38 @@ package org.example;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
 public class MainTest {
+
+    private static final String PASSING_RUN =
+            "INSTRUMENTATION_STATUS: class=com.foo.FooTest\n" +
+            "INSTRUMENTATION_STATUS: current=1\n" +
+            "INSTRUMENTATION_STATUS: numtests=1\n" +
+            "INSTRUMENTATION_STATUS: test=testFoo\n" +
+            "INSTRUMENTATION_STATUS_CODE: 1\n" +
+            "INSTRUMENTATION_STATUS: class=com.foo.FooTest\n" +
+            "INSTRUMENTATION_STATUS: current=1\n" +
+            "INSTRUMENTATION_STATUS: numtests=1\n" +
+            "INSTRUMENTATION_STATUS: test=testFoo\n" +
+            "INSTRUMENTATION_STATUS_CODE: 0\n" +
+            "INSTRUMENTATION_RESULT: stream=\n" +
+            "Time: 0.1\n" +
+            "\n" +
+            "OK (1 test)\n" +
+            "INSTRUMENTATION_CODE: -1\n";
+
+    private final ByteArrayOutputStream mStdout = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream mStderr = new ByteArrayOutputStream();
+
     @Test
     public void testConstant4() {
         assertEquals("constant function is 4", 4, Main.constant4());
@@ -13,4 +44,67 @@ public class MainTest {
     public void testOther() {
         String result = Main.someNonNullFunc(null);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testSummary() {
+        assertEquals(Main.EXIT_PASSED, run(PASSING_RUN));
+        String output = mStdout.toString();
+        assertTrue(output, output.contains("PASSED com.foo.FooTest#testFoo"));
+        assertTrue(output, output.contains("Total tests 1, passed 1"));
+    }
+
+    @Test
+    public void testJsonLines() {
+        assertEquals(Main.EXIT_PASSED, run(PASSING_RUN, "--format=jsonl"));
+        String[] records = mStdout.toString().split("\n");
+        assertEquals(3, records.length);
+        assertTrue(records[1], records[1].contains("\"status\":\"PASSED\""));
+    }
+
+    @Test
+    public void testFailedTest() {
+        String output = PASSING_RUN
+                .replace("INSTRUMENTATION_STATUS_CODE: 0\n",
+                        "INSTRUMENTATION_STATUS: stack=java.lang.AssertionError\n" +
+                        "INSTRUMENTATION_STATUS_CODE: -2\n");
+        assertEquals(Main.EXIT_TESTS_FAILED, run(output));
+        assertTrue(mStdout.toString().contains("FAILURE com.foo.FooTest#testFoo"));
+    }
+
+    @Test
+    public void testIncompleteRun() {
+        String output = PASSING_RUN.substring(0, PASSING_RUN.indexOf("INSTRUMENTATION_STATUS_CODE: 0"));
+        assertEquals(Main.EXIT_RUN_FAILED, run(output));
+        assertTrue(mStdout.toString().contains("Test run failed"));
+    }
+
+    @Test
+    public void testUsage() {
+        assertEquals(Main.EXIT_USAGE, run(PASSING_RUN, "--format=html"));
+        assertEquals(Main.EXIT_USAGE, run(PASSING_RUN, "a", "b"));
+        assertEquals("", mStdout.toString());
+    }
+
+    @Test
+    public void testListenUsage() {
+        assertEquals(Main.EXIT_USAGE, run("", "--listen=1234", "--format=jsonl"));
+        assertEquals(Main.EXIT_USAGE, run("", "--listen=1234", "input"));
+        assertEquals(Main.EXIT_USAGE, run("", "--listen=localhost:port"));
+        assertEquals(Main.EXIT_USAGE, run("", "--listen=1234", "--threads=0"));
+    }
+
+    @Test
+    public void testParseAddress() {
+        assertEquals(new InetSocketAddress(InetAddress.getLoopbackAddress(), 1234),
+                Main.parseAddress("1234"));
+        assertEquals(new InetSocketAddress("localhost", 1234), Main.parseAddress("localhost:1234"));
+        assertEquals(UnixDomainSocketAddress.of("/tmp/ingest.sock"),
+                Main.parseAddress("unix:/tmp/ingest.sock"));
+    }
+
+    private int run(String output, String... args) {
+        ReadableByteChannel stdin = Channels.newChannel(
+                new ByteArrayInputStream(output.getBytes(StandardCharsets.UTF_8)));
+        return Main.run(args, stdin, mStdout, new PrintStream(mStderr));
+    }
+}